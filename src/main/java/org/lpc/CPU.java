@@ -2,142 +2,250 @@ package org.lpc;
 
 import lombok.Getter;
 import lombok.Setter;
-import org.lpc.instructions.Instruction;
+import org.lpc.engine.ExecutionEngine;
+import org.lpc.engine.InterpreterEngine;
+import org.lpc.engine.RunResult;
+import org.lpc.engine.StopCondition;
+import org.lpc.hle.BootRomSyscalls;
+import org.lpc.hle.HleSyscalls;
+import org.lpc.instructions.DecodeCache;
+import org.lpc.instructions.InstructionUtils;
 import org.lpc.instructions.InstructionSet;
+import org.lpc.instructions.SyscallTable;
+import org.lpc.memory.FaultCause;
 import org.lpc.memory.Flags;
 import org.lpc.memory.MemoryBus;
 import org.lpc.memory.MemoryMap;
+import org.lpc.memory.Watchpoints;
 
 @Getter
 @Setter
 public class CPU {
-    private final int[] registers;
+    public static final int RUN_SLICE = 10_000; // instructions between stop condition checks
 
-    private int programCounter;
-    private int stackPointer;
-    private int heapPointer;
+    // special registers live in the register file at their encoded indices
+    public static final int PC = 252;
+    public static final int SP = 253;
+    public static final int HP = 254;
+    public static final int FC = 255; // cause of the last fault delivered to the guest
+    private static final int REGISTER_FILE_SIZE = 256;
+
+    private final int[] registers; // r0..r(registerCount - 1), then PC/SP/HP/FC at their indices
+    private final int registerCount;
     private boolean halt;
 
     private final Flags flags;
     private final MemoryBus memory;
     private final MemoryMap memoryMap;
     private final InstructionSet instructionSet;
+    private final DecodeCache decodeCache;
+    private final SyscallTable syscallTable;
+    private final HleSyscalls hleSyscalls; // Java syscall implementations, all disabled by default
+    private final Watchpoints watchpoints;
+    private ExecutionEngine engine;
 
     public CPU(InstructionSet instructionSet, MemoryMap memoryMap, int registers) {
+        if (registers < 1 || registers > PC) {
+            throw new IllegalArgumentException("Register count must be between 1 and " + PC + ": " + registers);
+        }
         this.instructionSet = instructionSet;
         this.memoryMap = memoryMap;
         this.flags = new Flags();
         this.memory = new MemoryBus(memoryMap);
+        this.registerCount = registers;
+        this.registers = new int[REGISTER_FILE_SIZE];
+        this.decodeCache = new DecodeCache(instructionSet, memory, registers);
+        this.syscallTable = new SyscallTable(memory, memoryMap);
+        this.hleSyscalls = new HleSyscalls(memoryMap.getSyscallTableSize() / 4);
+        BootRomSyscalls.registerAll(hleSyscalls);
+        this.watchpoints = new Watchpoints(memory, this::getProgramCounter);
+        this.engine = new InterpreterEngine();
         this.halt = false;
-        this.registers = new int[registers];
 
-        this.programCounter = memoryMap.getProgramStart();
-        this.stackPointer = memoryMap.getStackStart();
-        this.heapPointer = memoryMap.getHeapStart();
+        this.registers[PC] = memoryMap.getProgramStart();
+        this.registers[SP] = memoryMap.getStackStart();
+        this.registers[HP] = memoryMap.getHeapStart();
     }
 
     // -------- Registers --------
     public int getRegister(int index) {
         validateRegisterIndex(index);
-        return switch (index) {
-            case 252 -> programCounter;
-            case 253 -> stackPointer;
-            case 254 -> heapPointer;
-            default -> {
-                if (index >= 0 && index < registers.length) {
-                    yield registers[index];
-                }
-                throw new IllegalArgumentException("Wrong register index: " + index);
-            }
-        };
+        return registers[index];
     }
 
     public void setRegister(int index, int value) {
         validateRegisterIndex(index);
-        switch (index) {
-            case 252 -> programCounter = value;
-            case 253 -> stackPointer = value;
-            case 254 -> heapPointer = value;
-            default -> {
-                if (index >= 0 && index < registers.length) {
-                    registers[index] = value;
-                } else {
-                    throw new IllegalArgumentException("Wrong register index: " + index);
-                }
-            }
-        };
+        registers[index] = value;
+    }
+
+    /**
+     * Unchecked read for the execution path; operands are validated when instructions are decoded.
+     */
+    public int readRegister(int index) {
+        return registers[index];
+    }
+
+    /**
+     * Unchecked write for the execution path; operands are validated when instructions are decoded.
+     */
+    public void writeRegister(int index, int value) {
+        registers[index] = value;
+    }
+
+    public boolean isValidRegister(int index) {
+        return InstructionUtils.isValidRegister(index, registerCount);
     }
 
     private void validateRegisterIndex(int index) {
-        if (index < 0 || index >= registers.length && index < 252 || index > 254) {
+        if (!isValidRegister(index)) {
             throw new IllegalArgumentException("Invalid register index: " + index);
         }
     }
 
+    public int getProgramCounter() {
+        return registers[PC];
+    }
+
+    public void setProgramCounter(int programCounter) {
+        registers[PC] = programCounter;
+    }
+
+    public int getStackPointer() {
+        return registers[SP];
+    }
+
+    public void setStackPointer(int stackPointer) {
+        registers[SP] = stackPointer;
+    }
+
+    public int getHeapPointer() {
+        return registers[HP];
+    }
+
     // -------- Stack (grows downward) --------
+    // SP only moves if the access did not fault, so a faulting PUSH or POP can be retried
     public void push(int value) {
-        stackPointer -= 4;
-        ensureHeapStackNoCollision();
-        memory.writeWord(stackPointer, value);
+        int sp = registers[SP] - 4;
+        ensureHeapStackNoCollision(sp);
+        memory.writeWord(sp, value);
+        if (!memory.hasFault()) registers[SP] = sp;
     }
 
     public int pop() {
-        int value = memory.readWord(stackPointer);
-        stackPointer += 4;
+        int value = memory.readWord(registers[SP]);
+        if (!memory.hasFault()) registers[SP] += 4;
         return value;
     }
 
     // -------- Heap (simple bump allocator) --------
     public int allocateHeap(int size) {
         int alignedSize = (size + 3) & ~3;
-        int nextHeap = heapPointer + alignedSize;
-        if (nextHeap >= stackPointer) throw new IllegalStateException("Heap/stack collision");
-        int allocAddr = heapPointer;
-        heapPointer = nextHeap;
+        int nextHeap = registers[HP] + alignedSize;
+        if (nextHeap >= registers[SP]) throw new IllegalStateException("Heap/stack collision");
+        int allocAddr = registers[HP];
+        registers[HP] = nextHeap;
         return allocAddr;
     }
 
     public void setHeapPointer(int ptr) {
-        if (ptr < memoryMap.getHeapStart() || ptr >= stackPointer) {
+        if (ptr < memoryMap.getHeapStart() || ptr >= registers[SP]) {
             throw new IllegalArgumentException("Invalid heap pointer");
         }
-        heapPointer = ptr;
+        registers[HP] = ptr;
     }
 
     // -------- Program Counter --------
     public void jump(int address) {
-        programCounter = address;
+        registers[PC] = address;
     }
 
     public void advancePC(int bytes) {
-        programCounter += bytes;
+        registers[PC] += bytes;
     }
 
     public int fetchWord() {
-        int word = memory.readWord(programCounter);
+        int word = memory.peekWord(registers[PC]);
         advancePC(4);
         return word;
     }
 
     public int peekWord() {
-        return memory.readWord(programCounter);
+        return memory.peekWord(registers[PC]);
+    }
+
+    // -------- Faults --------
+    /**
+     * Raises a fault for the current instruction outside a memory access, e.g. an undecodable instruction.
+     */
+    public void raiseFault(FaultCause cause, int address) {
+        if (memory.isStrictFaults()) throw faultException(cause, address);
+        memory.fault(cause, address);
+    }
+
+    /**
+     * Hands the fault latched by the instruction at {@code address} to the guest handler named by
+     * the ROM fault vector: pushes {@code address}, then the faulting address, sets {@code FC} to the
+     * cause and jumps to the handler. RET from the handler after popping the faulting address retries
+     * the instruction. Without a handler the fault is thrown as a host exception, and so is a fault
+     * while pushing the frame.
+     */
+    public void deliverFault(int address) {
+        FaultCause cause = memory.getFaultCause();
+        int faultAddress = memory.getFaultAddress();
+        memory.clearFault();
+
+        int handler = memory.getRom().readWord(memoryMap.getFaultVector());
+        if (handler == 0) throw faultException(cause, faultAddress);
+
+        push(address);
+        if (!memory.hasFault()) push(faultAddress);
+        if (memory.hasFault()) {
+            memory.clearFault();
+            throw new IllegalStateException(String.format("Double fault: %s at 0x%08X in instruction at 0x%08X with SP 0x%08X",
+                    cause, faultAddress, address, registers[SP]), faultException(cause, faultAddress));
+        }
+        registers[FC] = cause.code();
+        registers[PC] = handler;
+    }
+
+    private RuntimeException faultException(FaultCause cause, int address) {
+        return cause == FaultCause.ILLEGAL_INSTRUCTION
+                ? decodeCache.illegalInstruction(address) : memory.faultException(cause, address);
     }
 
     // -------- Instruction Execution --------
     public void step() {
-        int firstWord = fetchWord();
-        Instruction instr = instructionSet.getInstruction(firstWord);
-        int[] words = new int[instr.getWordCount()];
-        words[0] = firstWord;
-        for (int i = 1; i < words.length; i++) {
-            words[i] = fetchWord();
+        engine.execute(this, 1);
+    }
+
+    /**
+     * Executes up to {@code maxInstructions} instructions in one engine call, stopping early on halt.
+     */
+    public RunResult run(long maxInstructions) {
+        long start = System.nanoTime();
+        long retired = halt ? 0 : engine.execute(this, maxInstructions);
+        return new RunResult(retired, halt ? RunResult.StopReason.HALTED : RunResult.StopReason.BUDGET,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Executes in slices of {@link #RUN_SLICE} instructions until the CPU halts or the condition matches.
+     */
+    public RunResult runUntil(StopCondition condition) {
+        long start = System.nanoTime();
+        long retired = 0;
+        while (!halt) {
+            if (condition.shouldStop(this, retired, System.nanoTime() - start)) {
+                return new RunResult(retired, RunResult.StopReason.CONDITION, System.nanoTime() - start);
+            }
+            retired += engine.execute(this, RUN_SLICE);
         }
-        instr.execute(this, words);
+        return new RunResult(retired, RunResult.StopReason.HALTED, System.nanoTime() - start);
     }
 
     // -------- Safety Check --------
-    private void ensureHeapStackNoCollision() {
-        if (heapPointer >= stackPointer) {
+    private void ensureHeapStackNoCollision(int stackPointer) {
+        if (registers[HP] >= stackPointer) {
             throw new IllegalStateException("Heap and stack collided");
         }
     }
@@ -0,0 +1,95 @@
+package org.lpc;
+
+import org.lpc.instructions.InstructionSet;
+import org.lpc.memory.BufferMemory;
+import org.lpc.memory.Flags;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryBus;
+import org.lpc.memory.MemoryImage;
+import org.lpc.memory.MemoryMap;
+
+/**
+ * A saved machine state: registers, flags, halt state and the contents of ROM, RAM and VRAM.
+ *
+ * Memory is captured as {@link MemoryImage}s. With a {@link org.lpc.memory.SparseMemory} backend
+ * pages are shared copy-on-write, so capturing, restoring and forking copy no memory up front and
+ * afterwards only copy the pages a run writes. Other backends copy the region on capture and
+ * write back only the pages that differ on restore. IO device state is not part of a checkpoint.
+ *
+ * Restoring notifies the bus write listeners of the changed pages, so decoded instructions,
+ * compiled blocks and the syscall table stay valid for everything that did not change.
+ *
+ * A CPU with a region mapped from a file cannot be forked: the fork would map the same file and
+ * each CPU would overwrite the other's memory. Capturing and restoring such a CPU is fine.
+ */
+public final class Checkpoint {
+    private final InstructionSet instructionSet;
+    private final MemoryMap memoryMap;
+    private final int registerCount;
+    private final int[] registers;
+    private final Flags flags = new Flags();
+    private final boolean halt;
+    private final MemoryImage rom;
+    private final MemoryImage ram;
+    private final MemoryImage vram;
+    private final String mappedRegion; // a region backed by a file, or null
+
+    private Checkpoint(CPU cpu) {
+        this.instructionSet = cpu.getInstructionSet();
+        this.memoryMap = cpu.getMemoryMap();
+        this.registerCount = cpu.getRegisterCount();
+        this.registers = cpu.getRegisters().clone();
+        this.flags.copyFrom(cpu.getFlags());
+        this.halt = cpu.isHalt();
+
+        MemoryBus memory = cpu.getMemory();
+        this.rom = memory.getRom().snapshot();
+        this.ram = memory.getRam().snapshot();
+        this.vram = memory.getVram().snapshot();
+        this.mappedRegion = isMapped(memory.getRom()) ? MemoryMap.ROM
+                : isMapped(memory.getRam()) ? MemoryMap.RAM
+                : isMapped(memory.getVram()) ? MemoryMap.VRAM
+                : null;
+    }
+
+    public static Checkpoint capture(CPU cpu) {
+        return new Checkpoint(cpu);
+    }
+
+    /**
+     * Puts {@code cpu} back into the captured state. The CPU must have the same memory layout
+     * and register count as the one the checkpoint was taken from.
+     */
+    public void restore(CPU cpu) {
+        if (cpu.getRegisterCount() != registerCount) {
+            throw new IllegalArgumentException(String.format("Checkpoint of a CPU with %d registers cannot be restored into one with %d",
+                    registerCount, cpu.getRegisterCount()));
+        }
+        MemoryBus memory = cpu.getMemory();
+        memory.restore(memory.getRom(), rom);
+        memory.restore(memory.getRam(), ram);
+        memory.restore(memory.getVram(), vram);
+
+        System.arraycopy(registers, 0, cpu.getRegisters(), 0, registers.length);
+        cpu.getFlags().copyFrom(flags);
+        cpu.setHalt(halt);
+    }
+
+    /**
+     * Creates a new CPU in the captured state, with the same instruction set and memory map.
+     * It starts with the default engine and HLE syscalls disabled, like any new CPU. Fails if the
+     * captured CPU has a region mapped from a file.
+     */
+    public CPU fork() {
+        if (mappedRegion != null) {
+            throw new IllegalStateException(String.format("Cannot fork a CPU whose %s is mapped from a file; the fork would share it", mappedRegion));
+        }
+        CPU cpu = new CPU(instructionSet, memoryMap, registerCount);
+        restore(cpu);
+        return cpu;
+    }
+
+    private static boolean isMapped(Memory memory) {
+        return memory instanceof BufferMemory buffer && buffer.isMapped();
+    }
+}
@@ -6,9 +6,17 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
+import org.lpc.engine.RunResult;
+import org.lpc.engine.StopCondition;
+import org.lpc.engine.SwitchEngine;
+import org.lpc.engine.jit.JitEngine;
 import org.lpc.external.Assembler;
+import org.lpc.external.AssemblyCache;
+import org.lpc.external.HotReloader;
+import org.lpc.external.RomImage;
 import org.lpc.instructions.InstructionSet;
 import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.ConfigurableMemoryMap;
 import org.lpc.memory.MemoryMap;
 import org.lpc.memory.NeptuneMemoryMap;
 import org.lpc.memory.io.IODeviceManager;
@@ -20,16 +28,25 @@ import org.lpc.visualization.debug.ExternalConsole;
 import org.lpc.visualization.debug.MemoryViewer;
 import org.lpc.visualization.vram.RGBA32Viewer;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Objects;
+import java.util.Properties;
 
 public class Main extends Application {
+    private static final String BOOT_ROM_SOURCE = "/rom/boot.rom.asm";
+    private static final String BOOT_ROM_IMAGE = "/rom/boot.rom.img"; // built by the romImage Gradle task
+    private static final String DEFAULT_ASM_CACHE = "build/asm-cache";
+
     private CPU cpu;
     private Scene ioScene;
     private ExternalConsole externalConsole;
+    private HotReloader hotReloader; // null unless --watch
 
     @Override
     public void start(Stage primaryStage) {
@@ -45,28 +62,121 @@ public class Main extends Application {
     }
 
     private void initCpu() {
-        MemoryMap memoryMap = new NeptuneMemoryMap();
+        MemoryMap memoryMap = createMemoryMap();
         InstructionSet instructionSet = new NeptuneInstructionSet();
         cpu = new CPU(instructionSet, memoryMap, 32);
+
+        // --engine=switch selects the switch-dispatched engine, --engine=jit the block compiler
+        String engine = getParameters().getNamed().get("engine");
+        if ("switch".equalsIgnoreCase(engine)) {
+            cpu.setEngine(new SwitchEngine(instructionSet));
+        } else if ("jit".equalsIgnoreCase(engine)) {
+            cpu.setEngine(new JitEngine(cpu));
+        }
+
+        // --hle runs the boot ROM syscalls as Java code instead of interpreting the ROM routines
+        if (getParameters().getUnnamed().contains("--hle")) {
+            cpu.getHleSyscalls().setAllEnabled(true);
+        }
+
+        // --strict-faults throws invalid accesses as host exceptions instead of trapping to the guest
+        cpu.getMemory().setStrictFaults(getParameters().getUnnamed().contains("--strict-faults"));
+    }
+
+    // --memory=<file> reads memory map properties, --ram-size=<size> overrides the RAM size;
+    // without either the default Neptune map is used
+    private MemoryMap createMemoryMap() {
+        String file = getParameters().getNamed().get("memory");
+        String ramSize = getParameters().getNamed().get("ram-size");
+        if (file == null && ramSize == null) {
+            return new NeptuneMemoryMap();
+        }
+
+        Properties properties = new Properties();
+        if (file != null) {
+            try (Reader reader = Files.newBufferedReader(Path.of(file))) {
+                properties.load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read memory map " + file, e);
+            }
+        }
+        if (ramSize != null) {
+            properties.setProperty("ram.size", ramSize);
+        }
+        ConfigurableMemoryMap memoryMap = ConfigurableMemoryMap.fromProperties(properties);
+        memoryMap.printMemoryLayout();
+        return memoryMap;
     }
 
+    // bulk-loads the pre-built ROM image unless it is missing or was built from another source or layout
     private void loadBootRom() {
-        assembleAndLoad("/rom/boot.rom.asm", cpu.getMemoryMap().getSyscallCodeStart());
+        byte[] source = readResource(BOOT_ROM_SOURCE);
+        RomImage image = readRomImage();
+        if (image != null && image.matches(cpu.getMemoryMap(), source)) {
+            image.loadInto(cpu);
+            return;
+        }
+        System.out.println("Boot ROM image is missing or stale, assembling " + BOOT_ROM_SOURCE);
+        new Assembler(cpu).assembleAndLoad(new String(source, StandardCharsets.UTF_8).lines().toList(),
+                cpu.getMemoryMap().getSyscallCodeStart());
     }
 
-    private void loadUserProgram() {
-        assembleAndLoad("/example_programs/data.asm", cpu.getMemoryMap().getRamStart());
+    private RomImage readRomImage() {
+        try (InputStream stream = getClass().getResourceAsStream(BOOT_ROM_IMAGE)) {
+            return stream == null ? null : RomImage.read(stream);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Ignoring unreadable boot ROM image: " + e.getMessage());
+            return null;
+        }
     }
 
-    private void assembleAndLoad(String resourcePath, int loadAddress) {
-        try (var stream = getClass().getResourceAsStream(resourcePath)) {
+    private byte[] readResource(String resourcePath) {
+        try (InputStream stream = getClass().getResourceAsStream(resourcePath)) {
             if (stream == null) throw new RuntimeException("Resource not found: " + resourcePath);
-            List<String> lines = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))
-                    .lines()
-                    .toList();
-            new Assembler(cpu).assembleAndLoad(lines, loadAddress);
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read resource: " + resourcePath, e);
+        }
+    }
+
+    // --program=<file> runs an assembly file instead of the bundled example; with --watch it is reloaded
+    // whenever it changes, and --on-reload=keep keeps registers and memory instead of restarting it
+    private void loadUserProgram() {
+        int loadAddress = cpu.getMemoryMap().getRamStart();
+        String program = getParameters().getNamed().get("program");
+        if (program == null) {
+            if (getParameters().getUnnamed().contains("--watch")) {
+                System.out.println("--watch needs --program=<file>, not watching the bundled example");
+            }
+            assembleAndLoad("/example_programs/data.asm", readResource("/example_programs/data.asm"), loadAddress);
+            return;
+        }
+
+        Path path = Path.of(program);
+        try {
+            assembleAndLoad(program, Files.readAllBytes(path), loadAddress);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read program: " + program, e);
+        }
+        if (getParameters().getUnnamed().contains("--watch")) {
+            HotReloader.Mode mode = "keep".equalsIgnoreCase(getParameters().getNamed().get("on-reload"))
+                    ? HotReloader.Mode.KEEP : HotReloader.Mode.RESET;
+            try {
+                hotReloader = new HotReloader(cpu, path, loadAddress, mode);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to watch program: " + program, e);
+            }
+            hotReloader.start();
+        }
+    }
+
+    // --asm-cache=<dir> keeps assembled programs there, build/asm-cache by default
+    private void assembleAndLoad(String name, byte[] source, int loadAddress) {
+        Path cacheDir = Path.of(getParameters().getNamed().getOrDefault("asm-cache", DEFAULT_ASM_CACHE));
+        try {
+            new AssemblyCache(cacheDir).assembleAndLoad(cpu, source, loadAddress);
         } catch (Exception e) {
-            throw new RuntimeException("Failed to load resource: " + resourcePath, e);
+            throw new RuntimeException("Failed to load program: " + name, e);
         }
     }
 
@@ -112,8 +222,19 @@ public class Main extends Application {
 
     private void startCpuThread() {
         Thread cpuThread = new Thread(() -> {
-            while (!cpu.isHalt()) {
-                cpu.step();
+            StopCondition reload = hotReloader == null ? StopCondition.never() : StopCondition.requested(hotReloader::hasPending);
+            while (true) {
+                RunResult result = cpu.runUntil(reload);
+                if (result.stopReason() == RunResult.StopReason.HALTED) {
+                    System.out.printf("CPU halted after %d instructions (%.1f MIPS)%n", result.retired(), result.mips());
+                    if (hotReloader == null) break;
+                    try {
+                        hotReloader.awaitPending();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                hotReloader.applyPending();
             }
             Platform.exit();
         }, "CPU-Execution-Thread");
@@ -0,0 +1,15 @@
+package org.lpc.engine;
+
+import org.lpc.CPU;
+
+/**
+ * Strategy used by a {@link CPU} to run guest instructions.
+ */
+public interface ExecutionEngine {
+    /**
+     * Executes at most {@code maxInstructions} instructions, stopping early when the CPU halts.
+     *
+     * @return the number of instructions retired
+     */
+    long execute(CPU cpu, long maxInstructions);
+}
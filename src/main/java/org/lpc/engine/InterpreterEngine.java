@@ -0,0 +1,32 @@
+package org.lpc.engine;
+
+import org.lpc.CPU;
+import org.lpc.instructions.DecodeCache;
+import org.lpc.instructions.DecodedInstruction;
+import org.lpc.memory.MemoryBus;
+
+/**
+ * Default engine: dispatches every decoded instruction through its {@code Instruction} object.
+ *
+ * Instruction objects commit their results only if the bus latched no fault; a latched fault
+ * is then handed to {@link CPU#deliverFault}.
+ */
+public class InterpreterEngine implements ExecutionEngine {
+    @Override
+    public long execute(CPU cpu, long maxInstructions) {
+        DecodeCache decodeCache = cpu.getDecodeCache();
+        MemoryBus memory = cpu.getMemory();
+        long retired = 0;
+
+        while (retired < maxInstructions && !cpu.isHalt()) {
+            DecodedInstruction instr = decodeCache.fetch(cpu.getProgramCounter());
+            cpu.setProgramCounter(instr.getNextAddress());
+            instr.getInstruction().execute(cpu, instr);
+            if (memory.hasFault()) {
+                cpu.deliverFault(instr.getAddress());
+            }
+            retired++;
+        }
+        return retired;
+    }
+}
@@ -0,0 +1,74 @@
+package org.lpc.engine;
+
+import org.lpc.instructions.InstructionSet;
+
+/**
+ * Fixed operation numbers for the Neptune ISA, shared by the engines that dispatch on them.
+ *
+ * Opcodes are assigned by the instruction set at registration time, so engines map them to
+ * these numbers by mnemonic once. Instructions without a number map to {@link #GENERIC}.
+ */
+public final class Operations {
+    private Operations() {} // prevent instantiation
+
+    public static final int GENERIC = 0;
+    public static final int ADD = 1, SUB = 2, MUL = 3, DIV = 4, MOD = 5;
+    public static final int ADDI = 6, SUBI = 7, MULI = 8, DIVI = 9, MODI = 10;
+    public static final int INC = 11, DEC = 12, NEG = 13;
+    public static final int AND = 14, OR = 15, XOR = 16, ANDI = 17, ORI = 18, XORI = 19, NOT = 20;
+    public static final int SHL = 21, SHR = 22;
+    public static final int LOAD = 23, STORE = 24, LOADI = 25, STORI = 26;
+    public static final int JMP = 27, JZ = 28, JNZ = 29, JN = 30, JP = 31;
+    public static final int JG = 32, JLE = 33, JC = 34, JNC = 35, JA = 36, JBE = 37;
+    public static final int CALL = 38, RET = 39, PUSH = 40, POP = 41;
+    public static final int MOVI = 42, MOV = 43, CLR = 44;
+    public static final int CMP = 45, CMPI = 46, TEST = 47, TESTI = 48;
+    public static final int NOP = 49, HLT = 50;
+
+    private static final String[] MNEMONICS = {
+            null, "ADD", "SUB", "MUL", "DIV", "MOD",
+            "ADDI", "SUBI", "MULI", "DIVI", "MODI",
+            "INC", "DEC", "NEG",
+            "AND", "OR", "XOR", "ANDI", "ORI", "XORI", "NOT",
+            "SHL", "SHR",
+            "LOAD", "STORE", "LOADI", "STORI",
+            "JMP", "JZ", "JNZ", "JN", "JP",
+            "JG", "JLE", "JC", "JNC", "JA", "JBE",
+            "CALL", "RET", "PUSH", "POP",
+            "MOVI", "MOV", "CLR",
+            "CMP", "CMPI", "TEST", "TESTI",
+            "NOP", "HLT"
+    };
+
+    /**
+     * Builds a table from opcode (0-255) to operation number for the given instruction set.
+     */
+    public static int[] forInstructionSet(InstructionSet instructionSet) {
+        int[] operations = new int[256];
+        for (int op = 1; op < MNEMONICS.length; op++) {
+            map(operations, instructionSet, MNEMONICS[op], op);
+        }
+        // aliases with identical conditions
+        map(operations, instructionSet, "JE", JZ);
+        map(operations, instructionSet, "JNE", JNZ);
+        map(operations, instructionSet, "JL", JN);
+        map(operations, instructionSet, "JGE", JP);
+        map(operations, instructionSet, "JB", JC);
+        map(operations, instructionSet, "JAE", JNC);
+        return operations;
+    }
+
+    /**
+     * True for the unconditional and conditional jumps, CALL and RET.
+     */
+    public static boolean isBranch(int operation) {
+        return operation >= JMP && operation <= RET;
+    }
+
+    private static void map(int[] operations, InstructionSet instructionSet, String mnemonic, int operation) {
+        Byte opcode = instructionSet.getOpcode(mnemonic);
+        if (opcode != null) {
+            operations[opcode & 0xFF] = operation;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.lpc.engine;
+
+/**
+ * Outcome of one {@code CPU.run} / {@code CPU.runUntil} call.
+ *
+ * @param retired      instructions executed during the call
+ * @param stopReason   why execution returned to the caller
+ * @param elapsedNanos wall-clock time spent in the call
+ */
+public record RunResult(long retired, StopReason stopReason, long elapsedNanos) {
+    public enum StopReason {
+        BUDGET,    // the instruction budget was used up
+        HALTED,    // the CPU executed HLT (or was already halted)
+        CONDITION  // the stop condition matched
+    }
+
+    public double mips() {
+        return elapsedNanos == 0 ? 0 : retired * 1000.0 / elapsedNanos;
+    }
+}
@@ -0,0 +1,43 @@
+package org.lpc.engine;
+
+import org.lpc.CPU;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides when {@code CPU.runUntil} returns control to its caller.
+ *
+ * Conditions are checked before every slice of at most {@link CPU#RUN_SLICE} instructions,
+ * so they may overshoot by up to one slice.
+ */
+@FunctionalInterface
+public interface StopCondition {
+    boolean shouldStop(CPU cpu, long retired, long elapsedNanos);
+
+    static StopCondition never() {
+        return (cpu, retired, elapsedNanos) -> false;
+    }
+
+    static StopCondition afterInstructions(long instructions) {
+        return (cpu, retired, elapsedNanos) -> retired >= instructions;
+    }
+
+    /**
+     * Time slice for embedders that share a thread between several CPUs.
+     */
+    static StopCondition afterNanos(long nanos) {
+        return (cpu, retired, elapsedNanos) -> elapsedNanos >= nanos;
+    }
+
+    /**
+     * Stops once an external flag is raised, e.g. a pause button or shutdown hook.
+     */
+    static StopCondition requested(BooleanSupplier stopRequested) {
+        return (cpu, retired, elapsedNanos) -> stopRequested.getAsBoolean();
+    }
+
+    default StopCondition or(StopCondition other) {
+        return (cpu, retired, elapsedNanos) ->
+                shouldStop(cpu, retired, elapsedNanos) || other.shouldStop(cpu, retired, elapsedNanos);
+    }
+}
@@ -0,0 +1,227 @@
+package org.lpc.engine;
+
+import org.lpc.CPU;
+import org.lpc.instructions.DecodeCache;
+import org.lpc.instructions.DecodedInstruction;
+import org.lpc.instructions.Fusion;
+import org.lpc.instructions.InstructionSet;
+import org.lpc.memory.Flags;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryBus;
+
+/**
+ * Fast engine for the Neptune ISA: one loop with a dense switch over primitive operations.
+ *
+ * Opcodes are mapped to fixed {@link Operations} numbers by mnemonic once. Anything without
+ * a dedicated case (MSET, MCPY, SYSCALL or instructions unknown to this engine) runs through
+ * its {@code Instruction} object.
+ *
+ * Sequences the decoder marked as a {@link Fusion} run as one super-instruction whenever the
+ * instruction budget covers the whole sequence; hits are counted per fusion kind.
+ *
+ * Instructions that access memory check the bus for a latched fault before writing their result
+ * and hand it to {@link CPU#deliverFault}; the faulting instruction counts as executed.
+ */
+public class SwitchEngine implements ExecutionEngine {
+    private final int[] operations;
+    private final long[] fusionHits = new long[Fusion.values().length];
+
+    public SwitchEngine(InstructionSet instructionSet) {
+        this.operations = Operations.forInstructionSet(instructionSet);
+    }
+
+    @Override
+    public long execute(CPU cpu, long maxInstructions) {
+        DecodeCache decodeCache = cpu.getDecodeCache();
+        MemoryBus memory = cpu.getMemory();
+        Flags flags = cpu.getFlags();
+        int[] regs = cpu.getRegisters();
+        long retired = 0;
+
+        while (retired < maxInstructions && !cpu.isHalt()) {
+            DecodedInstruction instr = decodeCache.fetch(cpu.getProgramCounter());
+            if (instr.getFusion() != null && instr.getFusedCount() <= maxInstructions - retired
+                    && executeFused(cpu, regs, flags, memory, instr)) {
+                fusionHits[instr.getFusion().ordinal()]++;
+                retired += instr.getFusedCount();
+                continue;
+            }
+            cpu.setProgramCounter(instr.getNextAddress());
+
+            int rDest = instr.getRDest();
+            int rSrc = instr.getRSrc();
+            int imm = instr.getImmediate();
+
+            switch (operations[instr.getOpcode()]) {
+                case Operations.ADD -> { int a = regs[rDest], b = regs[rSrc], r = a + b; regs[rDest] = r; flags.updateAdd(a, b, r); }
+                case Operations.SUB -> { int a = regs[rDest], b = regs[rSrc], r = a - b; regs[rDest] = r; flags.updateAdd(a, b, r); }
+                case Operations.MUL -> { int r = regs[rDest] * regs[rSrc]; regs[rDest] = r; flags.update(r); }
+                case Operations.DIV -> { int r = regs[rDest] / divisor(regs[rSrc], "Division by zero"); regs[rDest] = r; flags.update(r); }
+                case Operations.MOD -> { int r = regs[rDest] % divisor(regs[rSrc], "Modulo by zero"); regs[rDest] = r; flags.update(r); }
+
+                case Operations.ADDI -> { int a = regs[rDest], r = a + imm; regs[rDest] = r; flags.updateAdd(a, imm, r); }
+                case Operations.SUBI -> { int a = regs[rDest], r = a - imm; regs[rDest] = r; flags.updateAdd(a, imm, r); }
+                case Operations.MULI -> { int r = regs[rDest] * imm; regs[rDest] = r; flags.update(r); }
+                case Operations.DIVI -> { int r = regs[rDest] / divisor(imm, "Division by zero"); regs[rDest] = r; flags.update(r); }
+                case Operations.MODI -> { int r = regs[rDest] % divisor(imm, "Modulo by zero"); regs[rDest] = r; flags.update(r); }
+
+                case Operations.INC -> { int r = regs[rDest] + 1; regs[rDest] = r; flags.update(r); }
+                case Operations.DEC -> { int r = regs[rDest] - 1; regs[rDest] = r; flags.update(r); }
+                case Operations.NEG -> { int r = -regs[rDest]; regs[rDest] = r; flags.update(r); }
+                case Operations.NOT -> { int r = ~regs[rDest]; regs[rDest] = r; flags.update(r); }
+                case Operations.CLR -> { regs[rDest] = 0; flags.update(0); }
+
+                case Operations.AND -> { int r = regs[rDest] & regs[rSrc]; regs[rDest] = r; flags.update(r); }
+                case Operations.OR -> { int r = regs[rDest] | regs[rSrc]; regs[rDest] = r; flags.update(r); }
+                case Operations.XOR -> { int r = regs[rDest] ^ regs[rSrc]; regs[rDest] = r; flags.update(r); }
+                case Operations.ANDI -> { int r = regs[rDest] & imm; regs[rDest] = r; flags.update(r); }
+                case Operations.ORI -> { int r = regs[rDest] | imm; regs[rDest] = r; flags.update(r); }
+                case Operations.XORI -> { int r = regs[rDest] ^ imm; regs[rDest] = r; flags.update(r); }
+
+                case Operations.SHL -> { int r = regs[rDest] << rSrc; regs[rDest] = r; flags.update(r); }
+                case Operations.SHR -> { int r = regs[rDest] >>> rSrc; regs[rDest] = r; flags.update(r); }
+
+                case Operations.LOAD -> { int v = memory.readWord(regs[rSrc]); if (faulted(cpu, memory, instr)) break; regs[rDest] = v; flags.update(v); }
+                case Operations.STORE -> { memory.writeWord(regs[rSrc], regs[rDest]); faulted(cpu, memory, instr); }
+                case Operations.LOADI, Operations.MOVI -> { regs[rDest] = imm; flags.update(imm); }
+                case Operations.STORI -> { memory.writeWord(imm, regs[rDest]); faulted(cpu, memory, instr); }
+
+                case Operations.JMP -> cpu.jump(imm);
+                case Operations.JZ -> { if (flags.isZero()) cpu.jump(imm); }
+                case Operations.JNZ -> { if (!flags.isZero()) cpu.jump(imm); }
+                case Operations.JN -> { if (flags.isNegative()) cpu.jump(imm); }
+                case Operations.JP -> { if (!flags.isNegative()) cpu.jump(imm); }
+                case Operations.JG -> { if (!flags.isZero() && !flags.isNegative()) cpu.jump(imm); }
+                case Operations.JLE -> { if (flags.isNegative() || flags.isZero()) cpu.jump(imm); }
+                case Operations.JC -> { if (flags.isCarry()) cpu.jump(imm); }
+                case Operations.JNC -> { if (!flags.isCarry()) cpu.jump(imm); }
+                case Operations.JA -> { if (!flags.isCarry() && !flags.isZero()) cpu.jump(imm); }
+                case Operations.JBE -> { if (flags.isCarry() || flags.isZero()) cpu.jump(imm); }
+
+                case Operations.CALL -> { cpu.push(cpu.getProgramCounter()); cpu.jump(imm); faulted(cpu, memory, instr); }
+                case Operations.RET -> { cpu.jump(cpu.pop()); faulted(cpu, memory, instr); }
+                case Operations.PUSH -> { cpu.push(regs[rDest]); faulted(cpu, memory, instr); }
+                case Operations.POP -> { int v = cpu.pop(); if (faulted(cpu, memory, instr)) break; regs[rDest] = v; flags.update(v); }
+
+                case Operations.MOV -> { int v = regs[rSrc]; regs[rDest] = v; flags.update(v); }
+                case Operations.CMP -> { int a = regs[rDest], b = regs[rSrc]; flags.updateSub(a, b, a - b); }
+                case Operations.CMPI -> { int a = regs[rDest]; flags.updateSub(a, imm, a - imm); }
+                case Operations.TEST -> flags.update(regs[rDest] & regs[rSrc]);
+                case Operations.TESTI -> flags.update(regs[rDest] & imm);
+
+                case Operations.NOP -> { }
+                case Operations.HLT -> cpu.setHalt(true);
+                default -> { instr.getInstruction().execute(cpu, instr); faulted(cpu, memory, instr); }
+            }
+            retired++;
+        }
+        return retired;
+    }
+
+    public long getFusionHits(Fusion fusion) {
+        return fusionHits[fusion.ordinal()];
+    }
+
+    // returns false if the sequence has to run instruction by instruction instead
+    private boolean executeFused(CPU cpu, int[] regs, Flags flags, MemoryBus memory, DecodedInstruction instr) {
+        DecodedInstruction[] fused = instr.getFused();
+        switch (instr.getFusion()) {
+            case COMPARE_BRANCH -> {
+                DecodedInstruction branch = fused[0];
+                int a = regs[instr.getRDest()];
+                int b = operations[instr.getOpcode()] == Operations.CMPI ? instr.getImmediate() : regs[instr.getRSrc()];
+                flags.updateSub(a, b, a - b);
+                cpu.setProgramCounter(isTaken(operations[branch.getOpcode()], a, b)
+                        ? branch.getImmediate() : branch.getNextAddress());
+            }
+            case SYSCALL_NUMBER -> {
+                DecodedInstruction syscall = fused[0];
+                regs[0] = instr.getImmediate();
+                flags.update(instr.getImmediate());
+                cpu.setProgramCounter(syscall.getNextAddress());
+                syscall.getInstruction().execute(cpu, syscall);
+                faulted(cpu, memory, syscall);
+            }
+            case PUSH_RUN -> {
+                int bytes = instr.getFusedCount() * 4;
+                int sp = cpu.getStackPointer();
+                if (!onlyGeneralRegisters(cpu, instr) || !inRam(memory, sp - bytes, bytes)
+                        || cpu.getHeapPointer() >= sp - bytes) {
+                    return false;
+                }
+                sp -= 4;
+                memory.writeWord(sp, regs[instr.getRDest()]);
+                for (DecodedInstruction push : fused) {
+                    sp -= 4;
+                    memory.writeWord(sp, regs[push.getRDest()]);
+                }
+                cpu.setStackPointer(sp);
+                cpu.setProgramCounter(instr.getFusedNextAddress());
+            }
+            case POP_RUN -> {
+                int sp = cpu.getStackPointer();
+                if (!onlyGeneralRegisters(cpu, instr) || !inRam(memory, sp, instr.getFusedCount() * 4)) {
+                    return false;
+                }
+                int value = memory.readWord(sp);
+                regs[instr.getRDest()] = value;
+                for (DecodedInstruction pop : fused) {
+                    sp += 4;
+                    value = memory.readWord(sp);
+                    regs[pop.getRDest()] = value;
+                }
+                flags.update(value);
+                cpu.setStackPointer(sp + 4);
+                cpu.setProgramCounter(instr.getFusedNextAddress());
+            }
+        }
+        return true;
+    }
+
+    // delivers the fault instr latched, if any; the caller must then leave its result unwritten
+    private static boolean faulted(CPU cpu, MemoryBus memory, DecodedInstruction instr) {
+        if (!memory.hasFault()) return false;
+        cpu.deliverFault(instr.getAddress());
+        return true;
+    }
+
+    // condition of a conditional jump evaluated directly from the operands of the preceding compare
+    private static boolean isTaken(int operation, int a, int b) {
+        int r = a - b;
+        return switch (operation) {
+            case Operations.JZ -> r == 0;
+            case Operations.JNZ -> r != 0;
+            case Operations.JN -> r < 0;
+            case Operations.JP -> r >= 0;
+            case Operations.JG -> r > 0;
+            case Operations.JLE -> r <= 0;
+            case Operations.JC -> Integer.compareUnsigned(a, b) < 0;
+            case Operations.JNC -> Integer.compareUnsigned(a, b) >= 0;
+            case Operations.JA -> Integer.compareUnsigned(a, b) > 0;
+            case Operations.JBE -> Integer.compareUnsigned(a, b) <= 0;
+            default -> throw new IllegalStateException("Not a conditional jump: " + operation);
+        };
+    }
+
+    // PUSH/POP runs touching PC/SP/HP need the exact per-instruction ordering
+    private static boolean onlyGeneralRegisters(CPU cpu, DecodedInstruction instr) {
+        if (instr.getRDest() >= cpu.getRegisterCount()) return false;
+        for (DecodedInstruction next : instr.getFused()) {
+            if (next.getRDest() >= cpu.getRegisterCount()) return false;
+        }
+        return true;
+    }
+
+    // runs on watched pages are split so watchpoints see each instruction with its own PC
+    private static boolean inRam(MemoryBus memory, int addr, int length) {
+        Memory ram = memory.getRam();
+        int offset = addr - ram.getBaseAddress();
+        return offset >= 0 && offset <= ram.getSize() - length
+                && !memory.isTrapped(addr) && !memory.isTrapped(addr + length - 4);
+    }
+
+    private static int divisor(int value, String message) {
+        if (value == 0) throw new ArithmeticException(message);
+        return value;
+    }
+}
@@ -0,0 +1,427 @@
+package org.lpc.engine.jit;
+
+import org.lpc.engine.Operations;
+import org.lpc.engine.jit.ClassFileWriter.Code;
+import org.lpc.engine.jit.ClassFileWriter.Label;
+import org.lpc.instructions.DecodeCache;
+import org.lpc.instructions.DecodedInstruction;
+import org.lpc.instructions.Instruction;
+import org.lpc.instructions.InstructionSet;
+import org.lpc.memory.MemoryBus;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lpc.engine.jit.ClassFileWriter.*;
+
+/**
+ * Translates a guest basic block into a hidden class implementing {@link CompiledBlock}.
+ *
+ * A block runs from its start address up to and including the first jump, CALL or RET, and
+ * stops early before anything it cannot translate (SYSCALL, MSET, MCPY, HLT, special registers).
+ * Guest registers live in JVM locals for the whole block and are written back at every exit.
+ * Flags are not computed per instruction: the compiler remembers which instruction produced
+ * them last, evaluates branch conditions straight from its operands and replays the final
+ * update into {@link org.lpc.memory.Flags} on exit.
+ */
+final class BlockCompiler {
+    static final int MAX_BLOCK_INSTRUCTIONS = 64;
+
+    private static final String BLOCK_INTERFACE = "org/lpc/engine/jit/CompiledBlock";
+    private static final String RUNTIME = "org/lpc/engine/jit/JitRuntime";
+    private static final String FLAGS = "org/lpc/memory/Flags";
+    private static final String RUN_DESCRIPTOR = "([IL" + FLAGS + ";L" + RUNTIME + ";)J";
+
+    // fixed locals of run(); guest registers follow from FIRST_REGISTER
+    private static final int REGS = 1, FLAGS_LOCAL = 2, RT = 3, SP = 4;
+    private static final int FLAG_A = 5, FLAG_B = 6, FLAG_RESULT = 7, LOGIC_RESULT = 8, TEMP = 9;
+    private static final int FIRST_REGISTER = 10;
+
+    // which instruction produced the flags last
+    private static final int FLAGS_UNCHANGED = 0, FLAGS_ADD = 1, FLAGS_SUB = 2;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final InstructionSet instructionSet;
+    private final DecodeCache decodeCache;
+    private final MemoryBus memory;
+    private final JitRuntime runtime;
+    private final int[] operations;
+    private final int registerCount;
+
+    /**
+     * Translated block together with the guest address range it was built from.
+     */
+    record Block(int start, int end, int length, CompiledBlock code) {}
+
+    BlockCompiler(InstructionSet instructionSet, DecodeCache decodeCache, MemoryBus memory,
+                  JitRuntime runtime, int[] operations, int registerCount) {
+        this.instructionSet = instructionSet;
+        this.decodeCache = decodeCache;
+        this.memory = memory;
+        this.runtime = runtime;
+        this.operations = operations;
+        this.registerCount = registerCount;
+    }
+
+    /**
+     * @param watched whether memory accesses also have to leave watched pages to the interpreter
+     * @return the compiled block, or {@code null} if the instruction at {@code start} cannot be translated
+     */
+    Block compile(int start, boolean watched) {
+        List<DecodedInstruction> body = scan(start);
+        if (body.isEmpty()) return null;
+
+        DecodedInstruction last = body.get(body.size() - 1);
+        byte[] classFile = new Emitter(body, watched).emit(String.format("org/lpc/engine/jit/Block_%08X", start));
+        return new Block(start, last.getNextAddress(), body.size(), define(classFile));
+    }
+
+    private List<DecodedInstruction> scan(int start) {
+        List<DecodedInstruction> body = new ArrayList<>();
+        int pc = start;
+        while (body.size() < MAX_BLOCK_INSTRUCTIONS) {
+            if (!runtime.canRead(pc)) break;
+            Instruction instruction = instructionSet.getInstruction(memory.peekWord(pc));
+            if (instruction == null || instruction.getWordCount() > 1 && !runtime.canRead(pc + 4)) break;
+            DecodedInstruction instr = decodeCache.tryFetch(pc);
+            if (instr == null) break;
+
+            int op = operations[instr.getOpcode()];
+            if (!isTranslatable(op, instr)) break;
+
+            body.add(instr);
+            pc = instr.getNextAddress();
+            if (Operations.isBranch(op)) break;
+        }
+        return body;
+    }
+
+    private boolean isTranslatable(int op, DecodedInstruction instr) {
+        if (op == Operations.GENERIC || op == Operations.HLT) return false;
+        if ((op == Operations.DIVI || op == Operations.MODI) && instr.getImmediate() == 0) return false;
+        if (readsSource(op) && instr.getRSrc() >= registerCount) return false;
+        return !usesDest(op) || instr.getRDest() < registerCount;
+    }
+
+    private CompiledBlock define(byte[] classFile) {
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(classFile, true);
+            return (CompiledBlock) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to define compiled block", e);
+        }
+    }
+
+    private static boolean readsSource(int op) {
+        return switch (op) {
+            case Operations.ADD, Operations.SUB, Operations.MUL, Operations.DIV, Operations.MOD,
+                 Operations.AND, Operations.OR, Operations.XOR,
+                 Operations.LOAD, Operations.STORE, Operations.MOV, Operations.CMP, Operations.TEST -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean usesDest(int op) {
+        return !Operations.isBranch(op) && op != Operations.NOP;
+    }
+
+    private static boolean writesDest(int op) {
+        return switch (op) {
+            case Operations.STORE, Operations.STORI, Operations.PUSH, Operations.NOP,
+                 Operations.CMP, Operations.CMPI, Operations.TEST, Operations.TESTI -> false;
+            default -> usesDest(op);
+        };
+    }
+
+    private static boolean usesStack(int op) {
+        return op == Operations.PUSH || op == Operations.POP || op == Operations.CALL || op == Operations.RET;
+    }
+
+    /**
+     * Generates the class for one block.
+     */
+    private final class Emitter {
+        private final List<DecodedInstruction> body;
+        private final boolean watched;
+        private final int[] localOf = new int[registerCount];
+        private final boolean[] written = new boolean[registerCount];
+        private final List<Integer> used = new ArrayList<>();
+        private boolean stackUsed;
+
+        private Code code;
+        private int flagProducer = FLAGS_UNCHANGED;
+        private boolean logicAfterProducer;
+
+        Emitter(List<DecodedInstruction> body, boolean watched) {
+            this.body = body;
+            this.watched = watched;
+            for (DecodedInstruction instr : body) {
+                int op = operations[instr.getOpcode()];
+                if (usesDest(op)) use(instr.getRDest());
+                if (readsSource(op)) use(instr.getRSrc());
+                if (writesDest(op)) written[instr.getRDest()] = true;
+                stackUsed |= usesStack(op);
+            }
+        }
+
+        private void use(int register) {
+            if (localOf[register] == 0) {
+                localOf[register] = FIRST_REGISTER + used.size();
+                used.add(register);
+            }
+        }
+
+        byte[] emit(String className) {
+            ClassFileWriter writer = new ClassFileWriter(className, "java/lang/Object", BLOCK_INTERFACE);
+
+            writer.method("<init>", "()V", 1, 1)
+                    .aload(0)
+                    .invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V")
+                    .op(RETURN);
+
+            code = writer.method("run", RUN_DESCRIPTOR, 6, FIRST_REGISTER + used.size());
+            for (int register : used) {
+                code.aload(REGS).iconst(register).op(IALOAD).istore(localOf[register]);
+            }
+            if (stackUsed) {
+                code.aload(RT).invoke(INVOKEVIRTUAL, RUNTIME, "getStackPointer", "()I").istore(SP);
+            }
+
+            for (int i = 0; i < body.size(); i++) {
+                instruction(body.get(i), i);
+            }
+
+            DecodedInstruction last = body.get(body.size() - 1);
+            if (!Operations.isBranch(operations[last.getOpcode()])) {
+                exit(last.getNextAddress(), body.size());
+            }
+            return writer.toByteArray();
+        }
+
+        private void instruction(DecodedInstruction instr, int index) {
+            int d = instr.getRDest() < registerCount ? localOf[instr.getRDest()] : 0;
+            int s = instr.getRSrc() < registerCount ? localOf[instr.getRSrc()] : 0;
+            int imm = instr.getImmediate();
+
+            switch (operations[instr.getOpcode()]) {
+                case Operations.ADD -> add(d, () -> code.iload(s), IADD);
+                case Operations.SUB -> add(d, () -> code.iload(s), ISUB);
+                case Operations.ADDI -> add(d, () -> code.iconst(imm), IADD);
+                case Operations.SUBI -> add(d, () -> code.iconst(imm), ISUB);
+                case Operations.CMP -> compare(d, () -> code.iload(s));
+                case Operations.CMPI -> compare(d, () -> code.iconst(imm));
+
+                case Operations.MUL -> binary(d, () -> code.iload(s), IMUL);
+                case Operations.AND -> binary(d, () -> code.iload(s), IAND);
+                case Operations.OR -> binary(d, () -> code.iload(s), IOR);
+                case Operations.XOR -> binary(d, () -> code.iload(s), IXOR);
+                case Operations.MULI -> binary(d, () -> code.iconst(imm), IMUL);
+                case Operations.ANDI -> binary(d, () -> code.iconst(imm), IAND);
+                case Operations.ORI -> binary(d, () -> code.iconst(imm), IOR);
+                case Operations.XORI -> binary(d, () -> code.iconst(imm), IXOR);
+                case Operations.SHL -> binary(d, () -> code.iconst(instr.getRSrc()), ISHL);
+                case Operations.SHR -> binary(d, () -> code.iconst(instr.getRSrc()), IUSHR);
+                case Operations.INC -> binary(d, () -> code.iconst(1), IADD);
+                case Operations.DEC -> binary(d, () -> code.iconst(1), ISUB);
+
+                case Operations.DIV, Operations.MOD -> {
+                    // division by zero is left to the interpreter
+                    Label ok = new Label();
+                    code.iload(s).jump(IFNE, ok);
+                    exit(instr.getAddress(), index);
+                    code.mark(ok);
+                    binary(d, () -> code.iload(s), operations[instr.getOpcode()] == Operations.DIV ? IDIV : IREM);
+                }
+                case Operations.DIVI -> binary(d, () -> code.iconst(imm), IDIV);
+                case Operations.MODI -> binary(d, () -> code.iconst(imm), IREM);
+
+                case Operations.NEG -> logic(d, () -> code.iload(d).op(INEG));
+                case Operations.NOT -> logic(d, () -> code.iload(d).iconst(-1).op(IXOR));
+                case Operations.CLR -> logic(d, () -> code.iconst(0));
+                case Operations.MOV -> logic(d, () -> code.iload(s));
+                case Operations.LOADI, Operations.MOVI -> logic(d, () -> code.iconst(imm));
+                case Operations.TEST -> test(() -> code.iload(d).iload(s).op(IAND));
+                case Operations.TESTI -> test(() -> code.iload(d).iconst(imm).op(IAND));
+
+                case Operations.LOAD -> {
+                    guard("canRead", () -> code.iload(s), instr, index);
+                    logic(d, () -> code.aload(RT).iload(s).invoke(INVOKEVIRTUAL, RUNTIME, "readWord", "(I)I"));
+                }
+                case Operations.STORE -> {
+                    guard("canWrite", () -> code.iload(s), instr, index);
+                    code.aload(RT).iload(s).iload(d).invoke(INVOKEVIRTUAL, RUNTIME, "writeWord", "(II)V");
+                }
+                case Operations.STORI -> {
+                    guard("canWrite", () -> code.iconst(imm), instr, index);
+                    code.aload(RT).iconst(imm).iload(d).invoke(INVOKEVIRTUAL, RUNTIME, "writeWord", "(II)V");
+                }
+                case Operations.PUSH -> push(() -> code.iload(d), instr, index);
+                case Operations.POP -> {
+                    guard("canRead", () -> code.iload(SP), instr, index);
+                    logic(d, () -> code.aload(RT).iload(SP).invoke(INVOKEVIRTUAL, RUNTIME, "readWord", "(I)I"));
+                    code.iinc(SP, 4);
+                }
+
+                case Operations.JMP -> exit(imm, index + 1);
+                case Operations.CALL -> {
+                    push(() -> code.iconst(instr.getNextAddress()), instr, index);
+                    exit(imm, index + 1);
+                }
+                case Operations.RET -> {
+                    guard("canRead", () -> code.iload(SP), instr, index);
+                    code.aload(RT).iload(SP).invoke(INVOKEVIRTUAL, RUNTIME, "readWord", "(I)I").istore(TEMP);
+                    code.iinc(SP, 4);
+                    writeBack();
+                    code.iload(TEMP).op(I2L).lconst(0xFFFFFFFFL).op(LAND)
+                            .lconst((long) (index + 1) << 32).op(LOR).op(LRETURN);
+                }
+                case Operations.NOP -> { }
+                default -> branch(operations[instr.getOpcode()], instr, index);
+            }
+        }
+
+        // ADD/SUB and their immediate forms all update flags like an addition
+        private void add(int d, Runnable operand, int opcode) {
+            code.iload(d).istore(FLAG_A);
+            operand.run();
+            code.istore(FLAG_B);
+            code.iload(FLAG_A).iload(FLAG_B).op(opcode).op(DUP).istore(FLAG_RESULT).istore(d);
+            flagProducer = FLAGS_ADD;
+            logicAfterProducer = false;
+        }
+
+        private void compare(int d, Runnable operand) {
+            code.iload(d).istore(FLAG_A);
+            operand.run();
+            code.istore(FLAG_B);
+            code.iload(FLAG_A).iload(FLAG_B).op(ISUB).istore(FLAG_RESULT);
+            flagProducer = FLAGS_SUB;
+            logicAfterProducer = false;
+        }
+
+        private void binary(int d, Runnable operand, int opcode) {
+            logic(d, () -> {
+                code.iload(d);
+                operand.run();
+                code.op(opcode);
+            });
+        }
+
+        // value on the stack becomes the register and the zero/negative source
+        private void logic(int d, Runnable value) {
+            value.run();
+            code.op(DUP).istore(LOGIC_RESULT).istore(d);
+            logicAfterProducer = true;
+        }
+
+        private void test(Runnable value) {
+            value.run();
+            code.istore(LOGIC_RESULT);
+            logicAfterProducer = true;
+        }
+
+        private void push(Runnable value, DecodedInstruction instr, int index) {
+            guard("canPush", () -> code.iload(SP), instr, index);
+            code.iinc(SP, -4);
+            code.aload(RT).iload(SP);
+            value.run();
+            code.invoke(INVOKEVIRTUAL, RUNTIME, "writeWord", "(II)V");
+        }
+
+        // leaves the block before the instruction unless runtime.<check>(address) holds
+        private void guard(String check, Runnable address, DecodedInstruction instr, int index) {
+            Label ok = new Label();
+            code.aload(RT);
+            address.run();
+            code.invoke(INVOKEVIRTUAL, RUNTIME, watched ? check + "Watched" : check, "(I)Z").jump(IFNE, ok);
+            exit(instr.getAddress(), index);
+            code.mark(ok);
+        }
+
+        private void branch(int op, DecodedInstruction instr, int index) {
+            Label taken = new Label();
+            Label notTaken = new Label();
+            switch (op) {
+                case Operations.JZ -> ifZero(true, taken);
+                case Operations.JNZ -> ifZero(false, taken);
+                case Operations.JN -> ifNegative(true, taken);
+                case Operations.JP -> ifNegative(false, taken);
+                case Operations.JG -> { ifZero(true, notTaken); ifNegative(false, taken); }
+                case Operations.JLE -> { ifZero(true, taken); ifNegative(true, taken); }
+                case Operations.JC -> ifCarry(true, taken);
+                case Operations.JNC -> ifCarry(false, taken);
+                case Operations.JA -> { ifCarry(true, notTaken); ifZero(false, taken); }
+                case Operations.JBE -> { ifCarry(true, taken); ifZero(true, taken); }
+                default -> throw new IllegalStateException("Unexpected operation " + op);
+            }
+            code.mark(notTaken);
+            exit(instr.getNextAddress(), index + 1);
+            code.mark(taken);
+            exit(instr.getImmediate(), index + 1);
+        }
+
+        private void ifZero(boolean expected, Label target) {
+            int source = zeroNegativeSource();
+            if (source < 0) {
+                code.aload(FLAGS_LOCAL).invoke(INVOKEVIRTUAL, FLAGS, "isZero", "()Z").jump(expected ? IFNE : IFEQ, target);
+            } else {
+                code.iload(source).jump(expected ? IFEQ : IFNE, target);
+            }
+        }
+
+        private void ifNegative(boolean expected, Label target) {
+            int source = zeroNegativeSource();
+            if (source < 0) {
+                code.aload(FLAGS_LOCAL).invoke(INVOKEVIRTUAL, FLAGS, "isNegative", "()Z").jump(expected ? IFNE : IFEQ, target);
+            } else {
+                code.iload(source).jump(expected ? IFLT : IFGE, target);
+            }
+        }
+
+        private void ifCarry(boolean expected, Label target) {
+            switch (flagProducer) {
+                case FLAGS_ADD -> code.iload(FLAG_A).iload(FLAG_B).invoke(INVOKESTATIC, RUNTIME, "carryAdd", "(II)Z");
+                case FLAGS_SUB -> code.iload(FLAG_A).iload(FLAG_B).invoke(INVOKESTATIC, RUNTIME, "carrySub", "(II)Z");
+                default -> code.aload(FLAGS_LOCAL).invoke(INVOKEVIRTUAL, FLAGS, "isCarry", "()Z");
+            }
+            code.jump(expected ? IFNE : IFEQ, target);
+        }
+
+        // local holding the value zero/negative were last derived from, or -1 if unchanged in this block
+        private int zeroNegativeSource() {
+            if (logicAfterProducer) return LOGIC_RESULT;
+            return flagProducer == FLAGS_UNCHANGED ? -1 : FLAG_RESULT;
+        }
+
+        private void exit(int nextPc, int retired) {
+            writeBack();
+            code.lconst(((long) retired << 32) | (nextPc & 0xFFFFFFFFL)).op(LRETURN);
+        }
+
+        private void writeBack() {
+            for (int register : used) {
+                if (written[register]) {
+                    code.aload(REGS).iconst(register).iload(localOf[register]).op(IASTORE);
+                }
+            }
+            if (stackUsed) {
+                code.aload(RT).iload(SP).invoke(INVOKEVIRTUAL, RUNTIME, "setStackPointer", "(I)V");
+            }
+            switch (flagProducer) {
+                case FLAGS_ADD -> materialize("updateAdd");
+                case FLAGS_SUB -> materialize("updateSub");
+                default -> { }
+            }
+            if (logicAfterProducer) {
+                code.aload(FLAGS_LOCAL).iload(LOGIC_RESULT).invoke(INVOKEVIRTUAL, FLAGS, "update", "(I)V");
+            }
+        }
+
+        private void materialize(String update) {
+            code.aload(FLAGS_LOCAL).iload(FLAG_A).iload(FLAG_B).iload(FLAG_RESULT)
+                    .invoke(INVOKEVIRTUAL, FLAGS, update, "(III)V");
+        }
+    }
+}
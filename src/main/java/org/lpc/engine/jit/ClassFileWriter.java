@@ -0,0 +1,277 @@
+package org.lpc.engine.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for the class files produced by the JIT.
+ *
+ * Only covers what compiled blocks need: public methods, int/long constants, method
+ * references and forward branches. Classes are emitted as version 49 so the JVM uses the
+ * type-inferencing verifier and no stack map frames have to be computed.
+ */
+final class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // bytecode opcodes used by the block compiler
+    static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+    static final int ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36, IALOAD = 0x2E, IASTORE = 0x4F;
+    static final int POP = 0x57, DUP = 0x59;
+    static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6C, IREM = 0x70, INEG = 0x74;
+    static final int ISHL = 0x78, IUSHR = 0x7C, IAND = 0x7E, IOR = 0x80, IXOR = 0x82;
+    static final int LAND = 0x7F, LOR = 0x81, I2L = 0x85, IINC = 0x84;
+    static final int IFEQ = 0x99, IFNE = 0x9A, IFLT = 0x9B, IFGE = 0x9C, IFGT = 0x9D, IFLE = 0x9E, GOTO = 0xA7;
+    static final int LRETURN = 0xAD, RETURN = 0xB1;
+    static final int INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7, INVOKESTATIC = 0xB8;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaceClass;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName, String interfaceName) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaceClass = classRef(interfaceName);
+    }
+
+    /**
+     * Starts a public method; the returned code buffer is written out by {@link #toByteArray()}.
+     */
+    Code method(String name, String descriptor, int maxStack, int maxLocals) {
+        Code code = new Code(utf8(name), utf8(descriptor), maxStack, maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        int codeAttribute = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0); // fields
+
+            out.writeShort(methods.size());
+            for (Code code : methods) {
+                code.resolveLabels();
+                out.writeShort(ACC_PUBLIC);
+                out.writeShort(code.nameIndex);
+                out.writeShort(code.descriptorIndex);
+                out.writeShort(1);
+                out.writeShort(codeAttribute);
+                out.writeInt(12 + code.length);
+                out.writeShort(code.maxStack);
+                out.writeShort(code.maxLocals);
+                out.writeInt(code.length);
+                out.write(code.bytes, 0, code.length);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // code attributes
+            }
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write class file", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // -------- Constant pool --------
+    private int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        }, 1);
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        }, 1);
+    }
+
+    private int intConstant(int value) {
+        return constant("I" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        }, 1);
+    }
+
+    private int longConstant(long value) {
+        return constant("J" + value, out -> {
+            out.writeByte(5);
+            out.writeLong(value);
+        }, 2);
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        }, 1);
+        return constant("M" + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(10);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    private int constant(String key, PoolEntry entry, int slots) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write constant " + key, e);
+        }
+        index = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    @FunctionalInterface
+    private interface PoolEntry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Branch target inside one method; may be used before it is placed.
+     */
+    static final class Label {
+        private int position = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    /**
+     * Bytecode buffer of one method.
+     */
+    final class Code {
+        private final int nameIndex;
+        private final int descriptorIndex;
+        private final int maxStack;
+        private final int maxLocals;
+        private final List<Label> labels = new ArrayList<>();
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        private Code(int nameIndex, int descriptorIndex, int maxStack, int maxLocals) {
+            this.nameIndex = nameIndex;
+            this.descriptorIndex = descriptorIndex;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        Code op(int opcode) {
+            return put(opcode);
+        }
+
+        Code iconst(int value) {
+            if (value >= -1 && value <= 5) return put(ICONST_0 + value);
+            if (value == (byte) value) return put(BIPUSH).put(value);
+            if (value == (short) value) return put(SIPUSH).putShort(value);
+            return ldc(intConstant(value));
+        }
+
+        Code lconst(long value) {
+            return put(LDC2_W).putShort(longConstant(value));
+        }
+
+        Code iload(int local) {
+            return local <= 3 ? put(0x1A + local) : put(ILOAD).put(local);
+        }
+
+        Code istore(int local) {
+            return local <= 3 ? put(0x3B + local) : put(ISTORE).put(local);
+        }
+
+        Code aload(int local) {
+            return local <= 3 ? put(0x2A + local) : put(ALOAD).put(local);
+        }
+
+        Code iinc(int local, int delta) {
+            return put(IINC).put(local).put(delta);
+        }
+
+        Code invoke(int opcode, String owner, String name, String descriptor) {
+            return put(opcode).putShort(methodRef(owner, name, descriptor));
+        }
+
+        Code jump(int opcode, Label target) {
+            target.branches.add(length);
+            if (!labels.contains(target)) labels.add(target);
+            return put(opcode).putShort(0);
+        }
+
+        Code mark(Label label) {
+            label.position = length;
+            if (!labels.contains(label)) labels.add(label);
+            return this;
+        }
+
+        private Code ldc(int index) {
+            return index < 256 ? put(LDC).put(index) : put(LDC_W).putShort(index);
+        }
+
+        private void resolveLabels() {
+            for (Label label : labels) {
+                if (label.position < 0 && !label.branches.isEmpty()) {
+                    throw new IllegalStateException("Branch to unplaced label");
+                }
+                for (int branch : label.branches) {
+                    int offset = label.position - branch;
+                    if (offset != (short) offset) {
+                        throw new IllegalStateException("Branch offset out of range: " + offset);
+                    }
+                    bytes[branch + 1] = (byte) (offset >> 8);
+                    bytes[branch + 2] = (byte) offset;
+                }
+            }
+            if (length > 0xFFFF) {
+                throw new IllegalStateException("Method too large: " + length + " bytes");
+            }
+        }
+
+        private Code put(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        private Code putShort(int value) {
+            return put(value >> 8).put(value);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.lpc.engine.jit;
+
+import org.lpc.memory.Flags;
+
+/**
+ * A guest basic block translated to JVM bytecode.
+ *
+ * Implementations are generated by {@link BlockCompiler} and defined as hidden classes.
+ */
+public interface CompiledBlock {
+    /**
+     * Runs the block against the general purpose registers and flags of a CPU.
+     *
+     * @return the number of retired instructions in the upper 32 bits and the next program
+     *         counter in the lower 32 bits
+     */
+    long run(int[] regs, Flags flags, JitRuntime runtime);
+}
@@ -0,0 +1,205 @@
+package org.lpc.engine.jit;
+
+import lombok.Getter;
+import org.lpc.CPU;
+import org.lpc.engine.ExecutionEngine;
+import org.lpc.engine.Operations;
+import org.lpc.engine.SwitchEngine;
+import org.lpc.instructions.DecodeCache;
+import org.lpc.instructions.DecodedInstruction;
+import org.lpc.memory.Flags;
+import org.lpc.memory.MemoryBus;
+import org.lpc.memory.MemoryHandler;
+import org.lpc.memory.MemoryWriteListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Engine that translates hot basic blocks to JVM bytecode.
+ *
+ * Code runs on the {@link SwitchEngine} while entries into each block start are counted; once
+ * a block has been entered {@value #COMPILE_THRESHOLD} times it is compiled by {@link BlockCompiler}
+ * and executed natively from then on. Writes over compiled code discard the affected blocks,
+ * so self-modifying programs fall back to the interpreter until the code settles again.
+ * Setting the first watchpoint or removing the last one discards every block, and blocks are
+ * recompiled with guards that leave watched pages to the interpreter only while watchpoints exist.
+ *
+ * A JIT engine keeps per-program state and is bound to the CPU it was created for.
+ */
+public class JitEngine implements ExecutionEngine, MemoryWriteListener {
+    static final int COMPILE_THRESHOLD = 64;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int SLOTS_PER_PAGE = (1 << PAGE_SHIFT) / 4;
+    private static final int NOT_COMPILABLE = -1;
+
+    private final CPU cpu;
+    private final MemoryBus memory;
+    private final DecodeCache decodeCache;
+    private final SwitchEngine interpreter;
+    private final BlockCompiler compiler;
+    private final JitRuntime runtime;
+    private final int[] operations;
+
+    private final BlockCompiler.Block[][] blocks;
+    private final int[][] entryCounts;
+    private final long[] codeWords;
+    private final List<BlockCompiler.Block> compiled = new ArrayList<>();
+    private boolean watched; // blocks are compiled with the watched-page guards
+
+    @Getter
+    private long compiledBlockCount;
+    @Getter
+    private long invalidatedBlockCount;
+
+    public JitEngine(CPU cpu) {
+        this.cpu = cpu;
+        this.decodeCache = cpu.getDecodeCache();
+        this.interpreter = new SwitchEngine(cpu.getInstructionSet());
+        this.operations = Operations.forInstructionSet(cpu.getInstructionSet());
+
+        this.memory = cpu.getMemory();
+        int limit = 0;
+        for (MemoryHandler region : new MemoryHandler[] { memory.getRom(), memory.getRam(), memory.getVram() }) {
+            limit = Math.max(limit, region.getBaseAddress() + region.getSize());
+        }
+        this.blocks = new BlockCompiler.Block[(limit + PAGE_MASK) >>> PAGE_SHIFT][];
+        this.entryCounts = new int[blocks.length][];
+        this.codeWords = new long[((limit >>> 2) + 63) >>> 6];
+
+        this.runtime = new JitRuntime(cpu, codeWords);
+        this.compiler = new BlockCompiler(cpu.getInstructionSet(), decodeCache, memory, runtime,
+                operations, cpu.getRegisterCount());
+
+        memory.addWriteListener(this);
+    }
+
+    @Override
+    public long execute(CPU cpu, long maxInstructions) {
+        if (cpu != this.cpu) {
+            throw new IllegalArgumentException("JIT engine is bound to another CPU");
+        }
+
+        int[] regs = cpu.getRegisters();
+        Flags flags = cpu.getFlags();
+        long retired = 0;
+
+        while (retired < maxInstructions && !cpu.isHalt()) {
+            if (watched != memory.getTrappedPageCount() > 0) {
+                watched = !watched;
+                invalidate(0, Integer.MAX_VALUE);
+            }
+            int pc = cpu.getProgramCounter();
+            BlockCompiler.Block block = lookup(pc);
+
+            if (block == null) {
+                countEntry(pc);
+            } else if (block.length() <= maxInstructions - retired) {
+                long result = block.code().run(regs, flags, runtime);
+                cpu.setProgramCounter((int) result);
+                int done = (int) (result >>> 32);
+                if (done > 0) {
+                    retired += done;
+                    continue;
+                }
+                // the first instruction needs the interpreter (IO, fault, self-modifying write)
+            }
+            retired += interpretBlock(maxInstructions - retired);
+        }
+        return retired;
+    }
+
+    // runs the interpreter up to the end of the current basic block
+    private long interpretBlock(long maxInstructions) {
+        long retired = 0;
+        while (retired < maxInstructions && !cpu.isHalt()) {
+            DecodedInstruction instr = decodeCache.fetch(cpu.getProgramCounter());
+            interpreter.execute(cpu, 1);
+            retired++;
+            if (Operations.isBranch(operations[instr.getOpcode()])
+                    || cpu.getProgramCounter() != instr.getNextAddress()) {
+                break;
+            }
+        }
+        return retired;
+    }
+
+    private BlockCompiler.Block lookup(int pc) {
+        int page = pc >>> PAGE_SHIFT;
+        if ((pc & 3) != 0 || page >= blocks.length || blocks[page] == null) return null;
+        return blocks[page][(pc & PAGE_MASK) >>> 2];
+    }
+
+    private void countEntry(int pc) {
+        int page = pc >>> PAGE_SHIFT;
+        if ((pc & 3) != 0 || page >= blocks.length) return;
+
+        int[] counts = entryCounts[page];
+        if (counts == null) {
+            counts = new int[SLOTS_PER_PAGE];
+            entryCounts[page] = counts;
+        }
+
+        int slot = (pc & PAGE_MASK) >>> 2;
+        if (counts[slot] == NOT_COMPILABLE || ++counts[slot] < COMPILE_THRESHOLD) return;
+
+        BlockCompiler.Block block = compiler.compile(pc, watched);
+        if (block == null) {
+            counts[slot] = NOT_COMPILABLE;
+            return;
+        }
+        install(block);
+        compiledBlockCount++;
+    }
+
+    private void install(BlockCompiler.Block block) {
+        int page = block.start() >>> PAGE_SHIFT;
+        if (blocks[page] == null) {
+            blocks[page] = new BlockCompiler.Block[SLOTS_PER_PAGE];
+        }
+        blocks[page][(block.start() & PAGE_MASK) >>> 2] = block;
+        compiled.add(block);
+        markCode(block);
+    }
+
+    private void markCode(BlockCompiler.Block block) {
+        for (int word = block.start() >>> 2; word < (block.end() + 3) >>> 2; word++) {
+            codeWords[word >>> 6] |= 1L << word;
+        }
+    }
+
+    @Override
+    public void onWrite(int addr, int length) {
+        int first = addr >>> 2;
+        int last = (addr + length - 1) >>> 2;
+        for (int index = first >>> 6; index <= last >>> 6 && index < codeWords.length; index++) {
+            long mask = codeWords[index];
+            if (index == first >>> 6) mask &= -1L << first;
+            if (index == last >>> 6) mask &= -1L >>> (63 - (last & 63));
+            if (mask != 0) {
+                invalidate(addr, addr + length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops every compiled block overlapping [start, end).
+     */
+    public void invalidate(int start, int end) {
+        boolean changed = compiled.removeIf(block -> {
+            if (block.start() >= end || block.end() <= start) return false;
+            blocks[block.start() >>> PAGE_SHIFT][(block.start() & PAGE_MASK) >>> 2] = null;
+            entryCounts[block.start() >>> PAGE_SHIFT][(block.start() & PAGE_MASK) >>> 2] = 0;
+            invalidatedBlockCount++;
+            return true;
+        });
+        if (changed) {
+            Arrays.fill(codeWords, 0);
+            compiled.forEach(this::markCode);
+        }
+    }
+}
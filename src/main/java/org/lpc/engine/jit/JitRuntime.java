@@ -0,0 +1,99 @@
+package org.lpc.engine.jit;
+
+import org.lpc.CPU;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryBus;
+
+/**
+ * Services called from compiled blocks.
+ *
+ * Memory accesses are guarded: a block only touches memory through the fast path when the
+ * word lies entirely inside ROM, RAM or VRAM and, for writes, does not overlap compiled code.
+ * Everything else (IO, invalid addresses, self-modifying writes, heap/stack collisions) makes
+ * the block exit so the interpreter can execute the instruction with its full semantics.
+ * Blocks compiled while watchpoints are set use the {@code Watched} guards, which also leave
+ * accesses to watched pages to the interpreter.
+ */
+public final class JitRuntime {
+    private final CPU cpu;
+    private final MemoryBus memory;
+    private final Memory rom;
+    private final Memory ram;
+    private final Memory vram;
+    private final long[] codeWords;
+
+    JitRuntime(CPU cpu, long[] codeWords) {
+        this.cpu = cpu;
+        this.memory = cpu.getMemory();
+        this.rom = memory.getRom();
+        this.ram = memory.getRam();
+        this.vram = memory.getVram();
+        this.codeWords = codeWords;
+    }
+
+    public boolean canRead(int addr) {
+        return contains(ram, addr) || contains(vram, addr) || contains(rom, addr);
+    }
+
+    public boolean canWrite(int addr) {
+        return (contains(ram, addr) || contains(vram, addr)) && !isCode(addr);
+    }
+
+    public boolean canPush(int stackPointer) {
+        int top = stackPointer - 4;
+        return cpu.getHeapPointer() < top && canWrite(top);
+    }
+
+    public boolean canReadWatched(int addr) {
+        return canRead(addr) && !memory.isTrapped(addr);
+    }
+
+    public boolean canWriteWatched(int addr) {
+        return canWrite(addr) && !memory.isTrapped(addr);
+    }
+
+    public boolean canPushWatched(int stackPointer) {
+        return canPush(stackPointer) && !memory.isTrapped(stackPointer - 4);
+    }
+
+    public int readWord(int addr) {
+        return memory.readWord(addr);
+    }
+
+    public void writeWord(int addr, int value) {
+        memory.writeWord(addr, value);
+    }
+
+    public int getStackPointer() {
+        return cpu.getStackPointer();
+    }
+
+    public void setStackPointer(int stackPointer) {
+        cpu.setStackPointer(stackPointer);
+    }
+
+    // Carry as computed by Flags.updateAdd / Flags.updateSub
+    public static boolean carryAdd(int a, int b) {
+        return Integer.compareUnsigned(a + b, a) < 0;
+    }
+
+    public static boolean carrySub(int a, int b) {
+        return Integer.compareUnsigned(a, b) < 0;
+    }
+
+    /**
+     * True if either word touched by a 4-byte access at {@code addr} belongs to compiled code.
+     */
+    boolean isCode(int addr) {
+        return isCodeWord(addr >>> 2) || isCodeWord((addr + 3) >>> 2);
+    }
+
+    private boolean isCodeWord(int word) {
+        int index = word >>> 6;
+        return index < codeWords.length && (codeWords[index] & (1L << word)) != 0;
+    }
+
+    private static boolean contains(Memory region, int addr) {
+        return Integer.compareUnsigned(addr - region.getBaseAddress(), region.getSize() - 3) < 0;
+    }
+}
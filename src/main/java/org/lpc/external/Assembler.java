@@ -3,14 +3,37 @@ package org.lpc.external;
 import lombok.Getter;
 import org.lpc.CPU;
 import org.lpc.instructions.Instruction;
+import org.lpc.instructions.Instruction.OperandKind;
 import org.lpc.instructions.InstructionSet;
-import org.lpc.memory.Memory;
-import org.lpc.memory.MemoryBus;
-import org.lpc.memory.MemoryHandler;
+import org.lpc.instructions.InstructionUtils;
+import org.lpc.memory.MemoryRegion;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
-
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Two-pass assembler for Neptune assembly.
+ *
+ * Each code line is tokenized and parsed once into an instruction with its operands; a label or
+ * constant operand is left as a fixup on the symbol's index and patched once every symbol is
+ * known. Errors are reported as {@link AssemblyException}s with the line and column they were
+ * found at.
+ */
 public class Assembler {
+    // bump when the same source assembles differently, so cached objects from older assemblers are rejected;
+    // 2: operands on instructions that take none are an error
+    // 3: macro arguments are substituted once, and macros and .rept blocks get local labels
+    public static final int VERSION = 3;
+
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final int PARALLEL_ENCODE_THRESHOLD = 1 << 16; // instructions; below this a fork costs more than it saves
+    private static final int ENCODE_CHUNK_SIZE = 1 << 12;
+
     private final InstructionSet instructionSet;
     private final CPU cpu;
     private final LabelManager labelManager;
@@ -18,22 +41,32 @@ public class Assembler {
     private final MemoryResolver memoryResolver;
     private final MacroManager macroManager;
     private final DataSectionManager dataSectionManager;
+    private final Map<String, Instruction> mnemonics = new HashMap<>(); // as written in the source
+    private final List<Fixup> fixups = new ArrayList<>();
 
     public Assembler(CPU cpu) {
         this.cpu = cpu;
         this.instructionSet = cpu.getInstructionSet();
         this.labelManager = new LabelManager();
-        this.syscallManager = new SyscallManager(cpu);
+        this.syscallManager = new SyscallManager();
         this.memoryResolver = new MemoryResolver(cpu);
         this.macroManager = new MacroManager();
         this.dataSectionManager = new DataSectionManager(cpu);
     }
 
     public void assembleAndLoad(List<String> lines, int baseAddress) {
+        assemble(lines, baseAddress).loadInto(cpu);
+    }
+
+    /**
+     * Assembles {@code lines} for code starting at {@code baseAddress} without touching memory.
+     */
+    public ObjectFile assemble(List<String> lines, int baseAddress) {
         labelManager.clear();
         syscallManager.clear();
         macroManager.clear();
         dataSectionManager.clear();
+        fixups.clear();
 
         var expanded = macroManager.expandMacros(lines);
         var sections = dataSectionManager.parseSections(expanded);
@@ -47,245 +80,514 @@ public class Assembler {
         }
 
         var parsed = parseSourceLines(sections.codeSection(), programStartAddress);
+        resolveFixups();
 
-        writeDataToMemory();
-        handleProgramStart(programStartAddress);
-        writeInstructionsToMemory(parsed);
-        syscallManager.finalizeSyscallTable(labelManager);
+        List<ObjectFile.Segment> segments = new ArrayList<>();
+        if (sections.dataSection() != null) {
+            segments.add(dataSectionManager.toSegment());
+        }
+        segments.add(encodeInstructions(parsed, programStartAddress));
+
+        boolean entryPointSet = memoryResolver.isRamAddress(programStartAddress);
+        int entryPoint = labelManager.containsLabel("main") ? labelManager.getAddress("main") : programStartAddress;
+        return new ObjectFile(cpu, baseAddress, entryPointSet, entryPoint, syscallManager.resolveFaultHandler(labelManager),
+                segments, labelManager.getLabels(), syscallManager.resolveSyscalls(labelManager));
     }
 
-    private List<SourceLine> parseSourceLines(List<String> lines, int baseAddress) {
-        List<SourceLine> parsedLines = new ArrayList<>();
+    private List<ParsedInstruction> parseSourceLines(List<SourceLine> lines, int baseAddress) {
+        List<ParsedInstruction> parsed = new ArrayList<>();
+        Lexer lexer = new Lexer();
         int address = baseAddress;
 
-        for (String rawLine : lines) {
-            String line = cleanLine(rawLine);
-            if (line.isEmpty()) continue;
-
-            if (syscallManager.processSyscallDeclaration(line, address)) {
-                labelManager.addLabel(syscallManager.getLastLabel(), address);
-                continue;
+        for (SourceLine line : lines) {
+            lexer.reset(line);
+            ParsedInstruction instruction;
+            try {
+                instruction = parseLine(lexer, address);
+            } catch (AssemblyException e) {
+                throw e;
+            } catch (IllegalArgumentException e) {
+                // duplicate labels, constants and syscalls
+                throw new AssemblyException(line.number(), line.column(), e.getMessage(), e);
+            }
+            if (instruction != null) {
+                parsed.add(instruction);
+                address += instruction.instruction().getWordCount() * 4;
             }
-
-            if (labelManager.processLabelDeclaration(line, address)) continue;
-            if (labelManager.processConstantDeclaration(line)) continue;
-
-            InstructionInfo info = parseInstruction(line);
-            parsedLines.add(new SourceLine(address, info.mnemonic(), info.args(), info.instruction()));
-            address += info.instruction().getWordCount() * 4;
         }
 
-        return parsedLines;
+        return parsed;
     }
 
-    private String cleanLine(String line) {
-        line = line.trim();
-        if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) return "";
+    // null for lines that only declare something
+    private ParsedInstruction parseLine(Lexer lexer, int address) {
+        Lexer.Token token = lexer.next();
+        if (token == Lexer.Token.END) return null;
+        if (token != Lexer.Token.IDENTIFIER) {
+            throw lexer.error("Expected an instruction, label or directive");
+        }
+        String word = lexer.text();
+        int column = lexer.column();
+        token = lexer.next();
+
+        if (token == Lexer.Token.COLON) {
+            lexer.expectEnd();
+            labelManager.addLabel(word, address);
+            return null;
+        }
+        if (word.equals(".const")) {
+            String name = lexer.expectIdentifier(token);
+            int value = lexer.expectNumber(lexer.next());
+            lexer.expectEnd();
+            labelManager.addConstant(name, value);
+            return null;
+        }
+        if (word.equals("syscall") && token == Lexer.Token.NUMBER) {
+            // syscall number label:
+            int number = lexer.number();
+            if (number < 0) {
+                throw lexer.error("Invalid syscall number: " + number);
+            }
+            String label = lexer.expectLabel(lexer.next());
+            syscallManager.declareSyscall(number, label);
+            labelManager.addLabel(label, address);
+            return null;
+        }
+        if (word.equals("fault") && token == Lexer.Token.IDENTIFIER) {
+            // fault label: names the guest fault handler, whose address goes into the ROM fault vector
+            String label = lexer.expectLabel(token);
+            syscallManager.declareFault(label);
+            labelManager.addLabel(label, address);
+            return null;
+        }
 
-        int commentIdx = Math.min(
-                line.indexOf(';') == -1 ? line.length() : line.indexOf(';'),
-                line.indexOf('#') == -1 ? line.length() : line.indexOf('#')
-        );
-        return line.substring(0, commentIdx).trim();
+        Instruction instruction = mnemonics.computeIfAbsent(word, this::findInstruction);
+        if (instruction == null) {
+            throw new AssemblyException(lexer.getLineNumber(), column, "Unknown instruction '" + word + "'");
+        }
+        return new ParsedInstruction(address, instruction, parseOperands(lexer, token, word, instruction), lexer.getLine());
     }
 
-    private InstructionInfo parseInstruction(String line) {
-        int spaceIdx = line.indexOf(' ');
-        String mnemonic = (spaceIdx == -1) ? line : line.substring(0, spaceIdx).toUpperCase();
-        String args = (spaceIdx == -1) ? "" : line.substring(spaceIdx + 1).trim();
-
-        Byte opcode = instructionSet.getOpcode(mnemonic);
-        if (opcode == null) {
-            throw new IllegalArgumentException("Unknown instruction: '" + line + "'");
-        }
+    private Instruction findInstruction(String mnemonic) {
+        Byte opcode = instructionSet.getOpcode(mnemonic.toUpperCase());
+        if (opcode == null) return null;
 
         Instruction instr = instructionSet.getInstruction(opcode & 0xFF);
         if (instr == null) {
             throw new IllegalStateException("No implementation for opcode: " + opcode);
         }
-
-        return new InstructionInfo(mnemonic, args, instr);
+        return instr;
     }
 
-    private void handleProgramStart(int programStartAddress) {
-        if (memoryResolver.isRamAddress(programStartAddress)) {
-            if (labelManager.containsLabel("main")) {
-                cpu.setProgramCounter(labelManager.getAddress("main"));
+    private int[] parseOperands(Lexer lexer, Lexer.Token token, String mnemonic, Instruction instruction) {
+        OperandKind[] kinds = instruction.getOperandKinds();
+        int[] operands = new int[kinds.length];
+
+        for (int i = 0; i < kinds.length; i++) {
+            if (i > 0) {
+                if (token != Lexer.Token.COMMA) {
+                    throw lexer.error(token == Lexer.Token.END ? operandCount(mnemonic, kinds) : "Expected ','");
+                }
+                token = lexer.next();
+            }
+            if (token == Lexer.Token.END) {
+                throw lexer.error(operandCount(mnemonic, kinds));
+            }
+
+            if (kinds[i] == OperandKind.REGISTER) {
+                if (token != Lexer.Token.IDENTIFIER) {
+                    throw lexer.error("Expected a register");
+                }
+                int register = lexer.register();
+                if (!InstructionUtils.isValidRegister(register, cpu.getRegisterCount())) {
+                    throw lexer.error(String.format("Register r%d does not exist on a CPU with %d registers",
+                            register, cpu.getRegisterCount()));
+                }
+                operands[i] = register;
+            } else if (token == Lexer.Token.NUMBER) {
+                operands[i] = lexer.number();
+            } else if (token == Lexer.Token.IDENTIFIER) {
+                fixups.add(new Fixup(operands, i, labelManager.symbol(lexer.text()), lexer.getLineNumber(), lexer.column()));
             } else {
-                cpu.setProgramCounter(programStartAddress);
+                throw lexer.error("Expected a number, label or constant");
             }
+            token = lexer.next();
+        }
+
+        if (token != Lexer.Token.END) {
+            throw lexer.error(kinds.length == 0 ? operandCount(mnemonic, kinds) : "Unexpected '" + lexer.text() + "' after the operands");
         }
+        return operands;
     }
 
-    private void writeDataToMemory() {
-        dataSectionManager.writeToMemory(memoryResolver);
+    private static String operandCount(String mnemonic, OperandKind[] kinds) {
+        return String.format("%s takes %d operand%s", mnemonic.toUpperCase(), kinds.length, kinds.length == 1 ? "" : "s");
     }
 
-    private void writeInstructionsToMemory(List<SourceLine> parsedLines) {
-        for (SourceLine line : parsedLines) {
-            String resolvedArgs = labelManager.resolveArgs(line.args());
-            int[] words = line.instruction().encode(resolvedArgs);
+    private void resolveFixups() {
+        for (Fixup fixup : fixups) {
+            if (!labelManager.isDefined(fixup.symbol())) {
+                throw new AssemblyException(fixup.line(), fixup.column(),
+                        "Undefined label or constant '" + labelManager.nameOf(fixup.symbol()) + "'");
+            }
+            fixup.operands()[fixup.index()] = labelManager.valueOf(fixup.symbol());
+        }
+    }
 
-            int addr = line.address();
-            MemoryHandler targetMem = memoryResolver.resolve(addr);
+    // encoding is independent per instruction once the fixups are patched, so large programs are encoded
+    // in chunks on the common pool; every instruction writes only its own words, whatever the order
+    private ObjectFile.Segment encodeInstructions(List<ParsedInstruction> parsed, int startAddress) {
+        int endAddress = parsed.isEmpty() ? startAddress : parsed.get(parsed.size() - 1).address()
+                + parsed.get(parsed.size() - 1).instruction().getWordCount() * 4;
+        byte[] code = new byte[endAddress - startAddress];
 
-            for (int word : words) {
-                targetMem.writeWord(addr, word);
-                addr += 4;
+        if (parsed.size() < PARALLEL_ENCODE_THRESHOLD) {
+            encodeInstructions(parsed, 0, parsed.size(), code, startAddress);
+        } else {
+            int chunks = (parsed.size() + ENCODE_CHUNK_SIZE - 1) / ENCODE_CHUNK_SIZE;
+            IntStream.range(0, chunks).parallel().forEach(chunk -> encodeInstructions(parsed, chunk * ENCODE_CHUNK_SIZE,
+                    Math.min(parsed.size(), (chunk + 1) * ENCODE_CHUNK_SIZE), code, startAddress));
+        }
+        return new ObjectFile.Segment(startAddress, code);
+    }
+
+    private static void encodeInstructions(List<ParsedInstruction> parsed, int from, int to, byte[] code, int startAddress) {
+        for (int i = from; i < to; i++) {
+            ParsedInstruction instruction = parsed.get(i);
+            int offset = instruction.address() - startAddress;
+            for (int word : instruction.instruction().encode(instruction.operands())) {
+                WORD.set(code, offset, word);
+                offset += 4;
             }
         }
     }
 
-    private record SourceLine(int address, String mnemonic, String args, Instruction instruction) {}
-    private record InstructionInfo(String mnemonic, String args, Instruction instruction) {}
+    private record ParsedInstruction(int address, Instruction instruction, int[] operands, SourceLine source) {}
+
+    // a label or constant operand, patched into operands[index] once the symbol is defined
+    private record Fixup(int[] operands, int index, int symbol, int line, int column) {}
 }
 
+// A line of source and its 1-based line number; lines from a macro expansion carry the invocation's
+// number and the column of its first token, so errors point at the invocation rather than into the macro body
+record SourceLine(int number, String text, int invocationColumn) {
+    SourceLine(int number, String text) {
+        this(number, text, 0);
+    }
 
-// Label Management Component
-class LabelManager {
-    private final Map<String, Integer> labelToAddress = new HashMap<>();
-    private final Map<String, Integer> constants = new HashMap<>();
+    // whether the line is just this directive, in any case, without copying the line
+    boolean isDirective(String directive) {
+        int start = indent(text);
+        int end = text.length();
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        return end - start == directive.length() && text.regionMatches(true, start, directive, 0, directive.length());
+    }
 
-    public void clear() {
-        labelToAddress.clear();
-        constants.clear();
+    // of the first token
+    int column() {
+        return invocationColumn > 0 ? invocationColumn : indent(text) + 1;
+    }
+
+    static boolean startsWith(String text, String prefix) {
+        return text.startsWith(prefix, indent(text));
+    }
+
+    private static int indent(String text) {
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) start++;
+        return start;
+    }
+}
+
+// Lexer Component
+class Lexer {
+    enum Token { IDENTIFIER, NUMBER, COMMA, COLON, END }
+
+    @Getter
+    private SourceLine line;
+    private String text;
+    private int pos;
+    private int start; // of the current token
+    private int end;
+
+    public void reset(SourceLine line) {
+        this.line = line;
+        this.text = line.text();
+        this.pos = 0;
+        this.start = 0;
+        this.end = 0;
     }
 
-    public boolean processLabelDeclaration(String line, int address) {
-        if (line.endsWith(":")) {
-            String label = line.substring(0, line.length() - 1).trim();
-            addLabel(label, address);
-            return true;
+    public int getLineNumber() {
+        return line.number();
+    }
+
+    public Token next() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        start = pos;
+        if (pos == text.length()) {
+            end = pos;
+            return Token.END;
+        }
+
+        char c = text.charAt(pos);
+        if (c == ';' || c == '#') {
+            end = pos = text.length();
+            start = end;
+            return Token.END;
+        }
+        if (c == ',' || c == ':') {
+            end = ++pos;
+            return c == ',' ? Token.COMMA : Token.COLON;
+        }
+        if (isIdentifierStart(c)) {
+            do pos++; while (pos < text.length() && isIdentifierPart(text.charAt(pos)));
+            end = pos;
+            return Token.IDENTIFIER;
         }
-        return false;
+        if (isDigit(c) || ((c == '-' || c == '+') && pos + 1 < text.length() && isDigit(text.charAt(pos + 1)))) {
+            do pos++; while (pos < text.length() && Character.isLetterOrDigit(text.charAt(pos)));
+            end = pos;
+            return Token.NUMBER;
+        }
+        end = pos + 1;
+        throw error("Unexpected character '" + c + "'");
     }
 
-    public boolean processConstantDeclaration(String line) {
-        if (!line.startsWith(".const ")) return false;
+    public String text() {
+        return text.substring(start, end);
+    }
 
-        String[] parts = line.substring(6).trim().split("\\s+");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid const declaration: " + line);
+    public int column() {
+        return line.invocationColumn() > 0 ? line.invocationColumn() : start + 1;
+    }
+
+    public AssemblyException error(String message) {
+        return new AssemblyException(line.number(), column(), message);
+    }
+
+    public void expectEnd() {
+        if (next() != Token.END) {
+            throw error("Unexpected '" + text() + "'");
         }
+    }
 
-        String name = parts[0];
-        String valueStr = parts[1];
+    public String expectIdentifier(Token token) {
+        if (token != Token.IDENTIFIER) {
+            throw error("Expected a name");
+        }
+        return text();
+    }
 
-        int value = parseImmediate(valueStr);
-        if (labelToAddress.containsKey(name) || constants.containsKey(name)) {
-            throw new IllegalArgumentException("Duplicate label or constant: " + name);
+    public int expectNumber(Token token) {
+        if (token != Token.NUMBER) {
+            throw error("Expected a number");
         }
-        constants.put(name, value);
-        return true;
+        return number();
     }
 
-    public void addLabel(String label, int address) {
-        if (labelToAddress.containsKey(label) || constants.containsKey(label)) {
-            throw new IllegalArgumentException("Duplicate label or constant: " + label);
+    // label: at the end of a declaration
+    public String expectLabel(Token token) {
+        String label = expectIdentifier(token);
+        if (next() != Token.COLON) {
+            throw error("Expected ':' after " + label);
         }
-        labelToAddress.put(label, address);
+        expectEnd();
+        return label;
     }
 
-    public String resolveArgs(String args) {
-        if (args.isEmpty()) return "";
+    /**
+     * The current NUMBER token: decimal with an optional sign, or 0x-prefixed hex of up to 32 bits.
+     */
+    public int number() {
+        int i = start;
+        boolean negative = text.charAt(i) == '-';
+        if (negative || text.charAt(i) == '+') i++;
+
+        long value = 0;
+        if (end - i > 2 && text.charAt(i) == '0' && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X') && !negative) {
+            for (i += 2; i < end; i++) {
+                int digit = Character.digit(text.charAt(i), 16);
+                if (digit < 0 || (value = value << 4 | digit) > 0xFFFFFFFFL) {
+                    throw error("Invalid number '" + text() + "'");
+                }
+            }
+            return (int) value;
+        }
+        for (; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0 || (value = value * 10 + digit) > (negative ? 1L << 31 : Integer.MAX_VALUE)) {
+                throw error("Invalid number '" + text() + "'");
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
 
-        String[] parts = args.split(",");
-        for (int i = 0; i < parts.length; i++) {
-            String token = parts[i].trim();
-            if (labelToAddress.containsKey(token)) {
-                parts[i] = String.valueOf(labelToAddress.get(token));
-            } else if (constants.containsKey(token)) {
-                parts[i] = String.valueOf(constants.get(token));
+    /**
+     * The current IDENTIFIER token as a register: r0-r255, pc, sp, hp or fc, in any case.
+     */
+    public int register() {
+        int length = end - start;
+        if (length == 2) {
+            int special = switch (text.substring(start, end).toLowerCase()) {
+                case "pc" -> CPU.PC;
+                case "sp" -> CPU.SP;
+                case "hp" -> CPU.HP;
+                case "fc" -> CPU.FC;
+                default -> -1;
+            };
+            if (special >= 0) return special;
+        }
+        char r = text.charAt(start);
+        if ((r == 'r' || r == 'R') && length >= 2 && length <= 4) {
+            int index = 0;
+            for (int i = start + 1; i < end; i++) {
+                char c = text.charAt(i);
+                if (!isDigit(c)) {
+                    index = -1;
+                    break;
+                }
+                index = index * 10 + (c - '0');
             }
+            if (index >= 0 && index <= 255) return index;
         }
-        return String.join(",", parts);
+        throw error("Invalid register '" + text() + "'");
     }
 
-    public boolean containsLabel(String label) {
-        return labelToAddress.containsKey(label);
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
-    public int getAddress(String label) {
-        return labelToAddress.get(label);
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '.';
     }
 
-    private int parseImmediate(String value) {
-        if (value.startsWith("0x") || value.startsWith("0X")) {
-            return Integer.parseUnsignedInt(value.substring(2), 16);
-        }
-        return Integer.parseInt(value);
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
     }
 }
 
-// Syscall Management Component
-class SyscallManager {
-    private final CPU cpu;
-    private final Map<Integer, String> syscallMap = new HashMap<>();
-    @Getter
-    private String lastLabel;
 
-    public SyscallManager(CPU cpu) {
-        this.cpu = cpu;
-    }
+// Label Management Component
+class LabelManager {
+    private static final byte UNDEFINED = 0;
+    private static final byte LABEL = 1;
+    private static final byte CONSTANT = 2;
+
+    // symbols are numbered in order of first appearance, so fixups refer to them by index
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int[] values = new int[64];
+    private byte[] kinds = new byte[64];
 
     public void clear() {
-        syscallMap.clear();
-        lastLabel = null;
+        symbols.clear();
+        names.clear();
+        Arrays.fill(kinds, UNDEFINED);
     }
 
-    public boolean processSyscallDeclaration(String line, int address) {
-        if (!line.startsWith("syscall ")) return false;
-
-        String rest = line.substring(8).trim();
-        if (!rest.endsWith(":")) {
-            throw new IllegalArgumentException("Syscall label must end with ':'");
+    /**
+     * Index of the symbol {@code name}, added undefined on first use.
+     */
+    public int symbol(String name) {
+        Integer index = symbols.get(name);
+        if (index != null) return index;
+
+        int added = names.size();
+        if (added == values.length) {
+            values = Arrays.copyOf(values, added * 2);
+            kinds = Arrays.copyOf(kinds, added * 2);
         }
+        names.add(name);
+        symbols.put(name, added);
+        return added;
+    }
 
-        String[] parts = rest.substring(0, rest.length() - 1).trim().split("\\s+");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Syscall syntax must be: syscall number label:");
+    public void addLabel(String label, int address) {
+        define(label, address, LABEL);
+    }
+
+    public void addConstant(String name, int value) {
+        define(name, value, CONSTANT);
+    }
+
+    private void define(String name, int value, byte kind) {
+        int index = symbol(name);
+        if (kinds[index] != UNDEFINED) {
+            throw new IllegalArgumentException("Duplicate label or constant: " + name);
         }
+        values[index] = value;
+        kinds[index] = kind;
+    }
 
-        try {
-            int syscallNum = Integer.parseInt(parts[0]);
-            String label = parts[1];
+    public boolean isDefined(int symbol) {
+        return kinds[symbol] != UNDEFINED;
+    }
 
-            if (syscallMap.containsKey(syscallNum)) {
-                throw new IllegalArgumentException("Duplicate syscall number: " + syscallNum);
-            }
+    public int valueOf(int symbol) {
+        return values[symbol];
+    }
+
+    public String nameOf(int symbol) {
+        return names.get(symbol);
+    }
 
-            syscallMap.put(syscallNum, label);
-            lastLabel = label;
-            return true;
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid syscall number: " + parts[0]);
+    public boolean containsLabel(String label) {
+        Integer index = symbols.get(label);
+        return index != null && kinds[index] == LABEL;
+    }
+
+    public int getAddress(String label) {
+        return values[symbols.get(label)];
+    }
+
+    public Map<String, Integer> getLabels() {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (kinds[i] == LABEL) labels.put(names.get(i), values[i]);
         }
+        return labels;
     }
+}
 
-    public void finalizeSyscallTable(LabelManager labelManager) {
-        if (syscallMap.isEmpty()) return;
+// Syscall Management Component
+class SyscallManager {
+    private final Map<Integer, String> syscallMap = new HashMap<>();
+    private String faultLabel;
 
-        int syscallTableAddr = cpu.getMemoryMap().getSyscallTableStart();
-        Memory rom = cpu.getMemory().getRom();
+    public void clear() {
+        syscallMap.clear();
+        faultLabel = null;
+    }
 
-        // Find the highest syscall number to determine table size
-        int maxSyscallNum = syscallMap.keySet().stream().max(Integer::compare).orElse(0);
+    public void declareFault(String label) {
+        if (faultLabel != null) {
+            throw new IllegalArgumentException("Duplicate fault handler: " + label);
+        }
+        faultLabel = label;
+    }
 
-        // Initialize all entries to 0 first
-        for (int i = 0; i <= maxSyscallNum; i++) {
-            rom.writeWord(syscallTableAddr + i * 4, 0);
+    public void declareSyscall(int syscallNum, String label) {
+        if (syscallMap.containsKey(syscallNum)) {
+            throw new IllegalArgumentException("Duplicate syscall number: " + syscallNum);
         }
+        syscallMap.put(syscallNum, label);
+    }
 
-        // Write the defined syscalls
+    public int resolveFaultHandler(LabelManager labelManager) {
+        return faultLabel == null ? 0 : labelManager.getAddress(faultLabel);
+    }
+
+    public Map<Integer, Integer> resolveSyscalls(LabelManager labelManager) {
+        Map<Integer, Integer> targets = new HashMap<>();
         for (Map.Entry<Integer, String> entry : syscallMap.entrySet()) {
-            int syscallNum = entry.getKey();
             String label = entry.getValue();
-            Integer target = labelManager.getAddress(label);
-            if (target == null) {
+            if (!labelManager.containsLabel(label)) {
                 throw new IllegalStateException("Label not found for syscall: " + label);
             }
-            rom.writeWord(syscallTableAddr + syscallNum * 4, target);
+            targets.put(entry.getKey(), labelManager.getAddress(label));
         }
+        return targets;
     }
 }
 
@@ -297,102 +599,269 @@ class MemoryResolver {
         this.cpu = cpu;
     }
 
-    public MemoryHandler resolve(int addr) {
-        MemoryBus mem = cpu.getMemory();
-        if (inRange(addr, mem.getRom())) return mem.getRom();
-        if (inRange(addr, mem.getRam())) return mem.getRam();
-        if (inRange(addr, mem.getVram())) return mem.getVram();
-        if (inRange(addr, mem.getIo())) return mem.getIo();
-        throw new IllegalArgumentException(String.format("Address 0x%08X does not map to any memory region", addr));
-    }
-
     public boolean isRamAddress(int addr) {
-        return inRange(addr, cpu.getMemory().getRam());
-    }
-
-    private boolean inRange(int addr, MemoryHandler mem) {
-        return addr >= mem.getBaseAddress() && addr < mem.getBaseAddress() + mem.getSize();
+        MemoryRegion region = cpu.getMemory().findRegion(addr);
+        return region != null && region.handler() == cpu.getMemory().getRam();
     }
 }
 
 // Macro Component
+/**
+ * Expands macros and {@code .rept} blocks. A macro body is compiled once into line templates whose
+ * parameter and local label slots are filled in on each expansion, so an expansion copies text once
+ * and never rescans arguments for parameter names.
+ *
+ * Expanded lines that invoke a macro are expanded in turn. {@code %%name} in a macro or repeat block
+ * is a local label, made unique per macro expansion or repeat iteration: it belongs to the innermost
+ * enclosing block that defines it with {@code %%name:}, or to the macro if none does.
+ */
 class MacroManager {
-    private record Macro(String name, List<String> args, List<String> body) {}
+    private static final int MAX_DEPTH = 64;
+    private static final Pattern ARGUMENT_SEPARATOR = Pattern.compile("\\s*,\\s*");
+
+    private interface Node {
+        int number(); // of the source line it was compiled from
+    }
+    private record Line(int number, Template text) implements Node {}
+    private record Repeat(int number, Template header, List<Node> body) implements Node {}
+    private record Macro(String name, int parameterCount, List<Node> body) {}
+
     private final Map<String, Macro> macros = new HashMap<>();
+    private int scopeCount; // local label scopes opened so far
 
     public void clear() {
         macros.clear();
+        scopeCount = 0;
     }
 
-    public List<String> expandMacros(List<String> lines) {
-        List<String> result = new ArrayList<>();
-        Iterator<String> iter = lines.iterator();
+    public List<SourceLine> expandMacros(List<String> lines) {
+        List<SourceLine> result = new ArrayList<>(lines.size());
 
-        while (iter.hasNext()) {
-            String raw = iter.next().trim();
-            if (raw.startsWith(".macro")) {
-                var macro = parseMacro(raw, iter);
+        for (int i = 0; i < lines.size(); i++) {
+            String raw = lines.get(i);
+            int number = i + 1;
+            if (SourceLine.startsWith(raw, ".macro")) {
+                int end = findEnd(lines, i, lines.size(), ".macro", ".endmacro");
+                var macro = compileMacro(raw.trim(), lines, i + 1, end, number);
                 macros.put(macro.name(), macro);
+                i = end;
+            } else if (SourceLine.startsWith(raw, ".rept")) {
+                int end = findEnd(lines, i, lines.size(), ".rept", ".endr");
+                var repeat = compileRepeat(lines, i, end, Map.of(), new ArrayList<>());
+                // outside a macro, repeated lines keep their own line numbers
+                expand(List.of(repeat), new String[0], new int[0], 0, 0, 0, result);
+                i = end;
+            } else if (macros.isEmpty()) {
+                // the lexer skips the indentation, so most lines are passed on as they are
+                result.add(new SourceLine(number, raw));
             } else {
-                var expanded = expandLine(raw);
-                result.addAll(expanded);
+                expandLine(raw, number, 0, 0, result);
             }
         }
 
         return result;
     }
 
-    private Macro parseMacro(String header, Iterator<String> iter) {
-        String[] tokens = header.split("\\s+");
-        if (tokens.length < 2) throw new IllegalArgumentException("Invalid macro definition");
+    // the index of the line closing the block opened at start, counting nested blocks of the same kind
+    private static int findEnd(List<String> lines, int start, int limit, String open, String close) {
+        int nesting = 0;
+        for (int i = start + 1; i < limit; i++) {
+            SourceLine line = new SourceLine(i + 1, lines.get(i));
+            if (SourceLine.startsWith(line.text(), open)) {
+                nesting++;
+            } else if (line.isDirective(close) && nesting-- == 0) {
+                return i;
+            }
+        }
+        throw new AssemblyException(start + 1, 1, "Missing " + close + " for " + open);
+    }
 
-        String name = tokens[1];
-        List<String> args = List.of(Arrays.copyOfRange(tokens, 2, tokens.length));
-        List<String> body = new ArrayList<>();
+    private Macro compileMacro(String header, List<String> lines, int from, int to, int number) {
+        String[] tokens = header.split("[\\s,]+");
+        if (tokens.length < 2) throw new AssemblyException(number, 1, "Invalid macro definition");
 
-        while (iter.hasNext()) {
-            String line = iter.next().trim();
-            if (line.equalsIgnoreCase(".endmacro")) break;
-            body.add(line);
+        Map<String, Integer> parameters = new HashMap<>();
+        for (int i = 2; i < tokens.length; i++) {
+            if (parameters.put(tokens[i], i - 2) != null) {
+                throw new AssemblyException(number, 1, "Duplicate macro parameter " + tokens[i]);
+            }
         }
-
-        return new Macro(name, args, body);
+        List<Set<String>> scopes = new ArrayList<>();
+        return new Macro(tokens[1], parameters.size(), compileBlock(lines, from, to, parameters, scopes));
     }
 
-    private List<String> expandLine(String line) {
-        if (line.isEmpty() || line.startsWith(";") || line.startsWith("#")) return List.of(line);
+    // lines[start] is the .rept header, lines[end] its .endr
+    private Repeat compileRepeat(List<String> lines, int start, int end, Map<String, Integer> parameters, List<Set<String>> scopes) {
+        Template header = Template.compile(lines.get(start).trim(), parameters, scopes);
+        return new Repeat(start + 1, header, compileBlock(lines, start + 1, end, parameters, scopes));
+    }
 
-        String[] parts = line.split("\\s+", 2);
-        String name = parts[0];
+    private List<Node> compileBlock(List<String> lines, int from, int to, Map<String, Integer> parameters, List<Set<String>> scopes) {
+        // local labels defined directly in this block, not in a nested one
+        Set<String> locals = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            String text = lines.get(i).trim();
+            if (SourceLine.startsWith(text, ".rept")) {
+                i = findEnd(lines, i, to, ".rept", ".endr");
+            } else if (text.startsWith("%%") && text.indexOf(':') > 2) {
+                locals.add(text.substring(2, text.indexOf(':')).trim());
+            }
+        }
 
-        if (!macros.containsKey(name)) return List.of(line);
+        scopes.add(locals);
+        List<Node> body = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            String text = lines.get(i).trim();
+            if (SourceLine.startsWith(text, ".rept")) {
+                int end = findEnd(lines, i, to, ".rept", ".endr");
+                body.add(compileRepeat(lines, i, end, parameters, scopes));
+                i = end;
+            } else if (SourceLine.startsWith(text, ".macro")) {
+                throw new AssemblyException(i + 1, 1, "Macros cannot be defined inside a macro or .rept block");
+            } else {
+                // untrimmed, so lines repeated outside a macro keep their own columns
+                body.add(new Line(i + 1, Template.compile(lines.get(i), parameters, scopes)));
+            }
+        }
+        scopes.remove(scopes.size() - 1);
+        return body;
+    }
 
-        Macro macro = macros.get(name);
-        String argStr = parts.length > 1 ? parts[1].trim() : "";
-        String[] callArgs = argStr.isEmpty() ? new String[0] : argStr.split("\\s*,\\s*");
+    // invocation and column are the position reported for all expanded lines, or 0 to report each line's own
+    private void expand(List<Node> body, String[] arguments, int[] scopes, int invocation, int column, int depth,
+                        List<SourceLine> result) {
+        for (Node node : body) {
+            int number = invocation > 0 ? invocation : node.number();
+            if (node instanceof Line line) {
+                expandLine(line.text().instantiate(arguments, scopes), number, column, depth, result);
+            } else if (node instanceof Repeat repeat) {
+                int count = repeatCount(new SourceLine(number, repeat.header().instantiate(arguments, scopes), column));
+                for (int i = 0; i < count; i++) {
+                    int[] iteration = Arrays.copyOf(scopes, scopes.length + 1);
+                    iteration[scopes.length] = ++scopeCount;
+                    expand(repeat.body(), arguments, iteration, invocation, column, depth, result);
+                }
+            }
+        }
+    }
 
-        if (callArgs.length != macro.args.size()) {
-            throw new IllegalArgumentException("Macro " + name + " expects " + macro.args.size() + " arguments");
+    private static int repeatCount(SourceLine header) {
+        Lexer lexer = new Lexer();
+        lexer.reset(header);
+        lexer.next(); // .rept
+        int count = lexer.expectNumber(lexer.next());
+        if (count < 0) {
+            throw lexer.error("Negative repeat count " + count);
         }
+        lexer.expectEnd();
+        return count;
+    }
 
-        Map<String, String> substitutions = new HashMap<>();
-        for (int i = 0; i < macro.args.size(); i++) {
-            substitutions.put(macro.args.get(i), callArgs[i]);
+    private void expandLine(String line, int number, int column, int depth, List<SourceLine> result) {
+        int nameStart = 0;
+        while (nameStart < line.length() && Character.isWhitespace(line.charAt(nameStart))) nameStart++;
+        int nameEnd = nameStart;
+        while (nameEnd < line.length() && !Character.isWhitespace(line.charAt(nameEnd))) nameEnd++;
+
+        Macro macro = macros.get(line.substring(nameStart, nameEnd));
+        if (macro == null) {
+            result.add(new SourceLine(number, line, column));
+            return;
+        }
+        // an invocation inside a macro is reported where the outermost one is
+        int invocationColumn = column > 0 ? column : nameStart + 1;
+        if (depth == MAX_DEPTH) {
+            throw new AssemblyException(number, invocationColumn,
+                    String.format("Macros nested more than %d deep at %s; is it recursive?", MAX_DEPTH, macro.name()));
         }
 
-        List<String> expanded = new ArrayList<>();
-        for (String bodyLine : macro.body) {
-            expanded.add(substitute(bodyLine, substitutions));
+        String argStr = line.substring(nameEnd).trim();
+        String[] callArgs = argStr.isEmpty() ? new String[0] : ARGUMENT_SEPARATOR.split(argStr);
+
+        if (callArgs.length != macro.parameterCount()) {
+            throw new AssemblyException(number, invocationColumn, "Macro " + macro.name() + " expects " + macro.parameterCount() + " arguments");
         }
 
-        return expanded;
+        expand(macro.body(), callArgs, new int[] {++scopeCount}, number, invocationColumn, depth + 1, result);
     }
 
-    private String substitute(String line, Map<String, String> subs) {
-        for (var entry : subs.entrySet()) {
-            line = line.replaceAll("\\b" + entry.getKey() + "\\b", entry.getValue());
+    /**
+     * A line with slots for parameters and local labels: literals[i] comes before slots[i], and the
+     * last literal ends the line.
+     */
+    private record Template(String[] literals, Slot[] slots) {
+        // a parameter index, or the local label name and how many scopes out from the innermost it lives
+        private record Slot(int parameter, String local, int scope) {}
+
+        static Template compile(String text, Map<String, Integer> parameters, List<Set<String>> scopes) {
+            List<String> literals = new ArrayList<>();
+            List<Slot> slots = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                boolean local = c == '%' && text.startsWith("%%", i) && i + 2 < text.length() && isWordPart(text.charAt(i + 2));
+                if (!local && !isWordPart(c)) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+
+                int start = local ? i + 2 : i;
+                int end = start;
+                while (end < text.length() && isWordPart(text.charAt(end))) end++;
+                String word = text.substring(start, end);
+                Slot slot = null;
+                if (local) {
+                    slot = new Slot(-1, word, scopeOf(word, scopes));
+                } else if (parameters.containsKey(word)) {
+                    slot = new Slot(parameters.get(word), null, 0);
+                }
+
+                if (slot == null) {
+                    literal.append(word);
+                } else {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    slots.add(slot);
+                }
+                i = end;
+            }
+            literals.add(literal.toString());
+            return new Template(literals.toArray(new String[0]), slots.toArray(new Slot[0]));
+        }
+
+        // innermost scope defining the label, else the outermost: the macro, or the top-level .rept
+        private static int scopeOf(String local, List<Set<String>> scopes) {
+            for (int up = 0; up < scopes.size(); up++) {
+                if (scopes.get(scopes.size() - 1 - up).contains(local)) {
+                    return up;
+                }
+            }
+            return scopes.size() - 1;
+        }
+
+        String instantiate(String[] arguments, int[] scopes) {
+            if (slots.length == 0) return literals[0];
+
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < slots.length; i++) {
+                line.append(literals[i]);
+                Slot slot = slots[i];
+                if (slot.parameter() >= 0) {
+                    line.append(arguments[slot.parameter()]);
+                } else {
+                    line.append(slot.local()).append("..").append(scopes[scopes.length - 1 - slot.scope()]);
+                }
+            }
+            return line.append(literals[slots.length]).toString();
+        }
+
+        // what \b in a regex treats as part of a word
+        private static boolean isWordPart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
         }
-        return line;
     }
 }
 
@@ -415,25 +884,24 @@ class DataSectionManager {
         return currentDataAddress;
     }
 
-    public SectionInfo parseSections(List<String> lines) {
-        List<String> dataLines = new ArrayList<>();
-        List<String> codeLines = new ArrayList<>();
+    public SectionInfo parseSections(List<SourceLine> lines) {
+        List<SourceLine> dataLines = new ArrayList<>();
+        List<SourceLine> codeLines = new ArrayList<>(lines.size());
         boolean inDataSection = false;
         boolean hasStartDirective = false;
 
-        for (String line : lines) {
-            String trimmed = line.trim();
-
-            if (trimmed.equalsIgnoreCase(".data")) {
+        for (SourceLine line : lines) {
+            if (line.isDirective(".data")) {
                 inDataSection = true;
                 continue;
-            } else if (trimmed.equalsIgnoreCase(".code")) {
+            } else if (line.isDirective(".code")) {
                 inDataSection = false;
                 hasStartDirective = true;
                 continue;
             }
 
             if (inDataSection) {
+                String trimmed = line.text().trim();
                 if (!trimmed.isEmpty() && !trimmed.startsWith(";") && !trimmed.startsWith("#")) {
                     dataLines.add(line);
                 }
@@ -449,9 +917,15 @@ class DataSectionManager {
         );
     }
 
-    public void processDataSection(List<String> dataLines, LabelManager labelManager) {
-        for (String line : dataLines) {
-            processDataDeclaration(line.trim(), labelManager);
+    public void processDataSection(List<SourceLine> dataLines, LabelManager labelManager) {
+        for (SourceLine line : dataLines) {
+            try {
+                processDataDeclaration(line.text().trim(), labelManager);
+            } catch (AssemblyException e) {
+                throw e;
+            } catch (IllegalArgumentException e) {
+                throw new AssemblyException(line.number(), line.column(), e.getMessage(), e);
+            }
         }
     }
 
@@ -606,10 +1080,14 @@ class DataSectionManager {
         currentDataAddress += alignToWord(size);
     }
 
-    public void writeToMemory(MemoryResolver memoryResolver) {
+    // the data section as one segment from the start of RAM; padding between items is zero
+    public ObjectFile.Segment toSegment() {
+        int dataStart = cpu.getMemoryMap().getRamStart();
+        ByteBuffer data = ByteBuffer.allocate(currentDataAddress - dataStart).order(ByteOrder.LITTLE_ENDIAN);
         for (DataItem item : dataItems) {
-            item.writeToMemory(memoryResolver);
+            item.writeTo(data, item.address - dataStart);
         }
+        return new ObjectFile.Segment(dataStart, data.array());
     }
 
     private String unescapeString(String str) {
@@ -653,7 +1131,7 @@ class DataSectionManager {
             this.name = name;
         }
 
-        public abstract void writeToMemory(MemoryResolver resolver);
+        public abstract void writeTo(ByteBuffer data, int offset);
     }
 
     private static class StringDataItem extends DataItem {
@@ -665,11 +1143,8 @@ class DataSectionManager {
         }
 
         @Override
-        public void writeToMemory(MemoryResolver resolver) {
-            MemoryHandler mem = resolver.resolve(address);
-            for (int i = 0; i < data.length; i++) {
-                mem.writeByte(address + i, data[i]);
-            }
+        public void writeTo(ByteBuffer data, int offset) {
+            data.put(offset, this.data);
         }
     }
 
@@ -682,9 +1157,8 @@ class DataSectionManager {
         }
 
         @Override
-        public void writeToMemory(MemoryResolver resolver) {
-            MemoryHandler mem = resolver.resolve(address);
-            mem.writeWord(address, value);
+        public void writeTo(ByteBuffer data, int offset) {
+            data.putInt(offset, value);
         }
     }
 
@@ -697,9 +1171,8 @@ class DataSectionManager {
         }
 
         @Override
-        public void writeToMemory(MemoryResolver resolver) {
-            MemoryHandler mem = resolver.resolve(address);
-            mem.writeByte(address, value);
+        public void writeTo(ByteBuffer data, int offset) {
+            data.put(offset, value);
         }
     }
 
@@ -712,10 +1185,9 @@ class DataSectionManager {
         }
 
         @Override
-        public void writeToMemory(MemoryResolver resolver) {
-            MemoryHandler mem = resolver.resolve(address);
+        public void writeTo(ByteBuffer data, int offset) {
             for (int i = 0; i < values.size(); i++) {
-                mem.writeWord(address + i * 4, values.get(i));
+                data.putInt(offset + i * 4, values.get(i));
             }
         }
     }
@@ -729,14 +1201,10 @@ class DataSectionManager {
         }
 
         @Override
-        public void writeToMemory(MemoryResolver resolver) {
-            MemoryHandler mem = resolver.resolve(address);
-            // Initialize buffer to zeros
-            for (int i = 0; i < size; i++) {
-                mem.writeByte(address + i, (byte)0);
-            }
+        public void writeTo(ByteBuffer data, int offset) {
+            // the segment starts out zeroed, which is all a buffer needs
         }
     }
 
-    public record SectionInfo(List<String> dataSection, List<String> codeSection, boolean hasStartDirective) {}
+    public record SectionInfo(List<SourceLine> dataSection, List<SourceLine> codeSection, boolean hasStartDirective) {}
 }
\ No newline at end of file
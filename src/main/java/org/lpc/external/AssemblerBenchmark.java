@@ -0,0 +1,71 @@
+package org.lpc.external;
+
+import org.lpc.CPU;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.ConfigurableMemoryMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the assembler on a generated program, by default a million lines of the register,
+ * immediate, jump, label and comment mix that generated guest programs consist of.
+ *
+ * Run with {@code gradle assemblerBenchmark}, or {@code -Plines=<n>} for another size. The
+ * first runs include JIT warm-up; the later ones show the steady-state rate.
+ */
+public class AssemblerBenchmark {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<String> source = generate(lineCount, new Random(42));
+
+        // sparse RAM large enough for the generated code
+        CPU cpu = new CPU(new NeptuneInstructionSet(), ConfigurableMemoryMap.builder().ramSize(256 << 20).build(), 32);
+        int loadAddress = cpu.getMemoryMap().getRamStart();
+        for (int run = 1; run <= RUNS; run++) {
+            long start = System.nanoTime();
+            ObjectFile object = new Assembler(cpu).assemble(source, loadAddress);
+            long assembled = System.nanoTime();
+            object.loadInto(cpu);
+            long loaded = System.nanoTime();
+
+            System.out.printf("Run %d: %d lines assembled in %d ms (%.2f M lines/s), loaded in %d ms%n", run, source.size(),
+                    (assembled - start) / 1_000_000, source.size() * 1e3 / (assembled - start), (loaded - assembled) / 1_000_000);
+        }
+    }
+
+    static List<String> generate(int lineCount, Random random) {
+        String[] registerOps = {"ADD", "SUB", "MOV", "CMP", "LOAD", "STORE", "AND", "XOR"};
+        List<String> lines = new ArrayList<>(lineCount + 8);
+        lines.add(".const LIMIT 0x1000");
+        lines.add("main:");
+
+        int labels = 0;
+        while (lines.size() < lineCount) {
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+                lines.add(String.format("    %s r%d, r%d", registerOps[random.nextInt(registerOps.length)], random.nextInt(32), random.nextInt(32)));
+            } else if (kind < 6) {
+                lines.add(String.format("    ADDI r%d, %d", random.nextInt(32), random.nextInt(1000)));
+            } else if (kind == 6) {
+                lines.add(String.format("    MOVI r%d, 0x%X    ; load a constant", random.nextInt(32), random.nextInt()));
+            } else if (kind == 7) {
+                // forward jumps, resolved once the label is defined
+                lines.add(String.format("    JNZ L%d", labels + 1 + random.nextInt(3)));
+            } else if (kind == 8) {
+                lines.add(String.format("L%d:", ++labels));
+                lines.add("    CMPI r1, LIMIT");
+            } else {
+                lines.add("    PUSH r" + random.nextInt(32));
+            }
+        }
+        for (int label = labels + 1; label <= labels + 3; label++) {
+            lines.add(String.format("L%d:", label));
+        }
+        lines.add("    HLT");
+        return lines;
+    }
+}
@@ -0,0 +1,96 @@
+package org.lpc.external;
+
+import org.lpc.CPU;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Assembled programs on disk, keyed by a checksum of their source, so an unchanged program is
+ * loaded from its {@link ObjectFile} instead of being assembled again.
+ *
+ * An entry is named after the source checksum and load address and starts with the checksum
+ * and length of the source it was assembled from. An entry that is unreadable, belongs to other
+ * source or does not match the CPU is replaced. Failing to write an entry only costs the next
+ * start another assembly.
+ */
+public class AssemblyCache {
+    private static final String EXTENSION = ".nobj";
+
+    private final Path directory;
+
+    public AssemblyCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads {@code source} into {@code cpu} for code starting at {@code loadAddress}, assembling it only
+     * if the cache holds no object for it.
+     */
+    public void assembleAndLoad(CPU cpu, byte[] source, int loadAddress) {
+        get(cpu, source, loadAddress).loadInto(cpu);
+    }
+
+    /**
+     * Returns the object for {@code source}, assembling and caching it if there is none.
+     */
+    public ObjectFile get(CPU cpu, byte[] source, int loadAddress) {
+        int checksum = RomImage.checksum(source);
+        Path entry = directory.resolve(String.format("%08x-%08x%s", checksum, loadAddress, EXTENSION));
+
+        ObjectFile cached = read(entry, checksum, source.length);
+        if (cached != null && cached.matches(cpu, loadAddress)) {
+            return cached;
+        }
+
+        ObjectFile assembled = new Assembler(cpu).assemble(new String(source, StandardCharsets.UTF_8).lines().toList(), loadAddress);
+        write(entry, checksum, source.length, assembled);
+        return assembled;
+    }
+
+    private ObjectFile read(Path entry, int checksum, int sourceLength) {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(entry))) {
+            DataInputStream in = new DataInputStream(stream);
+            if (in.readInt() != checksum || in.readInt() != sourceLength) {
+                return null;
+            }
+            return ObjectFile.read(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Ignoring unreadable cached object " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // written to a temporary file first so a concurrent start never reads half an entry
+    private void write(Path entry, int checksum, int sourceLength, ObjectFile object) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "asm", ".tmp");
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(checksum);
+                out.writeInt(sourceLength);
+                object.write(out);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not cache assembled program in " + directory + ": " + e.getMessage());
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.lpc.external;
+
+import lombok.Getter;
+
+/**
+ * An error in assembly source, at a 1-based line and column of the lines passed to the
+ * {@link Assembler}. Code from a macro expansion is reported at the line and column of the invocation.
+ */
+@Getter
+public class AssemblyException extends IllegalArgumentException {
+    private final int line;
+    private final int column;
+
+    public AssemblyException(int line, int column, String message) {
+        super(String.format("Line %d, column %d: %s", line, column, message));
+        this.line = line;
+        this.column = column;
+    }
+
+    public AssemblyException(int line, int column, String message, Throwable cause) {
+        super(String.format("Line %d, column %d: %s", line, column, message), cause);
+        this.line = line;
+        this.column = column;
+    }
+}
@@ -0,0 +1,164 @@
+package org.lpc.external;
+
+import org.lpc.CPU;
+import org.lpc.Checkpoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Reassembles a program whenever its source file changes and loads it into the running CPU, so an
+ * edit takes effect without restarting the emulator, its viewers or its devices.
+ *
+ * A watcher thread assembles the changed source; the CPU thread applies it between run slices with
+ * {@link #applyPending}, e.g. once {@code runUntil(StopCondition.requested(reloader::hasPending))}
+ * returns. Only the bytes that changed are written, and the bus write listeners drop the decoded
+ * instructions, compiled blocks and syscall table entries over them.
+ *
+ * With {@link Mode#RESET} registers and memory are first put back to the state captured when the
+ * reloader was created and the program starts over at its entry point. With {@link Mode#KEEP}
+ * registers, stack and heap are kept and execution continues at the current PC; a halted CPU is
+ * always reset. A source that fails to assemble is reported and the running program is left alone.
+ */
+public class HotReloader implements Closeable {
+    public enum Mode { RESET, KEEP }
+
+    private static final long SETTLE_MILLIS = 50; // editors often save a file in several writes
+
+    private final CPU cpu;
+    private final Path source;
+    private final int loadAddress;
+    private final Mode mode;
+    private final Checkpoint baseline;
+    private final WatchService watchService;
+    private final Thread watcher;
+    private ObjectFile pending; // assembled, waiting for the CPU thread
+    private int checksum;       // of the source last assembled
+
+    /**
+     * Watches {@code source}, which must already be loaded into {@code cpu} at {@code loadAddress}.
+     * The current state of the CPU is what {@link Mode#RESET} returns to.
+     */
+    public HotReloader(CPU cpu, Path source, int loadAddress, Mode mode) throws IOException {
+        this.cpu = cpu;
+        this.source = source.toAbsolutePath();
+        this.loadAddress = loadAddress;
+        this.mode = mode;
+        this.baseline = Checkpoint.capture(cpu);
+        this.checksum = RomImage.checksum(Files.readAllBytes(this.source));
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // editors that save through a temporary file replace the source instead of modifying it
+        this.source.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watcher = new Thread(this::watch, "Hot-Reload-Thread");
+        this.watcher.setDaemon(true);
+    }
+
+    public void start() {
+        watcher.start();
+        System.out.println("Watching " + source + " for changes");
+    }
+
+    public synchronized boolean hasPending() {
+        return pending != null;
+    }
+
+    /**
+     * Blocks until a changed program has been assembled, e.g. while the CPU is halted.
+     */
+    public synchronized void awaitPending() throws InterruptedException {
+        while (pending == null) {
+            wait();
+        }
+    }
+
+    /**
+     * Loads the last assembled change, if any. Must be called on the thread running the CPU, between runs.
+     */
+    public boolean applyPending() {
+        ObjectFile object;
+        synchronized (this) {
+            object = pending;
+            pending = null;
+        }
+        if (object == null) return false;
+
+        long start = System.nanoTime();
+        boolean restart = mode == Mode.RESET || cpu.isHalt();
+        if (restart) {
+            baseline.restore(cpu);
+        }
+        object.reloadInto(cpu, restart);
+        System.out.printf("Reloaded %s in %.2f ms%s%n", source.getFileName(), (System.nanoTime() - start) / 1e6,
+                restart ? ", restarting" : "");
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || source.getFileName().equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    drainEvents();
+                    assemble();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // the rest of a save that is already being handled
+    private void drainEvents() {
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    private void assemble() {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(source);
+        } catch (IOException e) {
+            System.out.println("Could not read " + source + ": " + e.getMessage());
+            return;
+        }
+        int newChecksum = RomImage.checksum(bytes);
+        if (newChecksum == checksum) return; // saved without changes
+
+        ObjectFile object;
+        try {
+            object = new Assembler(cpu).assemble(new String(bytes, StandardCharsets.UTF_8).lines().toList(), loadAddress);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Not reloading " + source.getFileName() + ": " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            checksum = newChecksum;
+            pending = object;
+            notifyAll();
+        }
+    }
+}
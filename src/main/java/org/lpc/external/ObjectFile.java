@@ -0,0 +1,249 @@
+package org.lpc.external;
+
+import lombok.Getter;
+import org.lpc.CPU;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.MemoryRegion;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An assembled program: the bytes to load at fixed addresses plus what loading does besides
+ * writing them, so a program can be loaded again without running the {@link Assembler}.
+ *
+ * The object is absolute. It records the assembler version and the target it was assembled for:
+ * instruction set version, register count, load address and the RAM and syscall table layout. {@link #matches} tells
+ * whether it can stand in for assembling its source for a given CPU, and {@link #loadInto} writes
+ * each segment with one bulk copy where the segment lies inside a single memory region.
+ *
+ * File layout, big-endian: magic {@code NOBJ}, format version, assembler version, the target, entry point flag and
+ * address, fault handler, then the segments (address, length, bytes), the symbol table (name,
+ * address) and the syscall table entries (number, handler).
+ */
+@Getter
+public class ObjectFile {
+    private static final int MAGIC = 0x4E4F424A; // "NOBJ"
+    private static final int VERSION = 2;
+
+    private final int assemblerVersion;
+    private final int instructionSetVersion;
+    private final int registerCount;
+    private final int loadAddress;
+    private final int ramStart;
+    private final int ramSize;
+    private final int syscallTableStart;
+    private final boolean entryPointSet; // only programs starting in RAM set the PC
+    private final int entryPoint;
+    private final int faultHandler;      // 0 if the program declares none
+    private final List<Segment> segments;
+    private final Map<String, Integer> symbols;
+    private final Map<Integer, Integer> syscalls;
+
+    ObjectFile(CPU cpu, int loadAddress, boolean entryPointSet, int entryPoint, int faultHandler,
+               List<Segment> segments, Map<String, Integer> symbols, Map<Integer, Integer> syscalls) {
+        this(Assembler.VERSION, cpu.getInstructionSet().getVersion(), cpu.getRegisterCount(), loadAddress, cpu.getMemoryMap().getRamStart(),
+                cpu.getMemoryMap().getRamSize(), cpu.getMemoryMap().getSyscallTableStart(),
+                entryPointSet, entryPoint, faultHandler, segments, symbols, syscalls);
+    }
+
+    private ObjectFile(int assemblerVersion, int instructionSetVersion, int registerCount, int loadAddress, int ramStart, int ramSize,
+                       int syscallTableStart, boolean entryPointSet, int entryPoint, int faultHandler,
+                       List<Segment> segments, Map<String, Integer> symbols, Map<Integer, Integer> syscalls) {
+        this.assemblerVersion = assemblerVersion;
+        this.instructionSetVersion = instructionSetVersion;
+        this.registerCount = registerCount;
+        this.loadAddress = loadAddress;
+        this.ramStart = ramStart;
+        this.ramSize = ramSize;
+        this.syscallTableStart = syscallTableStart;
+        this.entryPointSet = entryPointSet;
+        this.entryPoint = entryPoint;
+        this.faultHandler = faultHandler;
+        this.segments = List.copyOf(segments);
+        this.symbols = Collections.unmodifiableMap(new TreeMap<>(symbols));
+        this.syscalls = Collections.unmodifiableMap(new TreeMap<>(syscalls));
+    }
+
+    public static ObjectFile read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an object file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(String.format("Unsupported object file version %d", version));
+        }
+        int assemblerVersion = in.readInt();
+        int instructionSetVersion = in.readInt();
+        int registerCount = in.readInt();
+        int loadAddress = in.readInt();
+        int ramStart = in.readInt();
+        int ramSize = in.readInt();
+        int syscallTableStart = in.readInt();
+        boolean entryPointSet = in.readBoolean();
+        int entryPoint = in.readInt();
+        int faultHandler = in.readInt();
+
+        int segmentCount = readCount(in, "segment");
+        List<Segment> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            int address = in.readInt();
+            int length = readCount(in, "segment byte");
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length != length) {
+                throw new IllegalArgumentException("Truncated object file");
+            }
+            segments.add(new Segment(address, bytes));
+        }
+        int symbolCount = readCount(in, "symbol");
+        Map<String, Integer> symbols = new TreeMap<>();
+        for (int i = 0; i < symbolCount; i++) {
+            symbols.put(in.readUTF(), in.readInt());
+        }
+        int syscallCount = readCount(in, "syscall");
+        Map<Integer, Integer> syscalls = new TreeMap<>();
+        for (int i = 0; i < syscallCount; i++) {
+            syscalls.put(in.readInt(), in.readInt());
+        }
+        return new ObjectFile(assemblerVersion, instructionSetVersion, registerCount, loadAddress, ramStart, ramSize, syscallTableStart,
+                entryPointSet, entryPoint, faultHandler, segments, symbols, syscalls);
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(assemblerVersion);
+        out.writeInt(instructionSetVersion);
+        out.writeInt(registerCount);
+        out.writeInt(loadAddress);
+        out.writeInt(ramStart);
+        out.writeInt(ramSize);
+        out.writeInt(syscallTableStart);
+        out.writeBoolean(entryPointSet);
+        out.writeInt(entryPoint);
+        out.writeInt(faultHandler);
+
+        out.writeInt(segments.size());
+        for (Segment segment : segments) {
+            out.writeInt(segment.address());
+            out.writeInt(segment.bytes().length);
+            out.write(segment.bytes());
+        }
+        out.writeInt(symbols.size());
+        for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+            out.writeUTF(symbol.getKey());
+            out.writeInt(symbol.getValue());
+        }
+        out.writeInt(syscalls.size());
+        for (Map.Entry<Integer, Integer> syscall : syscalls.entrySet()) {
+            out.writeInt(syscall.getKey());
+            out.writeInt(syscall.getValue());
+        }
+        out.flush();
+    }
+
+    /**
+     * Whether this object was assembled by this assembler for {@code cpu} at {@code loadAddress}.
+     */
+    public boolean matches(CPU cpu, int loadAddress) {
+        MemoryMap map = cpu.getMemoryMap();
+        return assemblerVersion == Assembler.VERSION && instructionSetVersion == cpu.getInstructionSet().getVersion() && registerCount == cpu.getRegisterCount()
+                && this.loadAddress == loadAddress && ramStart == map.getRamStart() && ramSize == map.getRamSize()
+                && syscallTableStart == map.getSyscallTableStart();
+    }
+
+    /**
+     * Writes the segments into the memory of {@code cpu}, sets the PC to the entry point and fills in the
+     * syscall table and fault vector.
+     */
+    public void loadInto(CPU cpu) {
+        for (Segment segment : segments) {
+            write(cpu, segment);
+        }
+        installVectors(cpu, true);
+
+        // code was written directly to the regions, bypassing the bus
+        cpu.getDecodeCache().invalidateAll();
+    }
+
+    /**
+     * Loads this object over a program already running on {@code cpu}. Only the bytes that differ are
+     * written, and the bus write listeners drop decoded instructions and compiled blocks over them, so
+     * code that did not change stays decoded. Registers, stack and heap are left alone; the PC is set to
+     * the entry point only if {@code restart} is set.
+     */
+    public void reloadInto(CPU cpu, boolean restart) {
+        for (Segment segment : segments) {
+            if (segment.bytes().length > 0) {
+                cpu.getMemory().patch(segment.address(), segment.bytes());
+            }
+        }
+        installVectors(cpu, restart);
+    }
+
+    private void installVectors(CPU cpu, boolean setEntryPoint) {
+        if (entryPointSet && setEntryPoint) {
+            cpu.setProgramCounter(entryPoint);
+        }
+
+        // segments may have been written over the syscall table, bypassing the bus
+        cpu.getSyscallTable().invalidate();
+        Memory rom = cpu.getMemory().getRom();
+        if (faultHandler != 0) {
+            rom.writeWord(cpu.getMemoryMap().getFaultVector(), faultHandler);
+        }
+        if (!syscalls.isEmpty()) {
+            int syscallTableAddr = cpu.getMemoryMap().getSyscallTableStart();
+            int maxSyscallNum = Collections.max(syscalls.keySet());
+            for (int i = 0; i <= maxSyscallNum; i++) {
+                rom.writeWord(syscallTableAddr + i * 4, syscalls.getOrDefault(i, 0));
+            }
+            // decode the validated targets now so SYSCALL only has to index them
+            cpu.getSyscallTable().load();
+        }
+    }
+
+    private static void write(CPU cpu, Segment segment) {
+        byte[] bytes = segment.bytes();
+        if (bytes.length == 0) return;
+
+        MemoryRegion region = cpu.getMemory().findRegion(segment.address());
+        if (region != null && region.handler() instanceof Memory memory && region.contains(segment.address(), bytes.length)) {
+            memory.writeBytes(segment.address(), bytes, 0, bytes.length);
+            return;
+        }
+        // spans regions or targets a device: byte by byte through whichever region holds each address
+        for (int i = 0; i < bytes.length; i++) {
+            int addr = segment.address() + i;
+            MemoryRegion target = cpu.getMemory().findRegion(addr);
+            if (target == null) {
+                throw new IllegalArgumentException(String.format("Address 0x%08X does not map to any memory region", addr));
+            }
+            target.handler().writeByte(addr, bytes[i]);
+        }
+    }
+
+    private static int readCount(DataInputStream in, String what) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IllegalArgumentException(String.format("Invalid %s count %d in object file", what, count));
+        }
+        return count;
+    }
+
+    /**
+     * Bytes to load at {@code address}, in memory order.
+     */
+    public record Segment(int address, byte[] bytes) {}
+}
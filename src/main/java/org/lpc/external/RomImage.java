@@ -0,0 +1,156 @@
+package org.lpc.external;
+
+import lombok.Getter;
+import org.lpc.CPU;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.NeptuneMemoryMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+/**
+ * Assembled contents of the whole ROM region, syscall table included, so startup can skip
+ * assembling the boot ROM.
+ *
+ * The {@code romImage} Gradle task runs {@link #main} to build {@code /rom/boot.rom.img} from
+ * {@code boot.rom.asm}. The image records a CRC-32C of the source and the ROM layout it was
+ * assembled for; {@link #matches} tells whether it can stand in for assembling that source into
+ * a given memory map, and {@link #loadInto} copies it into ROM with one bulk write.
+ *
+ * File layout, big-endian: magic {@code NROM}, format version, ROM start, ROM size, syscall
+ * table start, syscall code start, source checksum, then the ROM bytes.
+ */
+@Getter
+public class RomImage {
+    private static final int MAGIC = 0x4E524F4D; // "NROM"
+    private static final int VERSION = 1;
+
+    private final int romStart;
+    private final int romSize;
+    private final int syscallTableStart;
+    private final int syscallCodeStart;
+    private final int sourceChecksum;
+    private final byte[] contents;
+
+    private RomImage(int romStart, int romSize, int syscallTableStart, int syscallCodeStart,
+                     int sourceChecksum, byte[] contents) {
+        this.romStart = romStart;
+        this.romSize = romSize;
+        this.syscallTableStart = syscallTableStart;
+        this.syscallCodeStart = syscallCodeStart;
+        this.sourceChecksum = sourceChecksum;
+        this.contents = contents;
+    }
+
+    /**
+     * Assembles {@code source} into the ROM of {@code cpu} and captures the result.
+     */
+    public static RomImage assemble(CPU cpu, byte[] source) {
+        MemoryMap map = cpu.getMemoryMap();
+        new Assembler(cpu).assembleAndLoad(new String(source, StandardCharsets.UTF_8).lines().toList(), map.getSyscallCodeStart());
+
+        Memory rom = cpu.getMemory().getRom();
+        byte[] contents = new byte[rom.getSize()];
+        rom.readBytes(rom.getBaseAddress(), contents, 0, contents.length);
+        return new RomImage(rom.getBaseAddress(), rom.getSize(), map.getSyscallTableStart(), map.getSyscallCodeStart(),
+                checksum(source), contents);
+    }
+
+    public static RomImage read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a ROM image");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(String.format("Unsupported ROM image version %d", version));
+        }
+        int romStart = in.readInt();
+        int romSize = in.readInt();
+        int syscallTableStart = in.readInt();
+        int syscallCodeStart = in.readInt();
+        int sourceChecksum = in.readInt();
+        if (romSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid ROM image size %d", romSize));
+        }
+        byte[] contents = in.readNBytes(romSize);
+        if (contents.length != romSize) {
+            throw new IllegalArgumentException("Truncated ROM image");
+        }
+        return new RomImage(romStart, romSize, syscallTableStart, syscallCodeStart, sourceChecksum, contents);
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(romStart);
+        out.writeInt(romSize);
+        out.writeInt(syscallTableStart);
+        out.writeInt(syscallCodeStart);
+        out.writeInt(sourceChecksum);
+        out.write(contents);
+        out.flush();
+    }
+
+    /**
+     * Whether this image was assembled from {@code source} for the ROM layout of {@code map}.
+     */
+    public boolean matches(MemoryMap map, byte[] source) {
+        return romStart == map.getBootRomStart() && romSize == map.getBootRomSize()
+                && syscallTableStart == map.getSyscallTableStart() && syscallCodeStart == map.getSyscallCodeStart()
+                && sourceChecksum == checksum(source);
+    }
+
+    /**
+     * Replaces the ROM of {@code cpu} with this image and decodes its syscall table.
+     */
+    public void loadInto(CPU cpu) {
+        Memory rom = cpu.getMemory().getRom();
+        if (rom.getBaseAddress() != romStart || rom.getSize() != romSize) {
+            throw new IllegalStateException(String.format("ROM image for 0x%08X-0x%08X does not fit ROM at 0x%08X-0x%08X",
+                    romStart, romStart + romSize - 1, rom.getBaseAddress(), rom.getBaseAddress() + rom.getSize() - 1));
+        }
+        rom.writeBytes(romStart, contents, 0, romSize);
+
+        // written directly to the region, bypassing the bus
+        cpu.getDecodeCache().invalidateAll();
+        cpu.getSyscallTable().load();
+    }
+
+    // catches edits to the source, not tampering; CRC-32C costs a few microseconds where SHA-256 cost ~100
+    public static int checksum(byte[] source) {
+        CRC32C crc = new CRC32C();
+        crc.update(source);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Build step: assembles {@code args[0]} for the default memory map and writes the image to {@code args[1]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: RomImage <source.asm> <image>");
+        }
+        byte[] source = Files.readAllBytes(Path.of(args[0]));
+        RomImage image = assemble(new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32), source);
+
+        Path output = Path.of(args[1]);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(output)) {
+            image.write(out);
+        }
+        System.out.printf("Wrote %d-byte ROM image for %s to %s%n", image.getRomSize(), args[0], output);
+    }
+}
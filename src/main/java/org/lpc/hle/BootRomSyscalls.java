@@ -0,0 +1,233 @@
+package org.lpc.hle;
+
+import org.lpc.CPU;
+import org.lpc.memory.Flags;
+import org.lpc.memory.MemoryBus;
+
+/**
+ * Java implementations of the syscalls in {@code rom/boot.rom.asm}.
+ *
+ * Each one leaves registers, flags and memory exactly as the ROM routine would. The return address
+ * and the registers a routine saves are really pushed and popped, so the stack words below SP match
+ * and the final POP sets zero/negative; the routine's last compare or add is replayed for
+ * carry/overflow. ROM behaviour that looks odd is kept as well: LOADI loads its operand rather than
+ * memory, so malloc and free work on the addresses of the heap variables themselves.
+ *
+ * The only visible difference is that the whole call retires as one instruction. A routine stops at
+ * the first guest fault, skipping its restores, and {@link HleSyscalls} hands the call to the ROM.
+ */
+public final class BootRomSyscalls {
+    // constants from boot.rom.asm
+    private static final int VRAM_BASE = 0x102000;
+    private static final int VRAM_SIZE = 65536;
+    private static final int VRAM_WIDTH = 128;
+    private static final int VRAM_HEIGHT = 128;
+    private static final int HEAP_START = 0x00082000;
+    private static final int HEAP_END = 0x00101FFC;
+    private static final int FREE_LIST_HEAD = 0x82001;
+    private static final int CURRENT_BUMP_PTR = 0x82005;
+
+    // registers each routine pushes on entry, in push order
+    private static final int[] NONE = {};
+    private static final int[] R12_R13 = { 12, 13 };
+    private static final int[] R12_R14 = { 12, 13, 14 };
+    private static final int[] R7_R14 = { 7, 8, 9, 10, 11, 12, 13, 14 };
+
+    private static final int MAX_LINE_DELTA = 1 << 16;     // longer lines are left to the ROM
+    private static final int MAX_FREE_LIST_WALK = 1 << 20; // the ROM would spin forever on a cyclic list
+
+    private BootRomSyscalls() {} // prevent instantiation
+
+    public static void registerAll(HleSyscalls syscalls) {
+        syscalls.register(0, BootRomSyscalls::setPixel);
+        syscalls.register(1, BootRomSyscalls::getVramInfo);
+        syscalls.register(2, BootRomSyscalls::clearScreen);
+        syscalls.register(3, BootRomSyscalls::copyVram);
+        syscalls.register(4, BootRomSyscalls::drawLine);
+        syscalls.register(5, BootRomSyscalls::malloc);
+        syscalls.register(6, BootRomSyscalls::free);
+        syscalls.register(7, BootRomSyscalls::getHeapInfo);
+    }
+
+    // syscall 0 set_pixel_RGBA32
+    private static boolean setPixel(CPU cpu) {
+        if (!enter(cpu, 16, R12_R13)) return false;
+        int offset = (cpu.readRegister(2) * cpu.readRegister(4) + cpu.readRegister(1)) * 4;
+        int address = offset + cpu.readRegister(15);
+        cpu.getFlags().updateAdd(offset, cpu.readRegister(15), address);
+        cpu.getMemory().writeWord(address, cpu.readRegister(3));
+        leave(cpu, R12_R13);
+        return true;
+    }
+
+    // syscall 1 get_neptune_vram_info
+    private static boolean getVramInfo(CPU cpu) {
+        if (!enter(cpu, 5, NONE)) return false;
+        cpu.writeRegister(1, VRAM_BASE);
+        cpu.writeRegister(2, VRAM_SIZE);
+        cpu.writeRegister(3, VRAM_WIDTH);
+        cpu.writeRegister(4, VRAM_HEIGHT);
+        cpu.getFlags().update(VRAM_HEIGHT);
+        leave(cpu, NONE);
+        return true;
+    }
+
+    // syscall 2 clear_screen_RGBA32
+    private static boolean clearScreen(CPU cpu) {
+        if (!enter(cpu, 16, R12_R14)) return false;
+        int color = cpu.readRegister(1);
+        int count = cpu.readRegister(4) * cpu.readRegister(5);
+        cpu.writeRegister(1, count);
+        cpu.getMemory().fill(cpu.readRegister(15), color, count);
+        leave(cpu, R12_R14);
+        return true;
+    }
+
+    // syscall 3 copy_vram
+    private static boolean copyVram(CPU cpu) {
+        if (!enter(cpu, 16, R12_R13)) return false;
+        int count = cpu.readRegister(4) * cpu.readRegister(5);
+        cpu.writeRegister(1, count);
+        cpu.getMemory().copy(cpu.readRegister(14), cpu.readRegister(15), count);
+        leave(cpu, R12_R13);
+        return true;
+    }
+
+    // syscall 4 draw_line_RGBA32
+    private static boolean drawLine(CPU cpu) {
+        int x1 = cpu.readRegister(1), y1 = cpu.readRegister(2);
+        int x2 = cpu.readRegister(3), y2 = cpu.readRegister(4);
+        int dx = Math.abs(x2 - x1);
+        int dy = Math.abs(y2 - y1);
+        if (dx < 0 || dx > MAX_LINE_DELTA || dy < 0 || dy > MAX_LINE_DELTA) return false;
+        if (!enter(cpu, 16, R7_R14)) return false;
+
+        MemoryBus memory = cpu.getMemory();
+        int color = cpu.readRegister(5);
+        int width = cpu.readRegister(6);
+        int base = cpu.readRegister(15);
+        int err = dx - dy;
+        int x = x1, y = y1;
+        while (true) {
+            memory.writeWord((y * width + x) * 4 + base, color);
+            if (x == x2 && y == y2 || memory.hasFault()) break;
+
+            int err2 = err * 2;
+            if (err2 + dy > 0) { // CMP against -dy, JLE skips the x step
+                err -= dy;
+                x += x2 - x1 >= 0 ? 1 : -1;
+            }
+            if (err2 - dx < 0) { // CMP against dx, JGE skips the y step
+                err += dx;
+                y += y2 - y1 >= 0 ? 1 : -1;
+            }
+        }
+        cpu.getFlags().updateSub(y2, y2, 0); // CMP r9, r4 ending the loop
+        leave(cpu, R7_R14);
+        return true;
+    }
+
+    // syscall 5 malloc
+    private static boolean malloc(CPU cpu) {
+        if (!enter(cpu, 15, R12_R14)) return false;
+        Flags flags = cpu.getFlags();
+        MemoryBus memory = cpu.getMemory();
+        int size = cpu.readRegister(1);
+        int result = 0;
+
+        flags.updateSub(size, 0, size);
+        if (size != 0) {
+            int rounded = (size + 3) & 0xFFFFFFFC;
+
+            // the ROM's LOADI yields the variable addresses, so the free list is walked from FREE_LIST_HEAD
+            int previous = FREE_LIST_HEAD;
+            int block = FREE_LIST_HEAD;
+            for (int walked = 0; ; walked++) {
+                if (walked == MAX_FREE_LIST_WALK) {
+                    throw new IllegalStateException(String.format("malloc free list does not end after %d blocks", walked));
+                }
+                if (block == 0) {
+                    int bump = CURRENT_BUMP_PTR + rounded;
+                    flags.updateSub(bump, HEAP_END, bump - HEAP_END);
+                    if (bump - HEAP_END <= 0) {
+                        memory.writeWord(CURRENT_BUMP_PTR, bump);
+                        result = CURRENT_BUMP_PTR;
+                    }
+                    break;
+                }
+                int blockSize = memory.readWord(block + 4);
+                if (memory.hasFault()) break;
+                flags.updateSub(blockSize, rounded, blockSize - rounded);
+                if (blockSize - rounded >= 0) {
+                    int next = memory.readWord(block);
+                    if (!memory.hasFault()) memory.writeWord(previous, next);
+                    result = block;
+                    break;
+                }
+                previous = block;
+                block = memory.readWord(block);
+                if (memory.hasFault()) break;
+            }
+        }
+
+        cpu.writeRegister(1, result);
+        leave(cpu, R12_R14);
+        return true;
+    }
+
+    // syscall 6 free
+    private static boolean free(CPU cpu) {
+        if (!enter(cpu, 14, R12_R13)) return false;
+        Flags flags = cpu.getFlags();
+        MemoryBus memory = cpu.getMemory();
+        int pointer = cpu.readRegister(1);
+        int size = cpu.readRegister(2);
+
+        flags.updateSub(pointer, 0, pointer);
+        if (pointer != 0) {
+            flags.updateSub(size, 0, size);
+            if (size != 0) {
+                memory.writeWord(pointer, FREE_LIST_HEAD);
+                flags.updateAdd(pointer, 4, pointer + 4);
+                if (!memory.hasFault()) memory.writeWord(pointer + 4, size);
+                if (!memory.hasFault()) memory.writeWord(FREE_LIST_HEAD, pointer);
+            }
+        }
+        leave(cpu, R12_R13);
+        return true;
+    }
+
+    // syscall 7 get_heap_info
+    private static boolean getHeapInfo(CPU cpu) {
+        if (!enter(cpu, 5, NONE)) return false;
+        cpu.writeRegister(1, HEAP_START);
+        cpu.writeRegister(2, HEAP_END);
+        cpu.writeRegister(3, CURRENT_BUMP_PTR);
+        cpu.writeRegister(4, FREE_LIST_HEAD);
+        cpu.getFlags().update(FREE_LIST_HEAD);
+        leave(cpu, NONE);
+        return true;
+    }
+
+    // the return address push done by SYSCALL and the routine's register saves;
+    // false if the routine names registers this CPU does not have and would fault in ROM
+    private static boolean enter(CPU cpu, int registersUsed, int[] saved) {
+        if (cpu.getRegisterCount() < registersUsed) return false;
+        cpu.push(cpu.getProgramCounter());
+        for (int register : saved) {
+            cpu.push(cpu.readRegister(register));
+        }
+        return true;
+    }
+
+    // the routine's register restores and RET, skipped after a fault
+    private static void leave(CPU cpu, int[] saved) {
+        if (cpu.getMemory().hasFault()) return;
+        for (int i = saved.length - 1; i >= 0; i--) {
+            int value = cpu.pop();
+            cpu.writeRegister(saved[i], value);
+            cpu.getFlags().update(value);
+        }
+        cpu.jump(cpu.pop());
+    }
+}
@@ -0,0 +1,14 @@
+package org.lpc.hle;
+
+import org.lpc.CPU;
+
+/**
+ * Java implementation of a ROM syscall routine.
+ *
+ * It runs in place of the whole call, from the return address push done by SYSCALL to the
+ * routine's RET, and returns false without touching any state to let the ROM routine run instead.
+ */
+@FunctionalInterface
+public interface HleSyscall {
+    boolean execute(CPU cpu);
+}
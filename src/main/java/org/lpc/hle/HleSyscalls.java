@@ -0,0 +1,81 @@
+package org.lpc.hle;
+
+import org.lpc.CPU;
+import org.lpc.memory.Flags;
+
+/**
+ * Per-CPU table of {@link HleSyscall}s consulted by SYSCALL before it enters the ROM.
+ *
+ * Each implementation is switched on and off on its own, so it can be compared against the
+ * ROM routine it replaces. Everything starts disabled.
+ *
+ * An implementation stops at the first guest fault. The call is then rolled back to SP, r1 and
+ * the flags as they were at the SYSCALL and left to the ROM routine, which redoes the same writes
+ * and raises the fault from the same ROM instruction as without HLE.
+ */
+public class HleSyscalls {
+    private final HleSyscall[] handlers;
+    private final HleSyscall[] active; // enabled handlers, null where the ROM runs
+    private final Flags savedFlags = new Flags();
+
+    public HleSyscalls(int capacity) {
+        this.handlers = new HleSyscall[capacity];
+        this.active = new HleSyscall[capacity];
+    }
+
+    public void register(int number, HleSyscall handler) {
+        checkNumber(number);
+        handlers[number] = handler;
+        if (active[number] != null) active[number] = handler;
+    }
+
+    public boolean isRegistered(int number) {
+        return number >= 0 && number < handlers.length && handlers[number] != null;
+    }
+
+    public boolean isEnabled(int number) {
+        return number >= 0 && number < active.length && active[number] != null;
+    }
+
+    public void setEnabled(int number, boolean enabled) {
+        checkNumber(number);
+        if (handlers[number] == null) {
+            throw new IllegalArgumentException(String.format("No HLE implementation for syscall %d", number));
+        }
+        active[number] = enabled ? handlers[number] : null;
+    }
+
+    public void setAllEnabled(boolean enabled) {
+        for (int i = 0; i < handlers.length; i++) {
+            active[i] = enabled ? handlers[i] : null;
+        }
+    }
+
+    /**
+     * Runs syscall {@code number} in Java if it is enabled; false means the ROM routine has to run.
+     */
+    public boolean execute(CPU cpu, int number) {
+        if (number < 0 || number >= active.length) return false;
+        HleSyscall handler = active[number];
+        if (handler == null) return false;
+
+        // the only state a routine changes before it can fault
+        int stackPointer = cpu.getStackPointer();
+        int r1 = cpu.readRegister(1);
+        savedFlags.copyFrom(cpu.getFlags());
+        if (!handler.execute(cpu)) return false;
+        if (!cpu.getMemory().hasFault()) return true;
+
+        cpu.getMemory().clearFault();
+        cpu.setStackPointer(stackPointer);
+        cpu.writeRegister(1, r1);
+        cpu.getFlags().copyFrom(savedFlags);
+        return false;
+    }
+
+    private void checkNumber(int number) {
+        if (number < 0 || number >= handlers.length) {
+            throw new IllegalArgumentException(String.format("Syscall number %d out of range 0..%d", number, handlers.length - 1));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.lpc.instructions;
+
+import org.lpc.CPU;
+import org.lpc.memory.FaultCause;
+import org.lpc.memory.MemoryBus;
+import org.lpc.memory.MemoryHandler;
+import org.lpc.memory.MemoryWriteListener;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Caches decoded instructions by address so hot code is fetched and decoded only once.
+ *
+ * Entries live in lazily allocated 4 KB pages covering ROM, RAM and VRAM. Any write
+ * through the memory bus drops the entries overlapping the written bytes; IO space
+ * and unaligned addresses are never cached.
+ *
+ * Cached entries are also checked for {@link Fusion} candidates. A fused sequence never
+ * crosses a page, so it is always dropped together with the code it was built from.
+ *
+ * An address that does not hold a valid instruction decodes to a stand-in that raises an
+ * {@link FaultCause#INVALID_FETCH} or {@link FaultCause#ILLEGAL_INSTRUCTION} guest fault when
+ * executed. With strict faults the decoder throws instead.
+ */
+public class DecodeCache implements MemoryWriteListener {
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int SLOTS_PER_PAGE = (1 << PAGE_SHIFT) / 4;
+    private static final Set<String> CONDITIONAL_JUMPS = Set.of(
+            "JZ", "JE", "JNZ", "JNE", "JN", "JP", "JG", "JGE", "JL", "JLE",
+            "JC", "JNC", "JA", "JAE", "JB", "JBE");
+
+    private final InstructionSet instructionSet;
+    private final MemoryBus memory;
+    private final int registerCount;
+    private final DecodedInstruction[][] pages;
+    private final boolean[] cacheable;
+    private final String[] mnemonics = new String[256];
+    private final Instruction invalidFetch = new FaultInstruction(FaultCause.INVALID_FETCH);
+    private final Instruction illegalInstruction = new FaultInstruction(FaultCause.ILLEGAL_INSTRUCTION);
+
+    public DecodeCache(InstructionSet instructionSet, MemoryBus memory, int registerCount) {
+        this.instructionSet = instructionSet;
+        this.memory = memory;
+        this.registerCount = registerCount;
+        for (int opcode = 0; opcode < mnemonics.length; opcode++) {
+            mnemonics[opcode] = instructionSet.getName((byte) opcode);
+        }
+
+        MemoryHandler[] regions = { memory.getRom(), memory.getRam(), memory.getVram() };
+        int pageCount = 0;
+        for (MemoryHandler region : regions) {
+            pageCount = Math.max(pageCount, pageOf(region.getBaseAddress() + region.getSize() - 1) + 1);
+        }
+        this.pages = new DecodedInstruction[pageCount][];
+        this.cacheable = new boolean[pageCount];
+
+        for (MemoryHandler region : regions) {
+            int end = region.getBaseAddress() + region.getSize();
+            for (int page = pageOf(region.getBaseAddress()); page < pageCount; page++) {
+                int pageStart = page << PAGE_SHIFT;
+                if (pageStart >= region.getBaseAddress() && pageStart + PAGE_MASK < end) {
+                    cacheable[page] = true;
+                }
+            }
+        }
+
+        memory.addWriteListener(this);
+    }
+
+    public DecodedInstruction fetch(int address) {
+        int page = pageOf(address);
+        if ((address & 3) != 0 || page >= pages.length || !cacheable[page]) {
+            return decode(address);
+        }
+
+        DecodedInstruction[] slots = pages[page];
+        if (slots == null) {
+            slots = new DecodedInstruction[SLOTS_PER_PAGE];
+            pages[page] = slots;
+        }
+
+        int slot = (address & PAGE_MASK) >>> 2;
+        DecodedInstruction decoded = slots[slot];
+        if (decoded == null) {
+            decoded = fuse(decode(address));
+            slots[slot] = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Like {@link #fetch}, but returns {@code null} instead of failing on an unknown opcode or
+     * an invalid register operand.
+     */
+    public DecodedInstruction tryFetch(int address) {
+        int firstWord = memory.peekWord(address);
+        Instruction instruction = instructionSet.getInstruction(firstWord);
+        if (instruction == null || InstructionUtils.findInvalidRegister(instruction, firstWord, registerCount) >= 0) {
+            return null;
+        }
+        return fetch(address);
+    }
+
+    public DecodedInstruction decode(int address) {
+        if (memory.findRegion(address) == null) return fault(invalidFetch, address, address);
+        int firstWord = memory.peekWord(address);
+        Instruction instruction = instructionSet.getInstruction(firstWord);
+        if (instruction == null || InstructionUtils.findInvalidRegister(instruction, firstWord, registerCount) >= 0) {
+            return fault(illegalInstruction, address, address);
+        }
+
+        int[] words = new int[instruction.getWordCount()];
+        words[0] = firstWord;
+        for (int i = 1; i < words.length; i++) {
+            if (memory.findRegion(address + i * 4) == null) return fault(invalidFetch, address, address + i * 4);
+            words[i] = memory.peekWord(address + i * 4);
+        }
+        return new DecodedInstruction(instruction, address, words);
+    }
+
+    /**
+     * The exception an undecodable instruction at {@code address} throws in strict mode.
+     */
+    public IllegalStateException illegalInstruction(int address) {
+        int firstWord = memory.peekWord(address);
+        Instruction instruction = instructionSet.getInstruction(firstWord);
+        if (instruction == null) {
+            return new IllegalStateException(String.format(
+                    "Unknown opcode 0x%02X at 0x%08X", firstWord & 0xFF, address));
+        }
+        return new IllegalStateException(String.format("Invalid register r%d in instruction at 0x%08X",
+                InstructionUtils.findInvalidRegister(instruction, firstWord, registerCount), address));
+    }
+
+    // stand-in for the instruction at address; faultAddress is the word that could not be decoded
+    private DecodedInstruction fault(Instruction standIn, int address, int faultAddress) {
+        if (memory.isStrictFaults()) {
+            throw standIn == illegalInstruction ? illegalInstruction(address) : memory.faultException(FaultCause.INVALID_FETCH, faultAddress);
+        }
+        return new DecodedInstruction(standIn, address, new int[] { 0, faultAddress });
+    }
+
+    private DecodedInstruction fuse(DecodedInstruction head) {
+        String mnemonic = mnemonics[head.getOpcode()];
+        if (mnemonic == null) return head;
+
+        switch (mnemonic) {
+            case "CMP", "CMPI" -> {
+                DecodedInstruction next = decodeInPage(head.getNextAddress(), head.getAddress());
+                if (next != null && CONDITIONAL_JUMPS.contains(mnemonics[next.getOpcode()])) {
+                    return new DecodedInstruction(head, Fusion.COMPARE_BRANCH, new DecodedInstruction[] { next });
+                }
+            }
+            case "MOVI" -> {
+                DecodedInstruction next = head.getRDest() == 0
+                        ? decodeInPage(head.getNextAddress(), head.getAddress()) : null;
+                if (next != null && "SYSCALL".equals(mnemonics[next.getOpcode()])) {
+                    return new DecodedInstruction(head, Fusion.SYSCALL_NUMBER, new DecodedInstruction[] { next });
+                }
+            }
+            case "PUSH", "POP" -> {
+                DecodedInstruction[] run = new DecodedInstruction[Fusion.MAX_BYTES / 4 - 1];
+                int length = 0;
+                int address = head.getNextAddress();
+                while (length < run.length) {
+                    DecodedInstruction next = decodeInPage(address, head.getAddress());
+                    if (next == null || next.getOpcode() != head.getOpcode()) break;
+                    run[length++] = next;
+                    address = next.getNextAddress();
+                }
+                if (length > 0) {
+                    Fusion fusion = mnemonic.equals("PUSH") ? Fusion.PUSH_RUN : Fusion.POP_RUN;
+                    return new DecodedInstruction(head, fusion, Arrays.copyOf(run, length));
+                }
+            }
+            default -> { }
+        }
+        return head;
+    }
+
+    // decodes a candidate for fusion, or returns null if it is not a valid instruction on the given page
+    private DecodedInstruction decodeInPage(int address, int pageAddress) {
+        if (pageOf(address) != pageOf(pageAddress)) return null;
+
+        int firstWord = memory.peekWord(address);
+        Instruction instruction = instructionSet.getInstruction(firstWord);
+        if (instruction == null || pageOf(address + instruction.getWordCount() * 4 - 1) != pageOf(pageAddress)
+                || InstructionUtils.findInvalidRegister(instruction, firstWord, registerCount) >= 0) {
+            return null;
+        }
+        return decode(address);
+    }
+
+    @Override
+    public void onWrite(int addr, int length) {
+        // an entry starting up to Fusion.MAX_BYTES - 4 before the write may cover it
+        int word = Math.max(0, (addr & ~3) - (Fusion.MAX_BYTES - 4));
+        int last = (addr + length - 1) & ~3;
+        while (word <= last) {
+            int page = pageOf(word);
+            if (page >= pages.length) return;
+            int pageLast = Math.min(last, (page << PAGE_SHIFT) | (PAGE_MASK & ~3));
+            if (pages[page] != null) {
+                Arrays.fill(pages[page], (word & PAGE_MASK) >>> 2, ((pageLast & PAGE_MASK) >>> 2) + 1, null);
+            }
+            word = pageLast + 4;
+        }
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = null;
+        }
+    }
+
+    private static int pageOf(int address) {
+        return address >>> PAGE_SHIFT;
+    }
+
+    /**
+     * Executes as a fault. Opcode 0 is never assigned, so engines run it through this object; the
+     * faulting address is kept as the immediate. Its one operand is the word that could not be
+     * decoded, which it encodes to unchanged, so it stands for exactly what is in memory.
+     */
+    private record FaultInstruction(FaultCause cause) implements Instruction {
+        private static final OperandKind[] RAW_WORD = { OperandKind.IMMEDIATE };
+
+        @Override
+        public void execute(CPU cpu, DecodedInstruction instr) {
+            cpu.raiseFault(cause, instr.getImmediate());
+        }
+
+        @Override
+        public int[] encode(int[] operands) {
+            return new int[] { operands[0] };
+        }
+
+        @Override
+        public OperandKind[] getOperandKinds() {
+            return RAW_WORD;
+        }
+
+        @Override
+        public int getRegisterOperands() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.lpc.instructions;
+
+import lombok.Getter;
+
+/**
+ * An instruction that has already been fetched and decoded at a fixed address.
+ * Operand fields are extracted once so execution never touches the raw words again.
+ *
+ * The decoder may additionally mark an instruction as the head of a {@link Fusion}; the
+ * instructions that follow it are then kept in {@code fused} so an engine can run the
+ * whole sequence at once.
+ */
+@Getter
+public final class DecodedInstruction {
+    private static final DecodedInstruction[] NONE = new DecodedInstruction[0];
+
+    private final Instruction instruction;
+    private final int address;
+    private final int nextAddress;
+    private final int opcode;
+    private final int rDest;     // bits 16-23 of the first word
+    private final int rSrc;      // bits 8-15 of the first word
+    private final int immediate; // second word, 0 for single word instructions
+
+    private final Fusion fusion;              // null unless this heads a fused sequence
+    private final DecodedInstruction[] fused; // instructions following the head
+    private final int fusedNextAddress;       // address after the whole sequence
+
+    public DecodedInstruction(Instruction instruction, int address, int[] words) {
+        this.instruction = instruction;
+        this.address = address;
+        this.nextAddress = address + words.length * 4;
+        this.opcode = InstructionUtils.decodeOpcode(words[0]) & 0xFF;
+        this.rDest = InstructionUtils.extractRegister(words[0], 16);
+        this.rSrc = InstructionUtils.extractRegister(words[0], 8);
+        this.immediate = words.length > 1 ? words[1] : 0;
+        this.fusion = null;
+        this.fused = NONE;
+        this.fusedNextAddress = nextAddress;
+    }
+
+    public DecodedInstruction(DecodedInstruction head, Fusion fusion, DecodedInstruction[] fused) {
+        this.instruction = head.instruction;
+        this.address = head.address;
+        this.nextAddress = head.nextAddress;
+        this.opcode = head.opcode;
+        this.rDest = head.rDest;
+        this.rSrc = head.rSrc;
+        this.immediate = head.immediate;
+        this.fusion = fusion;
+        this.fused = fused;
+        this.fusedNextAddress = fused[fused.length - 1].nextAddress;
+    }
+
+    /**
+     * Number of guest instructions retired when the fused sequence runs, 1 if not fused.
+     */
+    public int getFusedCount() {
+        return fused.length + 1;
+    }
+}
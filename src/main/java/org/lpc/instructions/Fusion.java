@@ -0,0 +1,16 @@
+package org.lpc.instructions;
+
+/**
+ * Instruction sequences the decoder marks for execution as one super-instruction.
+ */
+public enum Fusion {
+    COMPARE_BRANCH, // CMP or CMPI followed by a conditional jump
+    SYSCALL_NUMBER, // MOVI r0, n followed by SYSCALL
+    PUSH_RUN,       // consecutive PUSH instructions
+    POP_RUN;        // consecutive POP instructions
+
+    /**
+     * Longest fused sequence in bytes, including the head instruction.
+     */
+    public static final int MAX_BYTES = 16;
+}
@@ -3,12 +3,38 @@ package org.lpc.instructions;
 import org.lpc.CPU;
 
 public interface Instruction {
-    void execute(CPU cpu, int[] words);
+    int DEST_REGISTER = 1;   // rDest field holds a register index
+    int SOURCE_REGISTER = 2; // rSrc field holds a register index
 
-    int[] encode(String args);
+    OperandKind[] NO_OPERANDS = {};
+
+    void execute(CPU cpu, DecodedInstruction instr);
+
+    /**
+     * Encodes the instruction from its operands in source order, register indices and immediate
+     * values as parsed by the assembler.
+     */
+    int[] encode(int[] operands);
+
+    /**
+     * What the assembler accepts for each operand, in source order.
+     */
+    OperandKind[] getOperandKinds();
 
     default int getWordCount() {
         return 1;
     }
-}
 
+    /**
+     * Which operand fields are register indices. They are validated once when the instruction
+     * is assembled or decoded, so execution can access registers unchecked.
+     */
+    default int getRegisterOperands() {
+        return DEST_REGISTER | SOURCE_REGISTER;
+    }
+
+    enum OperandKind {
+        REGISTER, // r0-r255, pc, sp, hp or fc
+        IMMEDIATE // number, label or constant
+    }
+}
@@ -10,4 +10,9 @@ public interface InstructionSet {
     Byte getOpcode(String name);
 
     String getName(Byte opcode);
+
+    /**
+     * Changes whenever opcodes or instruction encodings change, so code assembled for another version is rejected.
+     */
+    int getVersion();
 }
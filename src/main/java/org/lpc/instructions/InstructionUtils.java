@@ -1,5 +1,7 @@
 package org.lpc.instructions;
 
+import org.lpc.CPU;
+
 public final class InstructionUtils {
     private InstructionUtils() {} // prevent instantiation
 
@@ -19,4 +21,20 @@ public final class InstructionUtils {
     public static int extractRegister(int word, int bitOffset) {
         return extractBits(word, bitOffset, 8);
     }
+
+    public static boolean isValidRegister(int index, int registerCount) {
+        return index >= 0 && index < registerCount || index >= CPU.PC && index <= CPU.FC;
+    }
+
+    /**
+     * Returns the first register operand of {@code word} that is not a valid register, or -1 if all are valid.
+     */
+    public static int findInvalidRegister(Instruction instruction, int word, int registerCount) {
+        int operands = instruction.getRegisterOperands();
+        int rDest = extractRegister(word, 16);
+        int rSrc = extractRegister(word, 8);
+        if ((operands & Instruction.DEST_REGISTER) != 0 && !isValidRegister(rDest, registerCount)) return rDest;
+        if ((operands & Instruction.SOURCE_REGISTER) != 0 && !isValidRegister(rSrc, registerCount)) return rSrc;
+        return -1;
+    }
 }
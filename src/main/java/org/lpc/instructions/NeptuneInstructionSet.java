@@ -1,9 +1,6 @@
 package org.lpc.instructions;
 
 import org.lpc.CPU;
-import org.lpc.memory.Memory;
-import org.lpc.memory.MemoryHandler;
-import org.lpc.memory.io.IODeviceManager;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Predicate;
+import org.lpc.instructions.Instruction.OperandKind;
 import org.lpc.instructions.InstructionUtils;
 
 /*
@@ -133,6 +131,15 @@ import org.lpc.instructions.InstructionUtils;
  */
 
 public class NeptuneInstructionSet implements InstructionSet {
+    // opcodes are numbered in registration order; bump when that order or an encoding changes
+    public static final int VERSION = 1;
+
+    // operand kinds shared by the instructions, in source order
+    private static final OperandKind[] REGISTER = {OperandKind.REGISTER};
+    private static final OperandKind[] IMMEDIATE = {OperandKind.IMMEDIATE};
+    private static final OperandKind[] REGISTER_REGISTER = {OperandKind.REGISTER, OperandKind.REGISTER};
+    private static final OperandKind[] REGISTER_IMMEDIATE = {OperandKind.REGISTER, OperandKind.IMMEDIATE};
+
     private final Map<Byte, Instruction> instructionMap = new HashMap<>();
     private final Map<String, Byte> nameToOpcode = new HashMap<>();
     private final Map<Byte, String> opcodeToName = new HashMap<>();
@@ -155,18 +162,6 @@ public class NeptuneInstructionSet implements InstructionSet {
         registerSystemInstructions();
     }
 
-    // Helper method for splitting arguments
-    private String[] splitArgs(String args, int expectedCount) {
-        String[] parts = args.split(",");
-        if (parts.length != expectedCount) {
-            throw new IllegalArgumentException("Invalid arguments: " + args);
-        }
-        for (int i = 0; i < parts.length; i++) {
-            parts[i] = parts[i].trim();
-        }
-        return parts;
-    }
-
     private void registerArithmeticInstructions() {
         // Register-register operations
         registerBinaryOp("ADD", Integer::sum, true);
@@ -247,7 +242,7 @@ public class NeptuneInstructionSet implements InstructionSet {
         register("LOADI", new ImmediateInstruction("LOADI") {
             @Override
             protected void executeImmediate(CPU cpu, int rDest, int immediate) {
-                cpu.setRegister(rDest, immediate);
+                cpu.writeRegister(rDest, immediate);
                 cpu.getFlags().update(immediate);  // Update flags based on the loaded value
             }
         });
@@ -256,63 +251,51 @@ public class NeptuneInstructionSet implements InstructionSet {
         register("STORI", new ImmediateInstruction("STORI") {
             @Override
             protected void executeImmediate(CPU cpu, int rDest, int immediate) {
-                int value = cpu.getRegister(rDest);
+                int value = cpu.readRegister(rDest);
                 cpu.getMemory().writeWord(immediate, value);
             }
         });
 
         register("MSET", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rAddr = InstructionUtils.extractRegister(words[0], 16);
-                int rValue = InstructionUtils.extractRegister(words[0], 8);
-                int addr = cpu.getRegister(rAddr);
-                int value = cpu.getRegister(rValue);
-                int count = cpu.getRegister(1); // r1 holds count
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int addr = cpu.readRegister(instr.getRDest());
+                int value = cpu.readRegister(instr.getRSrc());
+                int count = cpu.readRegister(1); // r1 holds count
 
-                for (int i = 0; i < count; i++) {
-                    cpu.getMemory().writeWord(addr + i * 4, value);
-                }
+                cpu.getMemory().fill(addr, value, count);
             }
 
             @Override
-            public int[] encode(String args) {
-                var split = splitArgs(args, 2);
-                int rAddr = parseRegister(split[0]);
-                int rValue = parseRegister(split[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rAddr, rValue, getOpcode("MSET"))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode("MSET"))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
         });
 
         register("MCPY", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rDest = InstructionUtils.extractRegister(words[0], 16);
-                int rSrc = InstructionUtils.extractRegister(words[0], 8);
-                int destAddr = cpu.getRegister(rDest);
-                int srcAddr = cpu.getRegister(rSrc);
-                int count = cpu.getRegister(1); // r1 holds count
-
-                // Handle overlapping regions by copying backward if dest > src
-                if (destAddr > srcAddr && destAddr < srcAddr + count * 4) {
-                    for (int i = count - 1; i >= 0; i--) {
-                        int val = cpu.getMemory().readWord(srcAddr + i * 4);
-                        cpu.getMemory().writeWord(destAddr + i * 4, val);
-                    }
-                } else {
-                    for (int i = 0; i < count; i++) {
-                        int val = cpu.getMemory().readWord(srcAddr + i * 4);
-                        cpu.getMemory().writeWord(destAddr + i * 4, val);
-                    }
-                }
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int destAddr = cpu.readRegister(instr.getRDest());
+                int srcAddr = cpu.readRegister(instr.getRSrc());
+                int count = cpu.readRegister(1); // r1 holds count
+
+                // overlapping ranges behave like memmove
+                cpu.getMemory().copy(destAddr, srcAddr, count);
+            }
+
+            @Override
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode("MCPY"))};
             }
 
             @Override
-            public int[] encode(String args) {
-                var split = splitArgs(args, 2);
-                int rDest = parseRegister(split[0]);
-                int rSrc = parseRegister(split[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rDest, rSrc, getOpcode("MCPY"))};
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
 
         });
@@ -348,48 +331,59 @@ public class NeptuneInstructionSet implements InstructionSet {
 
         register("CALL", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int addr = words[1];
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int addr = instr.getImmediate();
                 cpu.push(cpu.getProgramCounter());
                 cpu.jump(addr);
             }
 
             @Override
-            public int[] encode(String args) {
-                int addr = parseImmediate(args);
-                return new int[]{InstructionUtils.encodeInstruction(0, 0, getOpcode("CALL")), addr};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(0, 0, getOpcode("CALL")), operands[0]};
             }
 
+            @Override
+            public OperandKind[] getOperandKinds() { return IMMEDIATE; }
+
             @Override
             public int getWordCount() { return 2; }
+
+            @Override
+            public int getRegisterOperands() { return 0; }
         });
 
         register("RET", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
+            public void execute(CPU cpu, DecodedInstruction instr) {
                 int retAddr = cpu.pop();
                 cpu.jump(retAddr);
             }
 
             @Override
-            public int[] encode(String args) {
+            public int[] encode(int[] operands) {
                 return new int[]{InstructionUtils.encodeInstruction(0, 0, getOpcode("RET"))};
             }
+
+            @Override
+            public OperandKind[] getOperandKinds() { return NO_OPERANDS; }
+
+            @Override
+            public int getRegisterOperands() { return 0; }
         });
     }
 
     private void registerStackInstructions() {
         register("PUSH", new StackInstruction("PUSH") {
             @Override
-            public void executeOperation(CPU cpu, int value) {
+            public void executeOperation(CPU cpu, int register, int value) {
                 cpu.push(value);
             }
         });
 
         register("POP", new StackInstruction("POP") {
             @Override
-            public void executeOperation(CPU cpu, int value) {
-                cpu.setRegister(register, value);
+            public void executeOperation(CPU cpu, int register, int value) {
+                cpu.writeRegister(register, value);
                 cpu.getFlags().update(value);
             }
         });
@@ -399,27 +393,27 @@ public class NeptuneInstructionSet implements InstructionSet {
         register("MOVI", new ImmediateInstruction("MOVI") {
             @Override
             protected void executeImmediate(CPU cpu, int rDest, int immediate) {
-                cpu.setRegister(rDest, immediate);
+                cpu.writeRegister(rDest, immediate);
                 cpu.getFlags().update(immediate);
             }
         });
 
         register("MOV", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rDest = InstructionUtils.extractRegister(words[0], 16);
-                int rSrc = InstructionUtils.extractRegister(words[0], 8);
-                int val = cpu.getRegister(rSrc);
-                cpu.setRegister(rDest, val);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int val = cpu.readRegister(instr.getRSrc());
+                cpu.writeRegister(instr.getRDest(), val);
                 cpu.getFlags().update(val);
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rDest = parseRegister(parts[0]);
-                int rSrc = parseRegister(parts[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rDest, rSrc, getOpcode("MOV"))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode("MOV"))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
         });
 
@@ -435,20 +429,20 @@ public class NeptuneInstructionSet implements InstructionSet {
         // Register-register comparisons
         register("CMP", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rA = InstructionUtils.extractRegister(words[0], 16);
-                int rB = InstructionUtils.extractRegister(words[0], 8);
-                int a = cpu.getRegister(rA);
-                int b = cpu.getRegister(rB);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int a = cpu.readRegister(instr.getRDest());
+                int b = cpu.readRegister(instr.getRSrc());
                 cpu.getFlags().updateSub(a, b, a - b);
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rA = parseRegister(parts[0]);
-                int rB = parseRegister(parts[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rA, rB, getOpcode("CMP"))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode("CMP"))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
         });
 
@@ -456,7 +450,7 @@ public class NeptuneInstructionSet implements InstructionSet {
         register("CMPI", new ImmediateInstruction("CMPI") {
             @Override
             protected void executeImmediate(CPU cpu, int rA, int immediate) {
-                int a = cpu.getRegister(rA);
+                int a = cpu.readRegister(rA);
                 cpu.getFlags().updateSub(a, immediate, a - immediate);
             }
         });
@@ -464,19 +458,19 @@ public class NeptuneInstructionSet implements InstructionSet {
         // Register-register test
         register("TEST", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rA = InstructionUtils.extractRegister(words[0], 16);
-                int rB = InstructionUtils.extractRegister(words[0], 8);
-                int val = cpu.getRegister(rA) & cpu.getRegister(rB);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int val = cpu.readRegister(instr.getRDest()) & cpu.readRegister(instr.getRSrc());
                 cpu.getFlags().update(val);
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rA = parseRegister(parts[0]);
-                int rB = parseRegister(parts[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rA, rB, getOpcode("TEST"))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode("TEST"))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
         });
 
@@ -484,7 +478,7 @@ public class NeptuneInstructionSet implements InstructionSet {
         register("TESTI", new ImmediateInstruction("TESTI") {
             @Override
             protected void executeImmediate(CPU cpu, int rA, int immediate) {
-                int val = cpu.getRegister(rA) & immediate;
+                int val = cpu.readRegister(rA) & immediate;
                 cpu.getFlags().update(val);
             }
         });
@@ -492,91 +486,61 @@ public class NeptuneInstructionSet implements InstructionSet {
 
     private void registerSystemInstructions() {
         register("SYSCALL", new Instruction() {
-            public void execute(CPU cpu, int[] words) {
-                int syscallNumber = cpu.getRegister(0);
-
-                // use the ROM syscall table
-                int syscallTableAddr = cpu.getMemoryMap().getSyscallTableStart();
-                Memory rom = cpu.getMemory().getRom();
-
-                // Calculate the address of the syscall entry in the table
-                int tableEntryAddr = syscallTableAddr + (syscallNumber * 4);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int syscallNumber = cpu.readRegister(0);
 
-                // Verify the table entry address is within ROM bounds
-                if (!isAddressInMemory(tableEntryAddr, rom)) {
-                    throw new IllegalStateException("Syscall number " + syscallNumber + " is out of range");
-                }
-
-                // Read the target address from the syscall table
-                int targetAddress;
-                try {
-                    targetAddress = rom.readWord(tableEntryAddr);
-                } catch (Exception e) {
-                    throw new IllegalStateException("Failed to read syscall table entry for syscall " + syscallNumber, e);
-                }
+                // a Java implementation of the routine, if one is enabled for this number
+                if (cpu.getHleSyscalls().execute(cpu, syscallNumber)) return;
 
-                // Verify the target address is valid (non-zero and within bounds)
-                if (targetAddress == 0) {
-                    throw new IllegalStateException("Syscall " + syscallNumber + " is not implemented (target address is 0)");
-                }
-
-                // Determine which memory region contains the target address
-                MemoryHandler targetMemory = resolveMemoryForAddress(cpu, targetAddress);
-                if (targetMemory == null) {
-                    throw new IllegalStateException("Syscall " + syscallNumber + " target address 0x" +
-                            Integer.toHexString(targetAddress) + " is not in any valid memory region");
-                }
+                // the decoded ROM syscall table validates the number and target
+                int targetAddress = cpu.getSyscallTable().getTarget(syscallNumber);
 
                 // push the current PC and jump to the syscall handler
-                int returnAddress = cpu.getProgramCounter();
-                cpu.push(returnAddress);
-
-                // Jump to the syscall handler
+                cpu.push(cpu.getProgramCounter());
                 cpu.setProgramCounter(targetAddress);
             }
 
-            private boolean isAddressInMemory(int address, MemoryHandler memory) {
-                return address >= memory.getBaseAddress() &&
-                        address < memory.getBaseAddress() + memory.getSize();
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(0, 0, getOpcode("SYSCALL"))};
             }
 
-            private MemoryHandler resolveMemoryForAddress(CPU cpu, int address) {
-                Memory rom = cpu.getMemory().getRom();
-                Memory ram = cpu.getMemory().getRam();
-                Memory vram = cpu.getMemory().getVram();
-                IODeviceManager io = cpu.getMemory().getIo();
-
-                if (isAddressInMemory(address, rom)) return rom;
-                if (isAddressInMemory(address, ram)) return ram;
-                if (isAddressInMemory(address, vram)) return vram;
-                if (isAddressInMemory(address, io)) return io;
-
-                return null; // Address not in any memory region
-            }
+            @Override
+            public OperandKind[] getOperandKinds() { return NO_OPERANDS; }
 
-            public int[] encode(String args) {
-                return new int[] { InstructionUtils.encodeInstruction(0, 0, getOpcode("SYSCALL")) };
-            }
+            @Override
+            public int getRegisterOperands() { return 0; }
         });
 
         register("NOP", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) { /* no op */ }
+            public void execute(CPU cpu, DecodedInstruction instr) { /* no op */ }
 
             @Override
-            public int[] encode(String args) {
+            public int[] encode(int[] operands) {
                 return new int[]{InstructionUtils.encodeInstruction(0, 0, getOpcode("NOP"))};
             }
+
+            @Override
+            public OperandKind[] getOperandKinds() { return NO_OPERANDS; }
+
+            @Override
+            public int getRegisterOperands() { return 0; }
         });
 
         register("HLT", new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) { cpu.setHalt(true); }
+            public void execute(CPU cpu, DecodedInstruction instr) { cpu.setHalt(true); }
 
             @Override
-            public int[] encode(String args) {
+            public int[] encode(int[] operands) {
                 return new int[]{InstructionUtils.encodeInstruction(0, 0, getOpcode("HLT"))};
             }
+
+            @Override
+            public OperandKind[] getOperandKinds() { return NO_OPERANDS; }
+
+            @Override
+            public int getRegisterOperands() { return 0; }
         });
     }
 
@@ -589,18 +553,27 @@ public class NeptuneInstructionSet implements InstructionSet {
         }
 
         @Override
-        public void execute(CPU cpu, int[] words) {
-            int rDest = InstructionUtils.extractRegister(words[0], 16);
-            int value = cpu.getRegister(rDest);
+        public void execute(CPU cpu, DecodedInstruction instr) {
+            int rDest = instr.getRDest();
+            int value = cpu.readRegister(rDest);
             int result = calculate(value);
-            cpu.setRegister(rDest, result);
+            cpu.writeRegister(rDest, result);
             cpu.getFlags().update(result);
         }
 
+
+        @Override
+        public int getRegisterOperands() {
+            return DEST_REGISTER;
+        }
+        @Override
+        public int[] encode(int[] operands) {
+            return new int[]{InstructionUtils.encodeInstruction(operands[0], 0, getOpcode(name))};
+        }
+
         @Override
-        public int[] encode(String args) {
-            int rDest = parseRegister(args);
-            return new int[]{InstructionUtils.encodeInstruction(rDest, 0, getOpcode(name))};
+        public OperandKind[] getOperandKinds() {
+            return REGISTER;
         }
 
         protected abstract int calculate(int value);
@@ -614,22 +587,28 @@ public class NeptuneInstructionSet implements InstructionSet {
         }
 
         @Override
-        public void execute(CPU cpu, int[] words) {
-            int rDest = InstructionUtils.extractRegister(words[0], 16);
-            executeImmediate(cpu, rDest, words[1]);
+        public void execute(CPU cpu, DecodedInstruction instr) {
+            executeImmediate(cpu, instr.getRDest(), instr.getImmediate());
         }
 
+
+        @Override
+        public int getRegisterOperands() {
+            return DEST_REGISTER;
+        }
         @Override
-        public int[] encode(String args) {
-            String[] parts = splitArgs(args, 2);
-            int rDest = parseRegister(parts[0]);
-            int imm = parseImmediate(parts[1]);
+        public int[] encode(int[] operands) {
             return new int[]{
-                    InstructionUtils.encodeInstruction(rDest, 0, getOpcode(name)),
-                    imm
+                    InstructionUtils.encodeInstruction(operands[0], 0, getOpcode(name)),
+                    operands[1]
             };
         }
 
+        @Override
+        public OperandKind[] getOperandKinds() {
+            return REGISTER_IMMEDIATE;
+        }
+
         @Override
         public int getWordCount() {
             return 2;
@@ -639,7 +618,6 @@ public class NeptuneInstructionSet implements InstructionSet {
     }
 
     private abstract class StackInstruction implements Instruction {
-        protected int register;
         private final String name;
 
         StackInstruction(String name) {
@@ -647,67 +625,89 @@ public class NeptuneInstructionSet implements InstructionSet {
         }
 
         @Override
-        public void execute(CPU cpu, int[] words) {
-            register = InstructionUtils.extractRegister(words[0], 16);
+        public void execute(CPU cpu, DecodedInstruction instr) {
+            int register = instr.getRDest();
             int value = name.equals("PUSH") ?
-                    cpu.getRegister(register) : cpu.pop();
-            executeOperation(cpu, value);
+                    cpu.readRegister(register) : cpu.pop();
+            if (cpu.getMemory().hasFault()) return; // a faulting POP leaves its register alone
+            executeOperation(cpu, register, value);
+        }
+
+
+        @Override
+        public int getRegisterOperands() {
+            return DEST_REGISTER;
+        }
+        @Override
+        public int[] encode(int[] operands) {
+            return new int[]{InstructionUtils.encodeInstruction(operands[0], 0, getOpcode(name))};
         }
 
         @Override
-        public int[] encode(String args) {
-            int reg = parseRegister(args);
-            return new int[]{InstructionUtils.encodeInstruction(reg, 0, getOpcode(name))};
+        public OperandKind[] getOperandKinds() {
+            return REGISTER;
         }
 
-        public abstract void executeOperation(CPU cpu, int value);
+        public abstract void executeOperation(CPU cpu, int register, int value);
     }
 
     // Helper methods for instruction creation
     private Instruction createJumpInstruction(String name, Predicate<CPU> condition) {
         return new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                if (condition.test(cpu)) cpu.jump(words[1]);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                if (condition.test(cpu)) cpu.jump(instr.getImmediate());
             }
 
             @Override
-            public int[] encode(String args) {
-                int addr = parseImmediate(args);
+            public int[] encode(int[] operands) {
                 return new int[]{
                         InstructionUtils.encodeInstruction(0, 0, getOpcode(name)),
-                        addr
+                        operands[0]
                 };
             }
 
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return IMMEDIATE;
+            }
+
             @Override
             public int getWordCount() {
                 return 2;
             }
+
+            @Override
+            public int getRegisterOperands() {
+                return 0;
+            }
         };
     }
 
     private Instruction createMemoryInstruction(String name, boolean load) {
         return new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rA = InstructionUtils.extractRegister(words[0], 16);
-                int rB = InstructionUtils.extractRegister(words[0], 8);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int rA = instr.getRDest();
+                int rB = instr.getRSrc();
                 if (load) {
-                    int value = cpu.getMemory().readWord(cpu.getRegister(rB));
-                    cpu.setRegister(rA, value);
+                    int value = cpu.getMemory().readWord(cpu.readRegister(rB));
+                    if (cpu.getMemory().hasFault()) return;
+                    cpu.writeRegister(rA, value);
                     cpu.getFlags().update(value);
                 } else {
-                    cpu.getMemory().writeWord(cpu.getRegister(rB), cpu.getRegister(rA));
+                    cpu.getMemory().writeWord(cpu.readRegister(rB), cpu.readRegister(rA));
                 }
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rA = parseRegister(parts[0]);
-                int rB = parseRegister(parts[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rA, rB, getOpcode(name))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode(name))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
         };
     }
@@ -715,20 +715,27 @@ public class NeptuneInstructionSet implements InstructionSet {
     private Instruction createShiftInstruction(String name, BiFunction<Integer, Integer, Integer> op) {
         return new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rDest = InstructionUtils.extractRegister(words[0], 16);
-                int shift = InstructionUtils.extractRegister(words[0], 8);
-                int result = op.apply(cpu.getRegister(rDest), shift);
-                cpu.setRegister(rDest, result);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int rDest = instr.getRDest();
+                int shift = instr.getRSrc();
+                int result = op.apply(cpu.readRegister(rDest), shift);
+                cpu.writeRegister(rDest, result);
                 cpu.getFlags().update(result);
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rDest = parseRegister(parts[0]);
-                int shift = parseImmediate(parts[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rDest, shift, getOpcode(name))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode(name))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_IMMEDIATE;
+            }
+
+            @Override
+            public int getRegisterOperands() {
+                return DEST_REGISTER; // rSrc holds the shift amount
             }
         };
     }
@@ -736,23 +743,24 @@ public class NeptuneInstructionSet implements InstructionSet {
     private void registerBinaryOp(String name, BiFunction<Integer, Integer, Integer> op, boolean updateAddFlags) {
         register(name, new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rDest = InstructionUtils.extractRegister(words[0], 16);
-                int rSrc = InstructionUtils.extractRegister(words[0], 8);
-                int a = cpu.getRegister(rDest);
-                int b = cpu.getRegister(rSrc);
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int rDest = instr.getRDest();
+                int a = cpu.readRegister(rDest);
+                int b = cpu.readRegister(instr.getRSrc());
                 int result = op.apply(a, b);
-                cpu.setRegister(rDest, result);
+                cpu.writeRegister(rDest, result);
                 if (updateAddFlags) cpu.getFlags().updateAdd(a, b, result);
                 else cpu.getFlags().update(result);
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rDest = parseRegister(parts[0]);
-                int rSrc = parseRegister(parts[1]);
-                return new int[]{InstructionUtils.encodeInstruction(rDest, rSrc, getOpcode(name))};
+            public int[] encode(int[] operands) {
+                return new int[]{InstructionUtils.encodeInstruction(operands[0], operands[1], getOpcode(name))};
+            }
+
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_REGISTER;
             }
         });
     }
@@ -760,64 +768,41 @@ public class NeptuneInstructionSet implements InstructionSet {
     private void registerBinaryImmediateOp(String name, BiFunction<Integer, Integer, Integer> op, boolean updateAddFlags) {
         register(name, new Instruction() {
             @Override
-            public void execute(CPU cpu, int[] words) {
-                int rDest = InstructionUtils.extractRegister(words[0], 16);
-                int a = cpu.getRegister(rDest);
-                int b = words[1];
+            public void execute(CPU cpu, DecodedInstruction instr) {
+                int rDest = instr.getRDest();
+                int a = cpu.readRegister(rDest);
+                int b = instr.getImmediate();
                 int result = op.apply(a, b);
-                cpu.setRegister(rDest, result);
+                cpu.writeRegister(rDest, result);
                 if (updateAddFlags) cpu.getFlags().updateAdd(a, b, result);
                 else cpu.getFlags().update(result);
             }
 
             @Override
-            public int[] encode(String args) {
-                String[] parts = splitArgs(args, 2);
-                int rDest = parseRegister(parts[0]);
-                int imm = parseImmediate(parts[1]);
+            public int[] encode(int[] operands) {
                 return new int[]{
-                        InstructionUtils.encodeInstruction(rDest, 0, getOpcode(name)),
-                        imm
+                        InstructionUtils.encodeInstruction(operands[0], 0, getOpcode(name)),
+                        operands[1]
                 };
             }
 
+            @Override
+            public OperandKind[] getOperandKinds() {
+                return REGISTER_IMMEDIATE;
+            }
+
             @Override
             public int getWordCount() {
                 return 2;
             }
-        });
-    }
-
-    // Utility methods
-    private int parseImmediate(String token) {
-        token = token.trim().toLowerCase();
-        if (token.startsWith("0x")) {
-            return (int) Long.parseLong(token.substring(2), 16);
-        }
-        return Integer.parseInt(token);
-    }
 
-    private int parseRegister(String token) {
-        token = token.trim().toLowerCase();
-
-        return switch (token) {
-            case "pc" -> 252;
-            case "sp" -> 253;
-            case "hp" -> 254;
-            default -> {
-                if (!token.startsWith("r")) {
-                    throw new IllegalArgumentException("Invalid register: " + token);
-                }
-                try {
-                    yield Integer.parseInt(token.substring(1));
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Invalid register number: " + token);
-                }
+            @Override
+            public int getRegisterOperands() {
+                return DEST_REGISTER;
             }
-        };
+        });
     }
 
-
     @Override
     public Instruction getInstruction(int instructionWord) {
         byte opcode = InstructionUtils.decodeOpcode(instructionWord);
@@ -842,6 +827,11 @@ public class NeptuneInstructionSet implements InstructionSet {
         return opcodeToName.get(opcode);
     }
 
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
     private void logInstructions() {
         System.out.println("Registered instructions:");
         nameToOpcode.forEach((name, opcode) ->
@@ -0,0 +1,114 @@
+package org.lpc.instructions;
+
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryBus;
+import org.lpc.memory.MemoryHandler;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.MemoryWriteListener;
+
+/**
+ * SYSCALL targets decoded from the ROM syscall table.
+ *
+ * The table is decoded into an array of validated targets when it is loaded, so a SYSCALL
+ * only has to index the array. Writes over the table region drop the decoded copy and the
+ * next SYSCALL decodes it again. Numbers outside the table and invalid entries take the
+ * original checked path, which also produces the error.
+ */
+public class SyscallTable implements MemoryWriteListener {
+    private static final int UNRESOLVED = 0; // a zero entry is never a valid target
+
+    private final MemoryBus memory;
+    private final int tableStart;
+    private final int tableSize;
+    private int[] targets; // null until decoded
+
+    public SyscallTable(MemoryBus memory, MemoryMap memoryMap) {
+        this.memory = memory;
+        this.tableStart = memoryMap.getSyscallTableStart();
+        this.tableSize = memoryMap.getSyscallTableSize();
+        memory.addWriteListener(this);
+    }
+
+    /**
+     * Returns the handler address for syscall {@code number}, throwing if the table has no valid target for it.
+     */
+    public int getTarget(int number) {
+        int[] decoded = targets;
+        if (decoded == null) {
+            decoded = load();
+        }
+        if (number >= 0 && number < decoded.length && decoded[number] != UNRESOLVED) {
+            return decoded[number];
+        }
+        return resolve(number);
+    }
+
+    /**
+     * Decodes the whole table from memory.
+     */
+    public int[] load() {
+        int[] decoded = new int[tableSize / 4];
+        Memory rom = memory.getRom();
+        for (int number = 0; number < decoded.length; number++) {
+            // most entries are empty; skip them without building an exception
+            int entry = tableStart + number * 4;
+            if (isAddressInMemory(entry, rom) && rom.readWord(entry) == UNRESOLVED) continue;
+            try {
+                decoded[number] = resolve(number);
+            } catch (IllegalStateException e) {
+                decoded[number] = UNRESOLVED;
+            }
+        }
+        targets = decoded;
+        return decoded;
+    }
+
+    /**
+     * Drops the decoded table, e.g. after the ROM was written directly instead of through the bus.
+     */
+    public void invalidate() {
+        targets = null;
+    }
+
+    @Override
+    public void onWrite(int addr, int length) {
+        if (addr < tableStart + tableSize && addr + length > tableStart) {
+            invalidate();
+        }
+    }
+
+    private int resolve(int number) {
+        Memory rom = memory.getRom();
+
+        // Calculate the address of the syscall entry in the table
+        int tableEntryAddr = tableStart + (number * 4);
+
+        // Verify the table entry address is within ROM bounds
+        if (!isAddressInMemory(tableEntryAddr, rom)) {
+            throw new IllegalStateException("Syscall number " + number + " is out of range");
+        }
+
+        // Read the target address from the syscall table
+        int targetAddress;
+        try {
+            targetAddress = rom.readWord(tableEntryAddr);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read syscall table entry for syscall " + number, e);
+        }
+
+        // Verify the target address is valid (non-zero and within bounds)
+        if (targetAddress == 0) {
+            throw new IllegalStateException("Syscall " + number + " is not implemented (target address is 0)");
+        }
+        if (memory.findRegion(targetAddress) == null) {
+            throw new IllegalStateException("Syscall " + number + " target address 0x" +
+                    Integer.toHexString(targetAddress) + " is not in any valid memory region");
+        }
+        return targetAddress;
+    }
+
+    private static boolean isAddressInMemory(int address, MemoryHandler memory) {
+        return address >= memory.getBaseAddress() &&
+                address < memory.getBaseAddress() + memory.getSize();
+    }
+}
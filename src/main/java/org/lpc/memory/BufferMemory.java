@@ -0,0 +1,150 @@
+package org.lpc.memory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory held in a {@link ByteBuffer} outside the Java heap, either a direct buffer or a
+ * memory-mapped file.
+ *
+ * A mapped region reads the file's current contents and every guest write goes straight to the
+ * mapping, so an image can be opened without copying it and is saved by {@link #flush()}.
+ */
+public class BufferMemory extends Memory {
+    private final ByteBuffer buffer;
+    // a direct buffer is a MappedByteBuffer too, so whether it maps a file has to be recorded
+    private final boolean mapped;
+
+    public BufferMemory(int baseAddress, ByteBuffer buffer) {
+        this(baseAddress, buffer, false);
+    }
+
+    private BufferMemory(int baseAddress, ByteBuffer buffer, boolean mapped) {
+        super(baseAddress, buffer.capacity());
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.mapped = mapped;
+    }
+
+    /**
+     * Creates zeroed memory in a newly allocated direct buffer.
+     */
+    public static BufferMemory direct(int baseAddress, int size) {
+        return new BufferMemory(baseAddress, ByteBuffer.allocateDirect(size));
+    }
+
+    /**
+     * Maps the first {@code size} bytes of {@code file}, creating or growing the file as needed.
+     */
+    public static BufferMemory mapped(int baseAddress, int size, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return new BufferMemory(baseAddress, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map " + file, e);
+        }
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Writes the contents of a memory-mapped region back to its file. Does nothing for a direct buffer.
+     */
+    public void flush() {
+        if (mapped) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    @Override
+    public int readWord(int addr) {
+        int offset = addr - getBaseAddress();
+        if (offset >= 0 && offset <= buffer.capacity() - 4) {
+            return buffer.getInt(offset);
+        }
+        // words running off either end fail like the byte array backend
+        offset = toOffset(addr);
+        return (byteAt(offset) & 0xFF) |
+                ((byteAt(offset + 1) & 0xFF) << 8) |
+                ((byteAt(offset + 2) & 0xFF) << 16) |
+                ((byteAt(offset + 3) & 0xFF) << 24);
+    }
+
+    @Override
+    public void writeWord(int addr, int value) {
+        int offset = addr - getBaseAddress();
+        if (offset >= 0 && offset <= buffer.capacity() - 4) {
+            buffer.putInt(offset, value);
+            return;
+        }
+        offset = toOffset(addr);
+        buffer.put(checkIndex(offset), (byte) value);
+        buffer.put(checkIndex(offset + 1), (byte) (value >>> 8));
+        buffer.put(checkIndex(offset + 2), (byte) (value >>> 16));
+        buffer.put(checkIndex(offset + 3), (byte) (value >>> 24));
+    }
+
+    @Override
+    public void fill(int addr, int value, int count) {
+        if (count <= 0) return;
+        int offset = toOffset(addr);
+        int length = toOffset(addr + count * 4 - 1) - offset + 1;
+
+        writeWord(addr, value);
+        for (int filled = 4; filled < length; filled *= 2) {
+            buffer.put(offset + filled, buffer, offset, Math.min(filled, length - filled));
+        }
+    }
+
+    @Override
+    public void copy(int dst, Memory source, int src, int count) {
+        if (count <= 0) return;
+        int length = count * 4;
+        int from = source.toOffset(src, length);
+        int to = toOffset(dst, length);
+        if (source instanceof HeapMemory heap) {
+            buffer.put(to, heap.data, from, length);
+        } else if (source instanceof BufferMemory other && other.buffer != buffer) {
+            buffer.put(to, other.buffer, from, length);
+        } else {
+            // ByteBuffer.put is not specified for overlapping ranges of one buffer
+            byte[] bytes = new byte[length];
+            source.readBytes(src, bytes, 0, length);
+            buffer.put(to, bytes);
+        }
+    }
+
+    @Override
+    public void readBytes(int addr, byte[] dst, int offset, int length) {
+        if (length <= 0) return;
+        buffer.get(toOffset(addr, length), dst, offset, length);
+    }
+
+    @Override
+    public void writeBytes(int addr, byte[] src, int offset, int length) {
+        if (length <= 0) return;
+        buffer.put(toOffset(addr, length), src, offset, length);
+    }
+
+    @Override
+    public byte readByte(int addr) {
+        return buffer.get(toOffset(addr));
+    }
+
+    @Override
+    public void writeByte(int addr, byte val) {
+        buffer.put(toOffset(addr), val);
+    }
+
+    private byte byteAt(int offset) {
+        return buffer.get(checkIndex(offset));
+    }
+}
@@ -0,0 +1,351 @@
+package org.lpc.memory;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.lpc.visualization.debug.TablePrinter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A memory map with the Neptune layout and configurable sizes.
+ *
+ * Regions follow each other in the order ROM, RAM, VRAM, IO; the stack starts at the top of RAM
+ * and the heap at a configurable offset into it. Sizes come from a {@link Builder} or from
+ * properties (see {@link #fromProperties}). RAM defaults to {@link SparseMemory}, so a large
+ * machine only costs host memory for the pages its program touches.
+ *
+ * The boot ROM is assembled for the default layout, so its VRAM syscalls assume VRAM at
+ * 0x102000, which only holds while RAM keeps its 1 MB default.
+ */
+@Getter
+public class ConfigurableMemoryMap implements MemoryMap {
+    private final int bootRomStart;
+    private final int bootRomSize;
+    private final int syscallTableStart;
+    private final int syscallTableSize;
+    private final int syscallCodeStart;
+    private final int syscallCodeSize;
+
+    private final int ramStart;
+    private final int ramSize;
+    private final int vramStart;
+    private final int vramSize;
+    private final VramFormat vramFormat;
+    private final int vramWidth;
+    private final int vramHeight;
+
+    private final int ioStart;
+    private final int ioSize;
+
+    private final int stackStart;
+    private final int heapStart;
+    private final int heapSize;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, MemoryBackend> backends;
+
+    protected ConfigurableMemoryMap(Builder builder) {
+        int heapOffset = builder.heapOffset < 0 ? (builder.ramSize / 2) & ~3 : builder.heapOffset;
+        int syscallSpace = 0x10 + builder.syscallCount * 4 + builder.syscallCodeSize;
+        if (builder.syscallCount <= 0 || builder.syscallCodeSize < 0 || builder.romSize < syscallSpace) {
+            throw new IllegalArgumentException(String.format("ROM of %d bytes cannot hold %d syscalls and %d bytes of syscall code",
+                    builder.romSize, builder.syscallCount, builder.syscallCodeSize));
+        }
+        if (builder.ramSize < 8 || builder.ramSize % 4 != 0) {
+            throw new IllegalArgumentException(String.format("RAM size must be a positive multiple of 4: %d", builder.ramSize));
+        }
+        if (heapOffset % 4 != 0 || heapOffset >= builder.ramSize - 4) {
+            throw new IllegalArgumentException(String.format("Heap offset 0x%X is not a word below the stack in %d bytes of RAM",
+                    heapOffset, builder.ramSize));
+        }
+        if (builder.vramWidth <= 0 || builder.vramHeight <= 0 || builder.ioSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid VRAM %dx%d or IO size %d",
+                    builder.vramWidth, builder.vramHeight, builder.ioSize));
+        }
+        long end = (long) builder.romSize + builder.ramSize
+                + (long) builder.vramWidth * builder.vramHeight * bytesPerPixel(builder.vramFormat) + builder.ioSize;
+        if (end > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Memory map ends at 0x%X, past the 2 GB address space", end));
+        }
+
+        bootRomStart = 0;
+        bootRomSize = builder.romSize;
+        syscallTableStart = bootRomStart + 0x10;
+        syscallTableSize = builder.syscallCount * 4;
+        syscallCodeStart = syscallTableStart + syscallTableSize;
+        syscallCodeSize = builder.syscallCodeSize;
+
+        ramStart = bootRomStart + bootRomSize;
+        ramSize = builder.ramSize;
+
+        vramFormat = builder.vramFormat;
+        vramWidth = builder.vramWidth;
+        vramHeight = builder.vramHeight;
+        vramSize = vramWidth * vramHeight * bytesPerPixel(vramFormat);
+        vramStart = ramStart + ramSize;
+
+        ioStart = vramStart + vramSize;
+        ioSize = builder.ioSize;
+
+        stackStart = ramStart + ramSize - 4;
+        heapStart = ramStart + heapOffset;
+        heapSize = stackStart - heapStart;
+
+        backends = new HashMap<>(builder.backends);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds a map from properties; keys that are not given keep their defaults.
+     * <ul>
+     *     <li>{@code rom.size}, {@code ram.size}, {@code io.size}, {@code heap.offset}, {@code syscall.code.size}:
+     *     bytes, with an optional K, M or G suffix or as 0x hex</li>
+     *     <li>{@code syscall.count}, {@code vram.width}, {@code vram.height}, {@code vram.format}</li>
+     *     <li>{@code rom.backend}, {@code ram.backend}, {@code vram.backend}:
+     *     {@code heap}, {@code sparse}, {@code direct} or {@code mapped:<file>}</li>
+     * </ul>
+     */
+    public static ConfigurableMemoryMap fromProperties(Properties properties) {
+        Builder builder = builder();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            switch (key) {
+                case "rom.size" -> builder.romSize(parseSize(key, value));
+                case "ram.size" -> builder.ramSize(parseSize(key, value));
+                case "io.size" -> builder.ioSize(parseSize(key, value));
+                case "heap.offset" -> builder.heapOffset(parseSize(key, value));
+                case "syscall.count" -> builder.syscallCount(parseSize(key, value));
+                case "syscall.code.size" -> builder.syscallCodeSize(parseSize(key, value));
+                case "vram.width" -> builder.vramWidth(parseSize(key, value));
+                case "vram.height" -> builder.vramHeight(parseSize(key, value));
+                case "vram.format" -> builder.vramFormat(VramFormat.valueOf(value.toUpperCase()));
+                case "rom.backend" -> builder.backend(ROM, parseBackend(key, value));
+                case "ram.backend" -> builder.backend(RAM, parseBackend(key, value));
+                case "vram.backend" -> builder.backend(VRAM, parseBackend(key, value));
+                default -> throw new IllegalArgumentException("Unknown memory map property: " + key);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a properties file in the format of {@link #fromProperties}.
+     */
+    public static ConfigurableMemoryMap load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        return fromProperties(properties);
+    }
+
+    /**
+     * Stores {@code region} ({@link #ROM}, {@link #RAM} or {@link #VRAM}) on {@code backend}.
+     * Only affects memory buses created afterwards.
+     */
+    public ConfigurableMemoryMap setBackend(String region, MemoryBackend backend) {
+        checkBackendRegion(region);
+        backends.put(region, backend);
+        return this;
+    }
+
+    @Override
+    public MemoryBackend getBackend(String region) {
+        return backends.getOrDefault(region, MemoryBackend.heap());
+    }
+
+    @Override
+    public int getProgramStart() {
+        return ramStart; // program loaded at start of RAM
+    }
+
+    @Override
+    public int getTotalMemorySize() {
+        return ioStart + ioSize; // total size up to end of IO
+    }
+
+    public void printMemoryLayout() {
+        TablePrinter table = new TablePrinter("NEPTUNE MEMORY MAP", 20, 10, 8);
+
+        table.printHeader("REGION");
+
+        table.printRow("ROM (Total)", bootRomStart, bootRomStart + bootRomSize - 1,
+                bootRomSize, "Boot ROM containing syscalls");
+
+        table.printRow("  Boot Code", bootRomStart, getFaultVector() - 1,
+                getFaultVector() - bootRomStart, "Boot loader code");
+
+        table.printRow("  Fault Vector", getFaultVector(), syscallTableStart - 1,
+                syscallTableStart - getFaultVector(), "Guest fault handler address");
+
+        table.printRow("  Syscall Table", syscallTableStart, syscallTableStart + syscallTableSize - 1,
+                syscallTableSize, "Syscall number to address map");
+
+        table.printRow("  Syscall Code", syscallCodeStart, syscallCodeStart + syscallCodeSize - 1,
+                syscallCodeSize, "Syscall implementations");
+
+        int romUnused = bootRomSize - (syscallTableStart - bootRomStart) - syscallTableSize - syscallCodeSize;
+        table.printRow("  ROM Unused", syscallCodeStart + syscallCodeSize,
+                bootRomStart + bootRomSize - 1, romUnused, "Available ROM space");
+
+        table.printFooter();
+
+        table.printRow("RAM (Total)", ramStart, ramStart + ramSize - 1,
+                ramSize, "Main system RAM");
+
+        table.printRow("  Program Area", ramStart, heapStart - 1,
+                heapStart - ramStart, "User program space");
+
+        table.printRow("  Heap", heapStart, stackStart,
+                heapSize, "Dynamic allocation");
+
+        table.printRow("  Stack", stackStart + 1, ramStart + ramSize - 1,
+                ramStart + ramSize - stackStart - 1, "Call stack (grows down)");
+
+        table.printFooter();
+
+        table.printRow("VRAM", vramStart, vramStart + vramSize - 1,
+                vramSize, String.format("Video RAM %dx%d %s", vramWidth, vramHeight, vramFormat));
+
+        table.printFooter();
+
+        table.printRow("I/O", ioStart, ioStart + ioSize - 1,
+                ioSize, "Memory-mapped I/O");
+
+        table.printDoubleFooter();
+    }
+
+    private static int bytesPerPixel(VramFormat format) {
+        return switch (format) {
+            case RGBA32 -> 4;
+            default -> throw new IllegalArgumentException("Unsupported VRAM format: " + format);
+        };
+    }
+
+    private static void checkBackendRegion(String region) {
+        if (!region.equals(ROM) && !region.equals(RAM) && !region.equals(VRAM)) {
+            throw new IllegalArgumentException(String.format("Region %s has no backing memory", region));
+        }
+    }
+
+    private static int parseSize(String key, String value) {
+        String digits = value.toUpperCase();
+        int shift = switch (digits.isEmpty() ? ' ' : digits.charAt(digits.length() - 1)) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        if (shift != 0) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long size = digits.startsWith("0X") ? Long.parseLong(digits.substring(2), 16) : Long.parseLong(digits);
+            size <<= shift;
+            if (size < 0 || size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(String.format("%s is out of range: %s", key, value));
+            }
+            return (int) size;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s is not a size: %s", key, value), e);
+        }
+    }
+
+    private static MemoryBackend parseBackend(String key, String value) {
+        if (value.startsWith("mapped:")) {
+            return MemoryBackend.mapped(Path.of(value.substring("mapped:".length())));
+        }
+        return switch (value) {
+            case "heap" -> MemoryBackend.heap();
+            case "sparse" -> MemoryBackend.sparse();
+            case "direct" -> MemoryBackend.direct();
+            default -> throw new IllegalArgumentException(String.format("%s is not a memory backend: %s", key, value));
+        };
+    }
+
+    public static class Builder {
+        private int romSize = 8 * 1024;                 // 8 KB
+        private int syscallCount = 64;
+        private int syscallCodeSize = 2 * 1024;         // 2 KB for syscall implementations
+        private int ramSize = 1024 * 1024;              // 1 MB
+        private int heapOffset = -1;                    // half of RAM unless set
+        private int vramWidth = 128;
+        private int vramHeight = 128;
+        private VramFormat vramFormat = VramFormat.RGBA32;
+        private int ioSize = 4 * 1024;                  // 4 KB
+        private final Map<String, MemoryBackend> backends = new HashMap<>(Map.of(RAM, MemoryBackend.sparse()));
+
+        private Builder() {}
+
+        public Builder romSize(int romSize) {
+            this.romSize = romSize;
+            return this;
+        }
+
+        public Builder syscallCount(int syscallCount) {
+            this.syscallCount = syscallCount;
+            return this;
+        }
+
+        public Builder syscallCodeSize(int syscallCodeSize) {
+            this.syscallCodeSize = syscallCodeSize;
+            return this;
+        }
+
+        public Builder ramSize(int ramSize) {
+            this.ramSize = ramSize;
+            return this;
+        }
+
+        /**
+         * Sets where the heap starts, in bytes from the start of RAM. Defaults to half of RAM.
+         */
+        public Builder heapOffset(int heapOffset) {
+            this.heapOffset = heapOffset;
+            return this;
+        }
+
+        public Builder vramWidth(int vramWidth) {
+            this.vramWidth = vramWidth;
+            return this;
+        }
+
+        public Builder vramHeight(int vramHeight) {
+            this.vramHeight = vramHeight;
+            return this;
+        }
+
+        public Builder vramFormat(VramFormat vramFormat) {
+            this.vramFormat = vramFormat;
+            return this;
+        }
+
+        public Builder ioSize(int ioSize) {
+            this.ioSize = ioSize;
+            return this;
+        }
+
+        /**
+         * Stores {@code region} ({@link MemoryMap#ROM}, {@link MemoryMap#RAM} or {@link MemoryMap#VRAM}) on {@code backend}.
+         * RAM is sparse and the other regions are heap arrays unless set.
+         */
+        public Builder backend(String region, MemoryBackend backend) {
+            checkBackendRegion(region);
+            backends.put(region, backend);
+            return this;
+        }
+
+        public ConfigurableMemoryMap build() {
+            return new ConfigurableMemoryMap(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.lpc.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Records which blocks of an address range were written through a {@link MemoryBus}, so a
+ * consumer can process only what changed since it last looked.
+ *
+ * Each consumer creates its own tracker; fetching clears only that tracker's bits. The block
+ * size is a power of two, e.g. 4 KB pages for RAM or 64-byte lines for VRAM. The CPU thread marks
+ * blocks with a plain read and release store per write; another thread may fetch concurrently.
+ * A fetched block's contents are at least as new as the write that marked it, and a write racing
+ * with a fetch at worst reports its block once more on the next fetch.
+ */
+public class DirtyTracker implements MemoryWriteListener, AutoCloseable {
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final MemoryBus memory;
+    private final int start;
+    private final long end;
+    private final int blockShift;
+    private final long[] bits;
+
+    /**
+     * Tracks [start, start + size) in blocks of {@code 1 << blockShift} bytes. Every block starts dirty.
+     */
+    public DirtyTracker(MemoryBus memory, int start, int size, int blockShift) {
+        if (size <= 0 || blockShift < 0 || blockShift > 30) {
+            throw new IllegalArgumentException(String.format("Invalid dirty tracking range of %d bytes in blocks of 2^%d", size, blockShift));
+        }
+        this.memory = memory;
+        this.start = start;
+        this.end = (long) start + size;
+        this.blockShift = blockShift;
+        this.bits = new long[(int) ((((long) size + (1L << blockShift) - 1) >>> blockShift) + 63 >>> 6)];
+        markAll();
+        memory.addWriteListener(this);
+    }
+
+    @Override
+    public void onWrite(int addr, int length) {
+        long from = Math.max(addr, start);
+        long to = Math.min((long) addr + length, end);
+        if (from >= to) return;
+        int first = (int) ((from - start) >>> blockShift);
+        int last = (int) ((to - 1 - start) >>> blockShift);
+        for (int block = first; block <= last; block++) {
+            int word = block >>> 6;
+            BITS.setRelease(bits, word, bits[word] | 1L << block);
+        }
+    }
+
+    /**
+     * Marks the whole range dirty, e.g. after memory was changed without going through the bus.
+     */
+    public void markAll() {
+        for (int word = 0; word < bits.length; word++) {
+            BITS.setRelease(bits, word, -1L);
+        }
+    }
+
+    /**
+     * Clears every dirty block and passes each run of consecutive dirty blocks to {@code consumer}
+     * as an address and a length, clipped to the tracked range. Returns the number of runs.
+     */
+    public int fetchAndClear(RangeConsumer consumer) {
+        int runs = 0;
+        long runStart = -1;
+        for (int word = 0; word < bits.length; word++) {
+            long dirty = (long) BITS.getAcquire(bits, word) == 0 ? 0 : (long) BITS.getAndSet(bits, word, 0L);
+            for (int bit = 0; bit < 64; bit++) {
+                long addr = start + ((((long) word << 6) + bit) << blockShift);
+                if ((dirty & 1L << bit) != 0 && addr < end) {
+                    if (runStart < 0) runStart = addr;
+                } else if (runStart >= 0) {
+                    consumer.accept((int) runStart, (int) (Math.min(addr, end) - runStart));
+                    runs++;
+                    runStart = -1;
+                }
+            }
+        }
+        if (runStart >= 0) {
+            consumer.accept((int) runStart, (int) (end - runStart));
+            runs++;
+        }
+        return runs;
+    }
+
+    /**
+     * Clears the dirty blocks overlapping [addr, addr + length) and returns whether there were any.
+     * Blocks outside that range stay dirty.
+     */
+    public boolean fetchAndClear(int addr, int length) {
+        long from = Math.max(addr, start);
+        long to = Math.min((long) addr + length, end);
+        if (from >= to) return false;
+        int first = (int) ((from - start) >>> blockShift);
+        int last = (int) ((to - 1 - start) >>> blockShift);
+
+        boolean dirty = false;
+        for (int word = first >>> 6; word <= last >>> 6; word++) {
+            long mask = -1L;
+            if (word == first >>> 6) mask &= -1L << first;
+            if (word == last >>> 6) mask &= -1L >>> (63 - (last & 63));
+            if (((long) BITS.getAcquire(bits, word) & mask) != 0) {
+                dirty |= ((long) BITS.getAndBitwiseAnd(bits, word, ~mask) & mask) != 0;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Stops tracking.
+     */
+    @Override
+    public void close() {
+        memory.removeWriteListener(this);
+    }
+
+    @FunctionalInterface
+    public interface RangeConsumer {
+        void accept(int addr, int length);
+    }
+}
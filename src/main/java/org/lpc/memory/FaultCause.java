@@ -0,0 +1,37 @@
+package org.lpc.memory;
+
+/**
+ * Why a guest instruction faulted. The code is what the fault handler finds in the {@code FC} register.
+ */
+public enum FaultCause {
+    INVALID_READ(1),        // unmapped address
+    INVALID_WRITE(2),       // unmapped address, or a byte write to IO
+    READ_ONLY_WRITE(3),     // ROM
+    INVALID_FETCH(4),       // instruction word at an unmapped address
+    ILLEGAL_INSTRUCTION(5); // unknown opcode or invalid register operand
+
+    private static final FaultCause[] BY_CODE = new FaultCause[6];
+
+    static {
+        for (FaultCause cause : values()) {
+            BY_CODE[cause.code] = cause;
+        }
+    }
+
+    private final int code;
+
+    FaultCause(int code) {
+        this.code = code;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Returns the cause with the given {@code FC} code, or null if there is none.
+     */
+    public static FaultCause fromCode(int code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
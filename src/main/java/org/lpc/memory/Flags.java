@@ -1,40 +1,125 @@
 package org.lpc.memory;
 
-import lombok.Getter;
-import lombok.Setter;
-
-@Getter
-@Setter
+/**
+ * Condition flags, evaluated lazily.
+ *
+ * Updates only record the operands of the last flag-producing operation; the individual
+ * bits are derived when read. Zero/negative come from the last result of any update,
+ * carry/overflow from the last {@link #updateAdd} or {@link #updateSub}, exactly as if
+ * every update had computed all bits eagerly.
+ */
 public class Flags {
+    // where carry/overflow currently come from
+    private static final int STORED = 0, ADD = 1, SUB = 2;
+
+    private int result;         // zero/negative source
+    private boolean storedZeroNegative = true;
+    private int arithmetic = STORED;
+    private int a, b, arithmeticResult;
+
+    // explicitly set values, used while the matching source is STORED
     private boolean zero;
     private boolean negative;
     private boolean carry;
     private boolean overflow;
 
     public void update(int result) {
-        zero = result == 0;
-        negative = result < 0;
+        this.result = result;
+        storedZeroNegative = false;
     }
 
     public void clear() {
         zero = negative = carry = overflow = false;
+        storedZeroNegative = true;
+        arithmetic = STORED;
+    }
+
+    /**
+     * Makes these flags an exact copy of {@code other}, including which operation the bits derive from.
+     */
+    public void copyFrom(Flags other) {
+        result = other.result;
+        storedZeroNegative = other.storedZeroNegative;
+        arithmetic = other.arithmetic;
+        a = other.a;
+        b = other.b;
+        arithmeticResult = other.arithmeticResult;
+        zero = other.zero;
+        negative = other.negative;
+        carry = other.carry;
+        overflow = other.overflow;
     }
 
     public void updateAdd(int a, int b, int result) {
+        record(ADD, a, b, result);
+    }
+
+    public void updateSub(int a, int b, int result) {
+        record(SUB, a, b, result);
+    }
+
+    private void record(int kind, int a, int b, int result) {
         update(result);
+        this.arithmetic = kind;
+        this.a = a;
+        this.b = b;
+        this.arithmeticResult = result;
+    }
 
-        long unsignedResult = (a & 0xFFFFFFFFL) + (b & 0xFFFFFFFFL);
-        carry = (unsignedResult >>> 32) != 0;
+    public boolean isZero() {
+        return storedZeroNegative ? zero : result == 0;
+    }
 
-        overflow = ((a ^ result) & (b ^ result) & 0x80000000) != 0;
+    public boolean isNegative() {
+        return storedZeroNegative ? negative : result < 0;
     }
 
-    public void updateSub(int a, int b, int result) {
-        update(result);
+    public boolean isCarry() {
+        return switch (arithmetic) {
+            case ADD -> ((a & 0xFFFFFFFFL) + (b & 0xFFFFFFFFL)) >>> 32 != 0;
+            case SUB -> (a & 0xFFFFFFFFL) - (b & 0xFFFFFFFFL) < 0;
+            default -> carry;
+        };
+    }
+
+    public boolean isOverflow() {
+        return switch (arithmetic) {
+            case ADD -> ((a ^ arithmeticResult) & (b ^ arithmeticResult) & 0x80000000) != 0;
+            case SUB -> ((a ^ b) & (a ^ arithmeticResult) & 0x80000000) != 0;
+            default -> overflow;
+        };
+    }
 
-        long unsignedResult = (a & 0xFFFFFFFFL) - (b & 0xFFFFFFFFL);
-        carry = unsignedResult < 0;
+    public void setZero(boolean zero) {
+        storeZeroNegative();
+        this.zero = zero;
+    }
+
+    public void setNegative(boolean negative) {
+        storeZeroNegative();
+        this.negative = negative;
+    }
+
+    public void setCarry(boolean carry) {
+        storeCarryOverflow();
+        this.carry = carry;
+    }
+
+    public void setOverflow(boolean overflow) {
+        storeCarryOverflow();
+        this.overflow = overflow;
+    }
+
+    // pin the derived bits before one of them is overwritten
+    private void storeZeroNegative() {
+        zero = isZero();
+        negative = isNegative();
+        storedZeroNegative = true;
+    }
 
-        overflow = ((a ^ b) & (a ^ result) & 0x80000000) != 0;
+    private void storeCarryOverflow() {
+        carry = isCarry();
+        overflow = isOverflow();
+        arithmetic = STORED;
     }
 }
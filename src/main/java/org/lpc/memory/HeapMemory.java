@@ -0,0 +1,101 @@
+package org.lpc.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memory held in a byte array on the Java heap.
+ */
+public class HeapMemory extends Memory {
+    // little-endian int view of the byte array; plain accesses may be unaligned
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    final byte[] data;
+
+    public HeapMemory(int baseAddress, int size) {
+        super(baseAddress, size);
+        this.data = new byte[size];
+    }
+
+    @Override
+    public int readWord(int addr) {
+        int offset = addr - getBaseAddress();
+        if (offset >= 0 && offset <= data.length - 4) {
+            return (int) WORD.get(data, offset);
+        }
+        // words running off either end fail exactly as the byte-wise access always did
+        offset = toOffset(addr);
+        return (data[offset] & 0xFF) |
+                ((data[offset + 1] & 0xFF) << 8) |
+                ((data[offset + 2] & 0xFF) << 16) |
+                ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    @Override
+    public void writeWord(int addr, int value) {
+        int offset = addr - getBaseAddress();
+        if (offset >= 0 && offset <= data.length - 4) {
+            WORD.set(data, offset, value);
+            return;
+        }
+        offset = toOffset(addr);
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    @Override
+    public void fill(int addr, int value, int count) {
+        if (count <= 0) return;
+        int offset = toOffset(addr);
+        int length = toOffset(addr + count * 4 - 1) - offset + 1;
+
+        byte low = (byte) value;
+        if (value == (low & 0xFF) * 0x01010101) {
+            Arrays.fill(data, offset, offset + length, low);
+            return;
+        }
+        writeWord(addr, value);
+        for (int filled = 4; filled < length; filled *= 2) {
+            System.arraycopy(data, offset, data, offset + filled, Math.min(filled, length - filled));
+        }
+    }
+
+    @Override
+    public void copy(int dst, Memory source, int src, int count) {
+        if (count <= 0) return;
+        int length = count * 4;
+        int from = source.toOffset(src, length);
+        int to = toOffset(dst, length);
+        if (source instanceof HeapMemory heap) {
+            System.arraycopy(heap.data, from, data, to, length);
+        } else {
+            source.readBytes(src, data, to, length);
+        }
+    }
+
+    @Override
+    public void readBytes(int addr, byte[] dst, int offset, int length) {
+        if (length <= 0) return;
+        System.arraycopy(data, toOffset(addr, length), dst, offset, length);
+    }
+
+    @Override
+    public void writeBytes(int addr, byte[] src, int offset, int length) {
+        if (length <= 0) return;
+        System.arraycopy(src, offset, data, toOffset(addr, length), length);
+    }
+
+    @Override
+    public byte readByte(int addr) {
+        return data[toOffset(addr)];
+    }
+
+    @Override
+    public void writeByte(int addr, byte val) {
+        data[toOffset(addr)] = val;
+    }
+}
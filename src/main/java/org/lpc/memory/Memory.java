@@ -2,50 +2,155 @@ package org.lpc.memory;
 
 import lombok.Getter;
 
-public class Memory implements MemoryHandler {
-    private final byte[] data;
+import java.util.Arrays;
+
+/**
+ * A plain block of guest memory.
+ *
+ * The storage is left to the subclasses: {@link HeapMemory} keeps it in a byte array and
+ * {@link BufferMemory} in a direct or memory-mapped {@link java.nio.ByteBuffer}. Each backend
+ * implements the word and bulk operations on its own storage; accesses fail the same way on all
+ * of them. {@link MemoryBackend} creates a region's memory on the chosen backend.
+ */
+public abstract class Memory implements MemoryHandler {
     @Getter
     private final int baseAddress;
+    private final int size;
 
-    public Memory(int baseAddress, int size) {
+    protected Memory(int baseAddress, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException(String.format("Memory size must not be negative: %d", size));
+        }
         this.baseAddress = baseAddress;
-        this.data = new byte[size];
+        this.size = size;
     }
 
-    private int toOffset(int addr) {
+    protected int toOffset(int addr) {
         int offset = addr - baseAddress;
-        if (offset < 0 || offset >= data.length) {
+        if (offset < 0 || offset >= size) {
             throw new IndexOutOfBoundsException("Address 0x" + Integer.toHexString(addr) + " out of range");
         }
         return offset;
     }
 
+    // offset of a range of length > 0 that must lie entirely inside this memory
+    protected int toOffset(int addr, int length) {
+        int offset = toOffset(addr);
+        toOffset(addr + length - 1);
+        return offset;
+    }
+
+    // for byte-wise access past the end of the region: the same exception an array access throws
+    protected int checkIndex(int offset) {
+        if (offset >= size) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Index %d out of bounds for length %d", offset, size));
+        }
+        return offset;
+    }
+
     public int getSize() {
-        return data.length;
+        return size;
     }
 
-    public int readWord(int addr) {
-        int offset = toOffset(addr);
-        return (data[offset] & 0xFF) |
-                ((data[offset + 1] & 0xFF) << 8) |
-                ((data[offset + 2] & 0xFF) << 16) |
-                ((data[offset + 3] & 0xFF) << 24);
+    /**
+     * Writes {@code value} to {@code count} consecutive words starting at {@code addr}.
+     */
+    public abstract void fill(int addr, int value, int count);
+
+    /**
+     * Copies {@code count} words from {@code src} in {@code source} to {@code dst} in this memory.
+     * Overlapping ranges are copied as if through a temporary buffer.
+     */
+    public abstract void copy(int dst, Memory source, int src, int count);
+
+    /**
+     * Captures the current contents. Every page that is not all zero is copied.
+     */
+    public MemoryImage snapshot() {
+        byte[][] pages = new byte[MemoryImage.pageCount(size)][];
+        byte[] zero = new byte[MemoryImage.PAGE_SIZE];
+        for (int page = 0; page < pages.length; page++) {
+            byte[] bytes = new byte[MemoryImage.PAGE_SIZE];
+            readBytes(baseAddress + (page << MemoryImage.PAGE_SHIFT), bytes, 0, pageLength(page));
+            pages[page] = Arrays.equals(bytes, zero) ? null : bytes;
+        }
+        return new MemoryImage(baseAddress, size, pages);
     }
 
-    public void writeWord(int addr, int value) {
-        int offset = toOffset(addr);
-        data[offset] = (byte) value;
-        data[offset + 1] = (byte) (value >>> 8);
-        data[offset + 2] = (byte) (value >>> 16);
-        data[offset + 3] = (byte) (value >>> 24);
+    /**
+     * Puts back the contents captured in {@code image}. Only pages that differ from it are written,
+     * and each of them is reported to {@code changed}.
+     */
+    public void restore(MemoryImage image, MemoryWriteListener changed) {
+        checkImage(image);
+        byte[] current = new byte[MemoryImage.PAGE_SIZE];
+        byte[] zero = new byte[MemoryImage.PAGE_SIZE];
+        for (int page = 0; page < image.pages.length; page++) {
+            int addr = baseAddress + (page << MemoryImage.PAGE_SHIFT);
+            int length = pageLength(page);
+            byte[] bytes = image.pages[page] == null ? zero : image.pages[page];
+            readBytes(addr, current, 0, length);
+            int first = Arrays.mismatch(current, 0, length, bytes, 0, length);
+            if (first >= 0) {
+                int end = changedEnd(current, bytes, length);
+                writeBytes(addr + first, bytes, first, end - first);
+                changed.onWrite(addr + first, end - first);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code bytes} starting at {@code addr}, but only where they differ from the current contents.
+     * Each changed range, at most one per page, is reported to {@code changed}.
+     */
+    public void patch(int addr, byte[] bytes, MemoryWriteListener changed) {
+        byte[] current = new byte[MemoryImage.PAGE_SIZE];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int target = addr + offset;
+            int length = Math.min(bytes.length - offset, MemoryImage.PAGE_SIZE - (target & (MemoryImage.PAGE_SIZE - 1)));
+            readBytes(target, current, 0, length);
+            int first = Arrays.mismatch(current, 0, length, bytes, offset, offset + length);
+            if (first >= 0) {
+                int end = length;
+                while (current[end - 1] == bytes[offset + end - 1]) {
+                    end--;
+                }
+                writeBytes(target + first, bytes, offset + first, end - first);
+                changed.onWrite(target + first, end - first);
+            }
+            offset += length;
+        }
     }
 
+    // one past the last byte where two differing pages differ, so unchanged code next to changed data keeps its caches
+    protected static int changedEnd(byte[] current, byte[] image, int length) {
+        int end = length;
+        while (current[end - 1] == image[end - 1]) {
+            end--;
+        }
+        return end;
+    }
 
-    public byte readByte(int addr) {
-        return data[toOffset(addr)];
+    protected void checkImage(MemoryImage image) {
+        if (image.getBaseAddress() != baseAddress || image.getSize() != size) {
+            throw new IllegalArgumentException(String.format("Image of 0x%08X+%d does not match memory at 0x%08X+%d",
+                    image.getBaseAddress(), image.getSize(), baseAddress, size));
+        }
     }
 
-    public void writeByte(int addr, byte val) {
-        data[toOffset(addr)] = val;
+    // bytes of the region in page {@code page}; only the last page can be short
+    protected int pageLength(int page) {
+        return Math.min(MemoryImage.PAGE_SIZE, size - (page << MemoryImage.PAGE_SHIFT));
     }
+
+    /**
+     * Copies {@code length} bytes starting at {@code addr} into {@code dst} at {@code offset}.
+     */
+    public abstract void readBytes(int addr, byte[] dst, int offset, int length);
+
+    /**
+     * Copies {@code length} bytes from {@code src} at {@code offset} to memory starting at {@code addr}.
+     */
+    public abstract void writeBytes(int addr, byte[] src, int offset, int length);
 }
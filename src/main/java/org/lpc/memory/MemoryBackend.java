@@ -0,0 +1,39 @@
+package org.lpc.memory;
+
+import java.nio.file.Path;
+
+/**
+ * Creates the storage for a memory region. {@link MemoryMap#getBackend} picks one per region.
+ */
+@FunctionalInterface
+public interface MemoryBackend {
+    Memory create(int baseAddress, int size);
+
+    /**
+     * A byte array on the Java heap, the default.
+     */
+    static MemoryBackend heap() {
+        return HeapMemory::new;
+    }
+
+    /**
+     * Heap pages allocated on first write, for large regions the guest only partly uses.
+     */
+    static MemoryBackend sparse() {
+        return SparseMemory::new;
+    }
+
+    /**
+     * A direct buffer outside the Java heap.
+     */
+    static MemoryBackend direct() {
+        return BufferMemory::direct;
+    }
+
+    /**
+     * A memory-mapped view of {@code file}, which keeps the region's contents between runs.
+     */
+    static MemoryBackend mapped(Path file) {
+        return (baseAddress, size) -> BufferMemory.mapped(baseAddress, size, file);
+    }
+}
@@ -0,0 +1,85 @@
+package org.lpc.memory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Times word accesses on a memory backend: a write and a read per word over a 1 MB region,
+ * aligned and one byte off alignment, in nanoseconds per read+write pair.
+ *
+ * Run with {@code gradle memoryBenchmark} for the heap backend, or {@code -Pbackend=sparse|direct|mapped|all}.
+ * {@code all} runs each backend in a JVM of its own: once a second backend has been run, the
+ * accesses are no longer inlined for one backend. Untimed warm-up rounds come first, so the
+ * reported rounds show the steady-state cost.
+ */
+public class MemoryBenchmark {
+    private static final int BASE_ADDRESS = 0x2000;
+    private static final int SIZE = 1 << 20;
+    private static final int PASSES = 20;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 8;
+    private static volatile int sink; // keeps the timed loop's result alive
+
+    public static void main(String[] args) throws Exception {
+        String choice = args.length > 0 ? args[0] : "heap";
+        if (choice.equals("all")) {
+            for (String backend : new String[] {"heap", "sparse", "direct", "mapped"}) {
+                fork(backend);
+            }
+            return;
+        }
+        Path file = Files.createTempFile("neptune-memory-benchmark", ".img");
+        try {
+            run(choice, backend(choice, file).create(BASE_ADDRESS, SIZE));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void fork(String backend) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), MemoryBenchmark.class.getName(), backend)
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(String.format("Benchmark of the %s backend exited with %d", backend, process.exitValue()));
+        }
+    }
+
+    private static MemoryBackend backend(String name, Path file) {
+        return switch (name) {
+            case "heap" -> MemoryBackend.heap();
+            case "sparse" -> MemoryBackend.sparse();
+            case "direct" -> MemoryBackend.direct();
+            case "mapped" -> MemoryBackend.mapped(file);
+            default -> throw new IllegalArgumentException("Unknown backend: " + name);
+        };
+    }
+
+    private static void run(String backend, Memory memory) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            time(memory, 0);
+            time(memory, 1);
+        }
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.printf("%s round %d: aligned %.2f ns, unaligned %.2f ns%n", backend, round,
+                    time(memory, 0), time(memory, 1));
+        }
+    }
+
+    // per read+write pair; the reads feed the writes so neither can be dropped
+    private static double time(Memory memory, int misalignment) {
+        int end = BASE_ADDRESS + SIZE - 0x80;
+        int sum = 0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int addr = BASE_ADDRESS + misalignment; addr < end; addr += 4) {
+                memory.writeWord(addr, sum + addr);
+                sum += memory.readWord(addr ^ 0x40);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = sum;
+        return elapsed / (double) (PASSES * ((end - BASE_ADDRESS - misalignment + 3) / 4));
+    }
+}
@@ -1,71 +1,375 @@
 package org.lpc.memory;
 
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import org.lpc.memory.io.IODeviceManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Routes guest addresses to the memory regions.
+ *
+ * Regions are entered into a table of 4 KB pages, so decoding an address is one shift and one
+ * array load. A page shared by several regions (or partly unmapped) is resolved by scanning the
+ * regions instead; with page-aligned regions that never happens. Pages holding a {@link Watchpoints}
+ * watchpoint are dispatched to a trapping handler instead of the region's own, so accesses to every
+ * other page take the same path as without watchpoints.
+ *
+ * An invalid access does not throw: it latches a {@link FaultCause} and the faulting address,
+ * reads return 0 and writes are dropped, and the engine hands the fault to the guest once the
+ * instruction ends (see {@code CPU.deliverFault}). Only the first fault of an instruction is kept.
+ * With {@code strictFaults} set, invalid accesses throw on the spot instead, for debugging.
+ */
 @Getter
 public class MemoryBus {
+    static final int PAGE_SHIFT = 12;
+    private static final MemoryRegion SHARED = new MemoryRegion("shared page", null, null);
+
     private final Memory rom;
     private final Memory ram;
     private final Memory vram;
     private final IODeviceManager io;
+    @Getter(AccessLevel.NONE)
+    private final List<MemoryRegion> regions = new ArrayList<>();
+    // replaced, never changed in place, so a watchpoint set from another thread reaches the CPU thread
+    @Getter(AccessLevel.NONE)
+    private volatile MemoryRegion[] pages = new MemoryRegion[0];
+    @Getter(AccessLevel.NONE)
+    private final AtomicLongArray trappedPages = new AtomicLongArray(1 << (32 - PAGE_SHIFT - 6)); // one bit per page of the address space
+    private volatile int trappedPageCount;
+    // replaced, never changed in place, so viewers can add and remove listeners while the CPU runs
+    private volatile MemoryWriteListener[] writeListeners = new MemoryWriteListener[0];
+    @Setter
+    private boolean strictFaults;
+    private FaultCause faultCause; // latched by the current instruction, null if none
+    private int faultAddress;
 
     public MemoryBus(MemoryMap map) {
-        rom = new Memory(map.getBootRomStart(), map.getBootRomSize());
-        ram = new Memory(map.getRamStart(), map.getRamSize());
-        vram = new Memory(map.getVramStart(), map.getVramSize());
+        rom = map.getBackend(MemoryMap.ROM).create(map.getBootRomStart(), map.getBootRomSize());
+        ram = map.getBackend(MemoryMap.RAM).create(map.getRamStart(), map.getRamSize());
+        vram = map.getBackend(MemoryMap.VRAM).create(map.getVramStart(), map.getVramSize());
         io = new IODeviceManager(map.getIoStart(), map.getIoSize());
+
+        map(new MemoryRegion(MemoryMap.ROM, rom, MemoryRegion.Access.READ_ONLY));
+        map(new MemoryRegion(MemoryMap.RAM, ram, MemoryRegion.Access.READ_WRITE));
+        map(new MemoryRegion(MemoryMap.VRAM, vram, MemoryRegion.Access.READ_WRITE));
+        map(new MemoryRegion(MemoryMap.IO, io, MemoryRegion.Access.DEVICE));
+    }
+
+    /**
+     * Adds a region to the address space. It must not overlap any region already mapped.
+     */
+    public synchronized void map(MemoryRegion region) {
+        long start = region.handler().getBaseAddress();
+        long end = start + region.handler().getSize();
+        if (start < 0 || end > Integer.MAX_VALUE || start >= end) {
+            throw new IllegalArgumentException(String.format("Region %s has an invalid range 0x%08X-0x%08X", region.name(), start, end));
+        }
+        for (MemoryRegion other : regions) {
+            long otherStart = other.handler().getBaseAddress();
+            long otherEnd = otherStart + other.handler().getSize();
+            if (start < otherEnd && otherStart < end) {
+                throw new IllegalArgumentException(String.format("Region %s 0x%08X-0x%08X overlaps %s", region.name(), start, end - 1, other.name()));
+            }
+        }
+        regions.add(region);
+
+        int firstPage = (int) (start >>> PAGE_SHIFT);
+        int lastPage = (int) ((end - 1) >>> PAGE_SHIFT);
+        MemoryRegion[] table = Arrays.copyOf(pages, Math.max(pages.length, lastPage + 1));
+        for (int page = firstPage; page <= lastPage; page++) {
+            boolean wholePage = start <= (long) page << PAGE_SHIFT && ((long) page + 1) << PAGE_SHIFT <= end;
+            table[page] = table[page] == null && wholePage ? region : SHARED;
+        }
+        pages = table;
+    }
+
+    public List<MemoryRegion> getRegions() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    /**
+     * Returns the region containing {@code addr}, or null if it is unmapped.
+     */
+    public MemoryRegion findRegion(int addr) {
+        MemoryRegion region = route(addr);
+        return region != null && region.handler() instanceof WatchedPage trapped ? trapped.getRegion() : region;
+    }
+
+    // region the access is dispatched to, a watchpoint trap for watched pages
+    private MemoryRegion route(int addr) {
+        MemoryRegion[] table = pages;
+        int page = addr >>> PAGE_SHIFT;
+        if (page >= table.length) return null;
+        MemoryRegion region = table[page];
+        if (region != SHARED) return region;
+        for (MemoryRegion candidate : regions) {
+            if (candidate.contains(addr)) return candidate;
+        }
+        return null;
     }
 
     public byte readByte(int addr) {
-        if (inRange(addr, rom)) return rom.readByte(addr);
-        if (inRange(addr, ram)) return ram.readByte(addr);
-        if (inRange(addr, vram)) return vram.readByte(addr);
-        if (inRange(addr, io)) return io.readByte(addr);
-        throw invalidRead(addr);
+        MemoryRegion region = route(addr);
+        if (region == null) {
+            fault(FaultCause.INVALID_READ, addr);
+            return 0;
+        }
+        return region.handler().readByte(addr);
     }
 
     public void writeByte(int addr, byte val) {
-        if (inRange(addr, rom)) throw romWriteError(addr);
-        if (inRange(addr, ram)) { ram.writeByte(addr, val); return; }
-        if (inRange(addr, vram)) { vram.writeByte(addr, val); return; }
-        if (inRange(addr, io)) throw invalidWrite(addr);
-        throw invalidWrite(addr);
+        MemoryRegion region = route(addr);
+        if (region == null) {
+            fault(FaultCause.INVALID_WRITE, addr);
+        } else if (region.access() == MemoryRegion.Access.READ_WRITE) {
+            region.handler().writeByte(addr, val);
+            notifyWrite(addr, 1);
+        } else {
+            fault(region.access() == MemoryRegion.Access.READ_ONLY ? FaultCause.READ_ONLY_WRITE : FaultCause.INVALID_WRITE, addr);
+        }
     }
 
     public int readWord(int addr) {
-        if (inRange(addr, rom)) return rom.readWord(addr);
-        if (inRange(addr, ram)) return ram.readWord(addr);
-        if (inRange(addr, vram)) return vram.readWord(addr);
-        if (inRange(addr, io)) return io.readWord(addr);
-        throw invalidRead(addr);
+        MemoryRegion region = route(addr);
+        if (region == null) {
+            fault(FaultCause.INVALID_READ, addr);
+            return 0;
+        }
+        return region.handler().readWord(addr);
     }
 
     public void writeWord(int addr, int val) {
-        if (inRange(addr, rom)) throw romWriteError(addr);
-        if (inRange(addr, ram)) { ram.writeWord(addr, val); return; }
-        if (inRange(addr, vram)) { vram.writeWord(addr, val); return; }
-        if (inRange(addr, io)) { io.writeWord(addr, val); return; }
-        throw invalidWrite(addr);
+        MemoryRegion region = route(addr);
+        if (region == null) {
+            fault(FaultCause.INVALID_WRITE, addr);
+        } else if (region.access() == MemoryRegion.Access.READ_WRITE) {
+            region.handler().writeWord(addr, val);
+            notifyWrite(addr, 4);
+        } else if (region.access() == MemoryRegion.Access.READ_ONLY) {
+            fault(FaultCause.READ_ONLY_WRITE, addr);
+        } else {
+            region.handler().writeWord(addr, val);
+        }
+    }
+
+    /**
+     * Reads like {@link #readWord} but never triggers a watchpoint, for instruction fetch and debugger views.
+     */
+    public int peekWord(int addr) {
+        MemoryRegion region = findRegion(addr);
+        if (region == null) throw faultException(FaultCause.INVALID_READ, addr);
+        return region.handler().readWord(addr);
+    }
+
+    public byte peekByte(int addr) {
+        MemoryRegion region = findRegion(addr);
+        if (region == null) throw faultException(FaultCause.INVALID_READ, addr);
+        return region.handler().readByte(addr);
+    }
+
+    /**
+     * Latches a fault of the current instruction, or throws it right away in strict mode.
+     */
+    public void fault(FaultCause cause, int addr) {
+        if (strictFaults) throw faultException(cause, addr);
+        if (faultCause == null) {
+            faultCause = cause;
+            faultAddress = addr;
+        }
+    }
+
+    public boolean hasFault() {
+        return faultCause != null;
+    }
+
+    public void clearFault() {
+        faultCause = null;
+    }
+
+    /**
+     * The host exception an invalid access threw before guest faults existed, for strict mode and
+     * for faults the guest has no handler for.
+     */
+    public RuntimeException faultException(FaultCause cause, int addr) {
+        return switch (cause) {
+            case INVALID_READ, INVALID_FETCH -> new IllegalArgumentException(String.format("Invalid memory read at 0x%08X", addr));
+            case INVALID_WRITE -> new IllegalArgumentException(String.format("Invalid memory write at 0x%08X", addr));
+            case READ_ONLY_WRITE -> new UnsupportedOperationException(String.format("Cannot write to %s at 0x%08X", findRegion(addr).name(), addr));
+            case ILLEGAL_INSTRUCTION -> new IllegalStateException(String.format("Illegal instruction at 0x%08X", addr));
+        };
+    }
+
+    /**
+     * Whether accesses starting at {@code addr} go through a watchpoint trap.
+     */
+    public boolean isTrapped(int addr) {
+        return (trappedPages.get(addr >>> (PAGE_SHIFT + 6)) & 1L << (addr >>> PAGE_SHIFT)) != 0;
+    }
+
+    /**
+     * Writes {@code value} to {@code count} consecutive words starting at {@code addr}, with the same
+     * effect as that many {@link #writeWord} calls. Ranges inside RAM or VRAM are filled in one go
+     * unless they reach a watched page.
+     */
+    public void fill(int addr, int value, int count) {
+        if (count <= 0) return;
+        long length = count * 4L;
+        Memory region = writableRegion(addr, length);
+        if (region == null) {
+            for (int i = 0; i < count && faultCause == null; i++) { // stops at the first fault
+                writeWord(addr + i * 4, value);
+            }
+            return;
+        }
+        region.fill(addr, value, count);
+        notifyWrite(addr, (int) length);
+    }
+
+    /**
+     * Copies {@code count} words from {@code src} to {@code dst} with MCPY semantics: overlapping ranges
+     * behave like memmove. Ranges that each lie inside one region are copied in one go; anything
+     * spanning regions, touching IO or reaching a watched page is copied word by word.
+     */
+    public void copy(int dst, int src, int count) {
+        if (count <= 0) return;
+        long length = count * 4L;
+        Memory target = writableRegion(dst, length);
+        Memory source = target == null ? null : readableRegion(src, length);
+        if (source == null) {
+            copyWords(dst, src, count);
+            return;
+        }
+        target.copy(dst, source, src, count);
+        notifyWrite(dst, (int) length);
+    }
+
+    // stops at the first fault, leaving the words before it copied
+    private void copyWords(int dst, int src, int count) {
+        if (dst > src && dst < src + count * 4) {
+            for (int i = count - 1; i >= 0; i--) {
+                if (!copyWord(dst + i * 4, src + i * 4)) return;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                if (!copyWord(dst + i * 4, src + i * 4)) return;
+            }
+        }
+    }
+
+    private boolean copyWord(int dst, int src) {
+        int value = readWord(src);
+        if (faultCause == null) writeWord(dst, value);
+        return faultCause == null;
+    }
+
+    /**
+     * Restores {@code region} (ROM, RAM or VRAM) to {@code image}, notifying write listeners of every
+     * page that changed so decoded and compiled code over them is dropped.
+     */
+    public void restore(Memory region, MemoryImage image) {
+        region.restore(image, this::notifyWrite);
+    }
+
+    /**
+     * Loads {@code bytes} at {@code addr} into ROM, RAM or VRAM, writing only the bytes that differ and
+     * notifying write listeners of just those, so code that did not change keeps its caches. Like a
+     * loader it ignores write protection and watchpoints. The range must lie inside one region.
+     */
+    public void patch(int addr, byte[] bytes) {
+        MemoryRegion region = findRegion(addr);
+        if (region == null || region.access() == MemoryRegion.Access.DEVICE || !(region.handler() instanceof Memory memory)
+                || !region.contains(addr, bytes.length)) {
+            throw new IllegalArgumentException(String.format("0x%08X+%d does not lie inside one memory region", addr, bytes.length));
+        }
+        memory.patch(addr, bytes, this::notifyWrite);
+    }
+
+    public synchronized void addWriteListener(MemoryWriteListener listener) {
+        MemoryWriteListener[] listeners = Arrays.copyOf(writeListeners, writeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        writeListeners = listeners;
+    }
+
+    public synchronized void removeWriteListener(MemoryWriteListener listener) {
+        MemoryWriteListener[] listeners = writeListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                MemoryWriteListener[] remaining = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+                writeListeners = remaining;
+                return;
+            }
+        }
+    }
+
+    private void notifyWrite(int addr, int length) {
+        for (MemoryWriteListener listener : writeListeners) {
+            listener.onWrite(addr, length);
+        }
     }
 
-    private boolean inRange(int addr, Memory mem) {
-        return addr >= mem.getBaseAddress() && addr < mem.getBaseAddress() + mem.getSize();
+    /**
+     * Dispatches {@code page} to a trap reporting {@code watchpoints}, or back to its region if there are none.
+     * The change is published with a new page table, so it may be called while the CPU runs on another thread.
+     */
+    synchronized void trap(int page, Watchpoints owner, Watchpoint[] watchpoints) {
+        if (page >= pages.length || pages[page] == null) return; // unmapped, every access fails anyway
+        MemoryRegion region = pages[page];
+        if (region == SHARED) {
+            throw new IllegalArgumentException(String.format("Cannot watch page 0x%08X, it is shared by several regions", page << PAGE_SHIFT));
+        }
+        if (region.handler() instanceof WatchedPage trapped) {
+            region = trapped.getRegion();
+        }
+        boolean wasTrapped = (trappedPages.get(page >>> 6) & 1L << page) != 0;
+        MemoryRegion[] table = pages.clone();
+        if (watchpoints.length == 0) {
+            // untrap the page before the fast paths in the engines may use it again
+            table[page] = region;
+            pages = table;
+            trappedPages.getAndUpdate(page >>> 6, bits -> bits & ~(1L << page));
+            if (wasTrapped) trappedPageCount--;
+        } else {
+            // mark the page first, so the fast paths leave it to the trap once it is installed
+            trappedPages.getAndUpdate(page >>> 6, bits -> bits | 1L << page);
+            if (!wasTrapped) trappedPageCount++;
+            table[page] = new MemoryRegion(region.name(), new WatchedPage(region, owner, watchpoints), region.access());
+            pages = table;
+        }
     }
 
-    private boolean inRange(int addr, IODeviceManager io) {
-        return addr >= io.getBaseAddress() && addr < io.getBaseAddress() + io.getSize();
+    boolean isShared(int page) {
+        MemoryRegion[] table = pages;
+        return page < table.length && table[page] == SHARED;
     }
 
-    private IllegalArgumentException invalidRead(int addr) {
-        return new IllegalArgumentException(String.format("Invalid memory read at 0x%08X", addr));
+    // plain memory region holding all of [addr, addr + length) with no watched page, or null
+    private Memory writableRegion(int addr, long length) {
+        MemoryRegion region = route(addr);
+        if (region == null || region.access() != MemoryRegion.Access.READ_WRITE) return null;
+        return region.handler() instanceof Memory memory && region.contains(addr, length) && !anyTrapped(addr, length) ? memory : null;
     }
 
-    private IllegalArgumentException invalidWrite(int addr) {
-        return new IllegalArgumentException(String.format("Invalid memory write at 0x%08X", addr));
+    // plain or read-only memory region holding all of [addr, addr + length) with no watched page, or null
+    private Memory readableRegion(int addr, long length) {
+        MemoryRegion region = route(addr);
+        if (region == null || region.access() == MemoryRegion.Access.DEVICE) return null;
+        return region.handler() instanceof Memory memory && region.contains(addr, length) && !anyTrapped(addr, length) ? memory : null;
     }
 
-    private UnsupportedOperationException romWriteError(int addr) {
-        return new UnsupportedOperationException(String.format("Cannot write to ROM at 0x%08X", addr));
+    // the first page is already known not to be trapped, its region handler is plain memory
+    private boolean anyTrapped(int addr, long length) {
+        if (trappedPageCount == 0) return false;
+        int lastPage = (int) ((Integer.toUnsignedLong(addr) + length - 1) >>> PAGE_SHIFT);
+        for (int page = (addr >>> PAGE_SHIFT) + 1; page <= lastPage; page++) {
+            if ((trappedPages.get(page >>> 6) & 1L << page) != 0) return true;
+        }
+        return false;
     }
 }
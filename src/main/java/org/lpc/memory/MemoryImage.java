@@ -0,0 +1,45 @@
+package org.lpc.memory;
+
+/**
+ * The contents of a {@link Memory} region at one point in time, held as 4 KB pages.
+ *
+ * Pages are never written once they belong to an image, so images, and memories restored from
+ * them, can share pages instead of copying them. A null page reads as zero.
+ */
+public final class MemoryImage {
+    static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private final int baseAddress;
+    private final int size;
+    final byte[][] pages;
+
+    MemoryImage(int baseAddress, int size, byte[][] pages) {
+        this.baseAddress = baseAddress;
+        this.size = size;
+        this.pages = pages;
+    }
+
+    static int pageCount(int size) {
+        return (int) (((long) size + PAGE_SIZE - 1) >>> PAGE_SHIFT);
+    }
+
+    public int getBaseAddress() {
+        return baseAddress;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes held in pages that are not all zero.
+     */
+    public long getStoredBytes() {
+        long stored = 0;
+        for (byte[] page : pages) {
+            if (page != null) stored += PAGE_SIZE;
+        }
+        return stored;
+    }
+}
@@ -1,6 +1,12 @@
 package org.lpc.memory;
 
 public interface MemoryMap {
+    // region names on the bus, also used to pick a backend
+    String ROM = "ROM";
+    String RAM = "RAM";
+    String VRAM = "VRAM";
+    String IO = "IO";
+
     int getBootRomStart();
     int getBootRomSize();
     int getSyscallTableStart();
@@ -8,6 +14,13 @@ public interface MemoryMap {
     int getSyscallCodeStart();
     int getSyscallCodeSize();
 
+    /**
+     * ROM word holding the address of the guest fault handler, 0 if there is none.
+     */
+    default int getFaultVector() {
+        return getSyscallTableStart() - 4;
+    }
+
     int getRamStart();
     int getRamSize();
     int getVramStart();
@@ -25,6 +38,13 @@ public interface MemoryMap {
     int getHeapStart();
     int getHeapSize();
 
+    /**
+     * Returns the backend that stores the ROM, RAM or VRAM region.
+     */
+    default MemoryBackend getBackend(String region) {
+        return MemoryBackend.heap();
+    }
+
     enum VramFormat {
         RAW_BYTES,
         RGBA32,
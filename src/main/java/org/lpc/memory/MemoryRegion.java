@@ -0,0 +1,23 @@
+package org.lpc.memory;
+
+/**
+ * An address range of the {@link MemoryBus}, served by one handler with the access the bus allows on it.
+ */
+public record MemoryRegion(String name, MemoryHandler handler, Access access) {
+    public enum Access {
+        READ_ONLY,  // writes through the bus are rejected
+        READ_WRITE, // plain memory, writes are reported to write listeners
+        DEVICE      // memory-mapped IO, word writes only and never reported
+    }
+
+    public boolean contains(int addr) {
+        return addr >= handler.getBaseAddress() && addr < handler.getBaseAddress() + handler.getSize();
+    }
+
+    /**
+     * Whether [addr, addr + length) lies entirely inside this region.
+     */
+    public boolean contains(int addr, long length) {
+        return contains(addr) && addr + length <= (long) handler.getBaseAddress() + handler.getSize();
+    }
+}
@@ -0,0 +1,6 @@
+package org.lpc.memory;
+
+@FunctionalInterface
+public interface MemoryWriteListener {
+    void onWrite(int addr, int length);
+}
@@ -0,0 +1,206 @@
+package org.lpc.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memory held in 4 KB heap pages that are allocated on the first write.
+ *
+ * Untouched pages read as zero, so a region only costs host memory for the pages the guest
+ * has written. Filling an untouched page with zero leaves it unallocated.
+ *
+ * Snapshots are copy-on-write: a {@link MemoryImage} takes the page table and the pages become
+ * shared, so the next write to each one copies it first. Restoring an image puts its pages
+ * back the same way, touching only the pages that were replaced since.
+ */
+public class SparseMemory extends Memory {
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final int PAGE_SHIFT = MemoryImage.PAGE_SHIFT;
+    private static final int PAGE_SIZE = MemoryImage.PAGE_SIZE;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final byte[][] pages;
+    private final long[] shared; // pages owned by an image, copied before they are written
+
+    public SparseMemory(int baseAddress, int size) {
+        super(baseAddress, size);
+        this.pages = new byte[MemoryImage.pageCount(size)][];
+        this.shared = new long[(pages.length + 63) >>> 6];
+    }
+
+    /**
+     * Returns the number of bytes held in allocated pages, including pages shared with images.
+     */
+    public long getAllocatedBytes() {
+        long allocated = 0;
+        for (byte[] page : pages) {
+            if (page != null) allocated += PAGE_SIZE;
+        }
+        return allocated;
+    }
+
+    @Override
+    public MemoryImage snapshot() {
+        Arrays.fill(shared, -1L);
+        return new MemoryImage(getBaseAddress(), getSize(), pages.clone());
+    }
+
+    @Override
+    public void restore(MemoryImage image, MemoryWriteListener changed) {
+        checkImage(image);
+        byte[] zero = new byte[PAGE_SIZE];
+        for (int page = 0; page < pages.length; page++) {
+            if (pages[page] == image.pages[page]) continue;
+            byte[] current = pages[page] == null ? zero : pages[page];
+            byte[] restored = image.pages[page] == null ? zero : image.pages[page];
+            pages[page] = image.pages[page];
+
+            int first = Arrays.mismatch(current, restored);
+            if (first >= 0) {
+                int end = changedEnd(current, restored, PAGE_SIZE);
+                changed.onWrite(getBaseAddress() + (page << PAGE_SHIFT) + first, end - first);
+            }
+        }
+        Arrays.fill(shared, -1L);
+    }
+
+    @Override
+    public int readWord(int addr) {
+        int offset = addr - getBaseAddress();
+        if (offset >= 0 && offset <= getSize() - 4 && (offset & PAGE_MASK) <= PAGE_SIZE - 4) {
+            byte[] page = pages[offset >>> PAGE_SHIFT];
+            return page == null ? 0 : (int) WORD.get(page, offset & PAGE_MASK);
+        }
+        // words crossing a page or running off either end go byte by byte
+        offset = toOffset(addr);
+        return (byteAt(offset) & 0xFF) |
+                ((byteAt(offset + 1) & 0xFF) << 8) |
+                ((byteAt(offset + 2) & 0xFF) << 16) |
+                ((byteAt(offset + 3) & 0xFF) << 24);
+    }
+
+    @Override
+    public void writeWord(int addr, int value) {
+        int offset = addr - getBaseAddress();
+        if (offset >= 0 && offset <= getSize() - 4 && (offset & PAGE_MASK) <= PAGE_SIZE - 4) {
+            WORD.set(page(offset), offset & PAGE_MASK, value);
+            return;
+        }
+        offset = toOffset(addr);
+        putByte(offset, (byte) value);
+        putByte(offset + 1, (byte) (value >>> 8));
+        putByte(offset + 2, (byte) (value >>> 16));
+        putByte(offset + 3, (byte) (value >>> 24));
+    }
+
+    @Override
+    public void fill(int addr, int value, int count) {
+        if (count <= 0) return;
+        int offset = toOffset(addr);
+        int end = toOffset(addr + count * 4 - 1) + 1;
+
+        byte low = (byte) value;
+        boolean uniform = value == (low & 0xFF) * 0x01010101;
+        for (int chunk = offset; chunk < end; ) {
+            int length = Math.min(end - chunk, PAGE_SIZE - (chunk & PAGE_MASK));
+            if (!uniform || low != 0 || pages[chunk >>> PAGE_SHIFT] != null) {
+                byte[] page = page(chunk);
+                int start = chunk & PAGE_MASK;
+                if (uniform) {
+                    Arrays.fill(page, start, start + length, low);
+                } else {
+                    // one word of the pattern, starting at the byte this chunk falls on, then doubled
+                    int phase = (chunk - offset) & 3;
+                    for (int i = 0; i < Math.min(4, length); i++) {
+                        page[start + i] = (byte) (value >>> (((phase + i) & 3) * 8));
+                    }
+                    for (int filled = 4; filled < length; filled *= 2) {
+                        System.arraycopy(page, start, page, start + filled, Math.min(filled, length - filled));
+                    }
+                }
+            }
+            chunk += length;
+        }
+    }
+
+    @Override
+    public void copy(int dst, Memory source, int src, int count) {
+        if (count <= 0) return;
+        int length = count * 4;
+        source.toOffset(src, length);
+        toOffset(dst, length);
+        if (source == this) {
+            // the ranges may overlap
+            byte[] bytes = new byte[length];
+            readBytes(src, bytes, 0, length);
+            writeBytes(dst, bytes, 0, length);
+            return;
+        }
+        int offset = dst - getBaseAddress();
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, PAGE_SIZE - ((offset + done) & PAGE_MASK));
+            source.readBytes(src + done, page(offset + done), (offset + done) & PAGE_MASK, chunk);
+            done += chunk;
+        }
+    }
+
+    @Override
+    public void readBytes(int addr, byte[] dst, int offset, int length) {
+        if (length <= 0) return;
+        int from = toOffset(addr, length);
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, PAGE_SIZE - ((from + done) & PAGE_MASK));
+            byte[] page = pages[(from + done) >>> PAGE_SHIFT];
+            if (page == null) {
+                Arrays.fill(dst, offset + done, offset + done + chunk, (byte) 0);
+            } else {
+                System.arraycopy(page, (from + done) & PAGE_MASK, dst, offset + done, chunk);
+            }
+            done += chunk;
+        }
+    }
+
+    @Override
+    public void writeBytes(int addr, byte[] src, int offset, int length) {
+        if (length <= 0) return;
+        int to = toOffset(addr, length);
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, PAGE_SIZE - ((to + done) & PAGE_MASK));
+            System.arraycopy(src, offset + done, page(to + done), (to + done) & PAGE_MASK, chunk);
+            done += chunk;
+        }
+    }
+
+    @Override
+    public byte readByte(int addr) {
+        return byteAt(toOffset(addr));
+    }
+
+    @Override
+    public void writeByte(int addr, byte val) {
+        putByte(toOffset(addr), val);
+    }
+
+    private byte byteAt(int offset) {
+        byte[] page = pages[checkIndex(offset) >>> PAGE_SHIFT];
+        return page == null ? 0 : page[offset & PAGE_MASK];
+    }
+
+    private void putByte(int offset, byte val) {
+        page(checkIndex(offset))[offset & PAGE_MASK] = val;
+    }
+
+    // the page holding offset, allocated or unshared so it can be written
+    private byte[] page(int offset) {
+        int index = offset >>> PAGE_SHIFT;
+        byte[] page = pages[index];
+        if (page == null || (shared[index >>> 6] & 1L << index) != 0) {
+            page = page == null ? new byte[PAGE_SIZE] : page.clone();
+            pages[index] = page;
+            shared[index >>> 6] &= ~(1L << index);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,87 @@
+package org.lpc.memory;
+
+import lombok.Getter;
+
+/**
+ * Handler the bus dispatches a watched page to. Every access is forwarded to the region's own
+ * handler; the ones overlapping a watchpoint of the page are reported to its {@link Watchpoints}.
+ */
+final class WatchedPage implements MemoryHandler {
+    @Getter
+    private final MemoryRegion region;
+    private final MemoryHandler target;
+    private final Watchpoints owner;
+    private final Watchpoint[] watchpoints;
+
+    WatchedPage(MemoryRegion region, Watchpoints owner, Watchpoint[] watchpoints) {
+        this.region = region;
+        this.target = region.handler();
+        this.owner = owner;
+        this.watchpoints = watchpoints;
+    }
+
+    @Override
+    public int readWord(int addr) {
+        int value = target.readWord(addr);
+        if (matches(addr, 4, false)) {
+            report(addr, 4, false, value, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void writeWord(int addr, int val) {
+        if (!matches(addr, 4, true)) {
+            target.writeWord(addr, val);
+            return;
+        }
+        int old = region.access() == MemoryRegion.Access.DEVICE ? 0 : target.readWord(addr);
+        target.writeWord(addr, val);
+        report(addr, 4, true, old, val);
+    }
+
+    @Override
+    public byte readByte(int addr) {
+        byte value = target.readByte(addr);
+        if (matches(addr, 1, false)) {
+            report(addr, 1, false, value & 0xFF, value & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public void writeByte(int addr, byte val) {
+        if (!matches(addr, 1, true)) {
+            target.writeByte(addr, val);
+            return;
+        }
+        int old = target.readByte(addr) & 0xFF;
+        target.writeByte(addr, val);
+        report(addr, 1, true, old, val & 0xFF);
+    }
+
+    @Override
+    public int getBaseAddress() {
+        return target.getBaseAddress();
+    }
+
+    @Override
+    public int getSize() {
+        return target.getSize();
+    }
+
+    private boolean matches(int addr, int length, boolean write) {
+        for (Watchpoint watchpoint : watchpoints) {
+            if (watchpoint.matches(addr, length, write)) return true;
+        }
+        return false;
+    }
+
+    private void report(int addr, int length, boolean write, int oldValue, int newValue) {
+        for (Watchpoint watchpoint : watchpoints) {
+            if (watchpoint.matches(addr, length, write)) {
+                owner.hit(watchpoint, addr, oldValue, newValue);
+            }
+        }
+    }
+}
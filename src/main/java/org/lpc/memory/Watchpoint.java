@@ -0,0 +1,36 @@
+package org.lpc.memory;
+
+/**
+ * A watched guest address range [address, address + length) and the accesses that trigger it.
+ */
+public record Watchpoint(int address, int length, Type type) {
+    public enum Type {
+        READ,   // reads only
+        WRITE,  // writes only
+        ACCESS  // reads and writes
+    }
+
+    public Watchpoint {
+        if (length <= 0 || (long) address + length > 0x1_0000_0000L) {
+            throw new IllegalArgumentException(String.format("Invalid watchpoint range of %d bytes at 0x%08X", length, address));
+        }
+    }
+
+    /**
+     * Whether an access of {@code length} bytes at {@code addr} triggers this watchpoint.
+     */
+    public boolean matches(int addr, int length, boolean write) {
+        return type != (write ? Type.READ : Type.WRITE) && overlaps(addr, length);
+    }
+
+    public boolean overlaps(int addr, long length) {
+        long start = Integer.toUnsignedLong(address);
+        long accessStart = Integer.toUnsignedLong(addr);
+        return accessStart < start + this.length && start < accessStart + length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s 0x%08X-0x%08X", type, address, address + length - 1);
+    }
+}
@@ -0,0 +1,12 @@
+package org.lpc.memory;
+
+@FunctionalInterface
+public interface WatchpointListener {
+    /**
+     * Called on the CPU thread after the access, with {@code addr} and the values as the access saw them:
+     * a word or a zero-extended byte. Reads report the value read as both values, and writes to IO
+     * devices report 0 as the old value since device registers are not read back.
+     * {@code pc} already points past the accessing instruction.
+     */
+    void onHit(Watchpoint watchpoint, int addr, int oldValue, int newValue, int pc);
+}
@@ -0,0 +1,113 @@
+package org.lpc.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Read and write watchpoints on guest addresses.
+ *
+ * Only the pages a watchpoint can be reached from are trapped in the {@link MemoryBus} page table;
+ * accesses to every other page are dispatched exactly as without watchpoints. The JIT and the fused
+ * PUSH/POP runs leave trapped pages to the interpreter, so listeners see the registers as of the
+ * access. Instruction fetch and debugger views read through {@link MemoryBus#peekWord} and never
+ * trigger a watchpoint.
+ *
+ * Watchpoints can be added and removed from any thread while the CPU runs: the bus publishes each
+ * change with a new page table, so the CPU thread sees it no later than its next access to the page.
+ */
+public class Watchpoints {
+    private static final int PAGE_SIZE = 1 << MemoryBus.PAGE_SHIFT;
+
+    private final MemoryBus memory;
+    private final IntSupplier programCounter;
+    private final List<Watchpoint> watchpoints = new ArrayList<>();
+    private final List<WatchpointListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong hitCount = new AtomicLong(); // counted on the CPU thread, read by debugger views
+
+    public Watchpoints(MemoryBus memory, IntSupplier programCounter) {
+        this.memory = memory;
+        this.programCounter = programCounter;
+    }
+
+    public Watchpoint add(int address, int length, Watchpoint.Type type) {
+        return add(new Watchpoint(address, length, type));
+    }
+
+    /**
+     * Starts watching. The start address must be mapped, and the pages the range is reached from must
+     * each belong to a single region.
+     */
+    public synchronized Watchpoint add(Watchpoint watchpoint) {
+        if (memory.findRegion(watchpoint.address()) == null) {
+            throw new IllegalArgumentException(String.format("Cannot watch unmapped address 0x%08X", watchpoint.address()));
+        }
+        for (int page = firstPage(watchpoint); page <= lastPage(watchpoint); page++) {
+            if (memory.isShared(page)) {
+                throw new IllegalArgumentException(String.format("Cannot watch %s, page 0x%08X is shared by several regions",
+                        watchpoint, page << MemoryBus.PAGE_SHIFT));
+            }
+        }
+        watchpoints.add(watchpoint);
+        retrap(watchpoint);
+        return watchpoint;
+    }
+
+    public synchronized boolean remove(Watchpoint watchpoint) {
+        if (!watchpoints.remove(watchpoint)) return false;
+        retrap(watchpoint);
+        return true;
+    }
+
+    public synchronized void clear() {
+        List<Watchpoint> removed = new ArrayList<>(watchpoints);
+        watchpoints.clear();
+        removed.forEach(this::retrap);
+    }
+
+    public synchronized List<Watchpoint> getWatchpoints() {
+        return List.copyOf(watchpoints);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public void addListener(WatchpointListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(WatchpointListener listener) {
+        listeners.remove(listener);
+    }
+
+    void hit(Watchpoint watchpoint, int addr, int oldValue, int newValue) {
+        hitCount.incrementAndGet();
+        int pc = programCounter.getAsInt();
+        for (WatchpointListener listener : listeners) {
+            listener.onHit(watchpoint, addr, oldValue, newValue, pc);
+        }
+    }
+
+    // re-dispatches the pages of a watchpoint that was added or removed
+    private void retrap(Watchpoint changed) {
+        for (int page = firstPage(changed); page <= lastPage(changed); page++) {
+            int start = page << MemoryBus.PAGE_SHIFT;
+            Watchpoint[] onPage = watchpoints.stream()
+                    .filter(w -> w.overlaps(start, PAGE_SIZE + 3))
+                    .toArray(Watchpoint[]::new);
+            memory.trap(page, this, onPage);
+        }
+    }
+
+    // a word access starting up to 3 bytes before the range is dispatched by the page it starts on
+    private static int firstPage(Watchpoint watchpoint) {
+        return (int) (Math.max(0, Integer.toUnsignedLong(watchpoint.address()) - 3) >>> MemoryBus.PAGE_SHIFT);
+    }
+
+    private static int lastPage(Watchpoint watchpoint) {
+        return (int) ((Integer.toUnsignedLong(watchpoint.address()) + watchpoint.length() - 1) >>> MemoryBus.PAGE_SHIFT);
+    }
+}
@@ -1,54 +1,116 @@
 package org.lpc.memory.io;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.NoArgsConstructor;
 import org.lpc.memory.MemoryHandler;
 import org.lpc.visualization.debug.TablePrinter;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
+/**
+ * Dispatches the IO window to the registered devices.
+ *
+ * Every byte offset of the window has a slot naming the device that handles it, so a read or
+ * write is one array load. Devices can be registered and unregistered while the CPU runs: the
+ * slot array is copied, changed and published as a whole, so dispatch never sees a partial update.
+ */
 @Getter
 public class IODeviceManager implements MemoryHandler {
-    private final NavigableMap<Integer, IODevice> addressMap = new TreeMap<>();
     private final int size;
     private final int baseAddress;
-    private int currentOffset = 0;
+    private int currentOffset = 0; // just past the highest registered device
+    @Getter(AccessLevel.NONE)
+    private volatile IODevice[] slots;
+    @Getter(AccessLevel.NONE)
+    private volatile List<IODevice> devices = List.of();
 
     public IODeviceManager(int baseAddress, int size) {
         this.baseAddress = baseAddress;
         this.size = size;
+        this.slots = new IODevice[size];
     }
 
-    public void register(IODevice device) {
-        currentOffset += device.getSize();
-        for (int addr = baseAddress; addr < baseAddress + size; addr++) {
-            if (device.handles(addr)) {
-                addressMap.put(addr, device);
+    /**
+     * Maps {@code device} at the addresses in its range that it {@link IODevice#handles handles}.
+     * The range must lie inside the IO window and must not overlap another device.
+     */
+    public synchronized void register(IODevice device) {
+        long start = device.getBaseAddress() - (long) baseAddress;
+        long end = start + device.getSize();
+        if (start < 0 || end > size || start >= end) {
+            throw new IllegalArgumentException(String.format("Device %s at 0x%08X-0x%08X is outside the IO window 0x%08X-0x%08X",
+                    device.getClass().getSimpleName(), device.getBaseAddress(), device.getBaseAddress() + device.getSize() - 1,
+                    baseAddress, baseAddress + size - 1));
+        }
+
+        IODevice[] updated = slots.clone();
+        for (int offset = (int) start; offset < end; offset++) {
+            if (!device.handles(baseAddress + offset)) continue;
+            if (updated[offset] != null) {
+                IODevice other = updated[offset];
+                throw new IllegalArgumentException(String.format("Device %s at 0x%08X overlaps %s at 0x%08X-0x%08X",
+                        device.getClass().getSimpleName(), baseAddress + offset, other.getClass().getSimpleName(),
+                        other.getBaseAddress(), other.getBaseAddress() + other.getSize() - 1));
             }
+            updated[offset] = device;
+        }
+
+        List<IODevice> registered = new ArrayList<>(devices);
+        registered.add(device);
+        registered.sort(Comparator.comparingInt(IODevice::getBaseAddress));
+        devices = List.copyOf(registered);
+        slots = updated;
+        currentOffset = Math.max(currentOffset, (int) end);
+    }
+
+    /**
+     * Removes {@code device}; its addresses read as zero and ignore writes afterwards, and
+     * {@code currentOffset} moves back if it was the highest device. Returns false if it was not registered.
+     */
+    public synchronized boolean unregister(IODevice device) {
+        if (!devices.contains(device)) return false;
+
+        IODevice[] updated = slots.clone();
+        for (int offset = 0; offset < updated.length; offset++) {
+            if (updated[offset] == device) updated[offset] = null;
+        }
+        List<IODevice> registered = new ArrayList<>(devices);
+        registered.remove(device);
+        devices = List.copyOf(registered);
+        slots = updated;
+        currentOffset = 0;
+        for (IODevice remaining : registered) {
+            currentOffset = Math.max(currentOffset, remaining.getBaseAddress() - baseAddress + remaining.getSize());
         }
+        return true;
+    }
+
+    // the device handling addr, or null
+    private IODevice deviceAt(int addr) {
+        IODevice[] current = slots;
+        int offset = addr - baseAddress;
+        return offset >= 0 && offset < current.length ? current[offset] : null;
     }
 
     public int readWord(int addr) {
-        var device = addressMap.get(addr);
+        var device = deviceAt(addr);
         return device != null ? device.readWord(addr) : 0;
     }
 
     public void writeWord(int addr, int val) {
-        var device = addressMap.get(addr);
+        var device = deviceAt(addr);
         if (device != null) device.writeWord(addr, val);
     }
 
     public byte readByte(int addr) {
-        var device = addressMap.get(addr);
+        var device = deviceAt(addr);
         return device != null ? device.readByte(addr) : 0;
     }
 
     public void writeByte(int addr, byte val) {
-        var device = addressMap.get(addr);
+        var device = deviceAt(addr);
         if (device != null) device.writeByte(addr, val);
     }
 
@@ -111,7 +173,7 @@ public class IODeviceManager implements MemoryHandler {
     }
 
     public List<IODevice> getRegisteredDevices() {
-        return new ArrayList<>(addressMap.values().stream().distinct().toList());
+        return new ArrayList<>(devices);
     }
 
 }
@@ -10,6 +10,7 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import org.lpc.CPU;
+import org.lpc.memory.FaultCause;
 import org.lpc.util.Colors;
 import org.lpc.util.Fonts;
 import org.lpc.util.Styles;
@@ -20,6 +21,7 @@ public class CpuViewer {
     private final Label programCounterLabel = Styles.valueLabel();
     private final Label stackPointerLabel = Styles.valueLabel();
     private final Label heapPointerLabel = Styles.valueLabel();
+    private final Label faultCauseLabel = Styles.valueLabel();
     private final Label flagsLabel = Styles.flagLabel();
     private long lastUpdate = 0;
 
@@ -97,6 +99,7 @@ public class CpuViewer {
         addControlRow(grid, "Program Counter (PC):", programCounterLabel, 0);
         addControlRow(grid, "Stack Pointer (SP):", stackPointerLabel, 1);
         addControlRow(grid, "Heap Pointer (HP):", heapPointerLabel, 2);
+        addControlRow(grid, "Fault Cause (FC):", faultCauseLabel, 3);
 
         ColumnConstraints c1 = new ColumnConstraints();
         c1.setMinWidth(150);
@@ -143,6 +146,8 @@ public class CpuViewer {
             programCounterLabel.setText(String.format("0x%08X", cpu.getProgramCounter()));
             stackPointerLabel.setText(String.format("0x%08X", cpu.getStackPointer()));
             heapPointerLabel.setText(String.format("0x%08X", cpu.getHeapPointer()));
+            FaultCause cause = FaultCause.fromCode(cpu.getRegister(CPU.FC));
+            faultCauseLabel.setText(cause == null ? String.format("0x%08X", cpu.getRegister(CPU.FC)) : cause.toString());
 
             var flags = cpu.getFlags();
             StringBuilder str = new StringBuilder();
@@ -18,8 +18,12 @@ import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import org.lpc.CPU;
 import org.lpc.instructions.InstructionSet;
+import org.lpc.memory.DirtyTracker;
 import org.lpc.memory.MemoryBus;
 import org.lpc.memory.MemoryMap;
+import org.lpc.memory.Watchpoint;
+import org.lpc.memory.WatchpointListener;
+import org.lpc.memory.Watchpoints;
 import org.lpc.util.Colors;
 import org.lpc.util.Fonts;
 import org.lpc.util.Styles;
@@ -31,6 +35,7 @@ public class MemoryViewer {
 
     private static final int ROW_SIZE = 4;
     private static final int ROWS_TO_SHOW = 16;
+    private static final int PC_HIGHLIGHT_BYTES = 16; // the PC row and the rows after it
 
     private final CPU cpu;
     private final InstructionSet instructionSet;
@@ -38,6 +43,13 @@ public class MemoryViewer {
     private final MemoryMap memoryMap;
 
     private final Map<String, Integer> memorySections = new LinkedHashMap<>();
+    private final DirtyTracker dirtyPages;
+    private final Watchpoints watchpoints;
+    private final WatchpointListener watchpointListener;
+    private volatile WatchpointHit lastHit; // written on the CPU thread, shown by the refresh timer
+
+    private AnimationTimer timer;
+    private int shownPc; // PC the table rows were highlighted for
 
     private int currentAddress;
     private ViewMode viewMode = ViewMode.HEX;
@@ -54,6 +66,12 @@ public class MemoryViewer {
         this.memory = cpu.getMemory();
         this.memoryMap = cpu.getMemoryMap();
 
+        this.dirtyPages = new DirtyTracker(memory, 0, memoryMap.getTotalMemorySize(), 12);
+        this.watchpoints = cpu.getWatchpoints();
+        this.watchpointListener = (watchpoint, addr, oldValue, newValue, pc) ->
+                lastHit = new WatchpointHit(watchpoint, addr, oldValue, newValue, pc);
+        watchpoints.addListener(watchpointListener);
+
         initMemorySections();
         currentAddress = memoryMap.getProgramStart();
     }
@@ -93,6 +111,7 @@ public class MemoryViewer {
         stage.setScene(scene);
         stage.setTitle("Memory Viewer - Debug Monitor");
         stage.setResizable(false);
+        stage.setOnHidden(e -> close());
         stage.show();
 
         startAutoRefresh();
@@ -103,12 +122,38 @@ public class MemoryViewer {
         statusBar.refresh();
     }
 
+    // re-reads the table only when the shown rows or their PC highlight may have changed;
+    // IO devices change without bus writes
+    private void refreshIfChanged() {
+        boolean showsIo = isShown(memoryMap.getIoStart(), memoryMap.getIoSize());
+        int pc = cpu.getProgramCounter();
+        boolean highlightMoved = pc != shownPc && (isShown(pc, PC_HIGHLIGHT_BYTES) || isShown(shownPc, PC_HIGHLIGHT_BYTES));
+        if (dirtyPages.fetchAndClear(currentAddress, ROWS_TO_SHOW * ROW_SIZE) || showsIo || highlightMoved) {
+            tableSection.refresh();
+        }
+        statusBar.refresh();
+    }
+
+    private boolean isShown(int addr, int length) {
+        return Integer.compareUnsigned(addr, currentAddress + ROWS_TO_SHOW * ROW_SIZE) < 0
+                && Integer.compareUnsigned(addr + length, currentAddress) > 0;
+    }
+
+    // stops refreshing and detaches from the bus and the watchpoints
+    private void close() {
+        if (timer != null) {
+            timer.stop();
+        }
+        dirtyPages.close();
+        watchpoints.removeListener(watchpointListener);
+    }
+
     private void startAutoRefresh() {
-        AnimationTimer timer = new AnimationTimer() {
+        timer = new AnimationTimer() {
             @Override
             public void handle(long now) {
                 if (now - lastUpdate >= 25_000_000) {
-                    refresh();
+                    refreshIfChanged();
                     lastUpdate = now;
                 }
             }
@@ -125,6 +170,8 @@ public class MemoryViewer {
 
     private enum ViewMode { HEX, BITS, NUM }
 
+    private record WatchpointHit(Watchpoint watchpoint, int addr, int oldValue, int newValue, int pc) {}
+
     private static class MemoryRow {
         private final SimpleStringProperty address;
         private final SimpleStringProperty bytes;
@@ -186,12 +233,12 @@ public class MemoryViewer {
                 TableRow<MemoryRow> row = new TableRow<>();
                 row.itemProperty().addListener((obs, oldItem, newItem) -> {
                     if (newItem != null) {
-                        int pc = cpu.getProgramCounter();
+                        int pc = shownPc;
                         int memAddr = Integer.parseInt(newItem.getAddress().replace("0x", ""), 16);
 
                         if (memAddr == pc) {
                             row.setStyle(Styles.highlightRow());
-                        } else if (memAddr >= pc && memAddr < pc + 16) {
+                        } else if (memAddr >= pc && memAddr < pc + PC_HIGHLIGHT_BYTES) {
                             row.setStyle(Styles.faintHighlightRow());
                         } else {
                             row.setStyle(Styles.monoRow());
@@ -210,6 +257,7 @@ public class MemoryViewer {
         }
 
         public void refresh() {
+            shownPc = cpu.getProgramCounter();
             table.setItems(new MemoryRenderer().render());
         }
     }
@@ -218,7 +266,8 @@ public class MemoryViewer {
         private final Label addressLabel = new Label();
         private final Label memoryLabel = new Label();
         private final Label pcLabel = new Label();
-        private final HBox bar;
+        private final Label watchLabel = new Label();
+        private final VBox bar;
 
         public StatusBar() {
             addressLabel.setFont(Fonts.MONO);
@@ -230,14 +279,19 @@ public class MemoryViewer {
             pcLabel.setFont(Fonts.MONO);
             pcLabel.setTextFill(Color.web(Colors.ACCENT));
 
-            bar = new HBox(15,
+            watchLabel.setFont(Fonts.MONO);
+            watchLabel.setTextFill(Color.web(Colors.MUTED));
+
+            HBox line = new HBox(15,
                     new Label("📍 Current View:"), addressLabel,
                     createSeparator(),
                     new Label("💾 Memory:"), memoryLabel,
                     createSeparator(),
                     pcLabel
             );
-            bar.setAlignment(Pos.CENTER_LEFT);
+            line.setAlignment(Pos.CENTER_LEFT);
+
+            bar = new VBox(6, line, new HBox(15, new Label("👁 Watchpoints:"), watchLabel));
             bar.setPadding(new Insets(10));
             bar.setStyle(Styles.cardStyle());
         }
@@ -255,6 +309,14 @@ public class MemoryViewer {
                     ROWS_TO_SHOW));
 
             pcLabel.setText("PC: 0x" + String.format("%08X", cpu.getProgramCounter()));
+
+            WatchpointHit hit = lastHit;
+            int count = watchpoints.getWatchpoints().size();
+            watchLabel.setText(hit == null
+                    ? String.format("%d set, no hits", count)
+                    : String.format("%d set, %d hits | last %s at 0x%08X: 0x%08X -> 0x%08X, PC 0x%08X",
+                            count, watchpoints.getHitCount(), hit.watchpoint().type(), hit.addr(),
+                            hit.oldValue(), hit.newValue(), hit.pc()));
         }
 
         private Node createSeparator() {
@@ -323,6 +385,49 @@ public class MemoryViewer {
                 }
             });
 
+            TextField watchAddress = new TextField();
+            watchAddress.setPromptText("0x00000000");
+            watchAddress.setPrefWidth(100);
+            Styles.styleTextField(watchAddress);
+
+            TextField watchLength = new TextField("4");
+            watchLength.setPrefWidth(50);
+            Styles.styleTextField(watchLength);
+
+            ComboBox<Watchpoint.Type> watchType = new ComboBox<>(FXCollections.observableArrayList(Watchpoint.Type.values()));
+            watchType.getSelectionModel().select(Watchpoint.Type.WRITE);
+            Styles.styleCombo(watchType);
+
+            Button watch = Styles.button("👁 Watch");
+            watch.setOnAction(e -> {
+                try {
+                    int addr = Integer.parseInt(watchAddress.getText().trim().replace("0x", ""), 16);
+                    int length = Integer.parseInt(watchLength.getText().trim());
+                    watchpoints.add(addr, length, watchType.getValue());
+                    statusBar.refresh();
+                } catch (IllegalArgumentException ex) {
+                    Alert alert = new Alert(Alert.AlertType.WARNING, "Invalid watchpoint: " + ex.getMessage());
+                    alert.showAndWait();
+                }
+            });
+
+            Button clearWatch = Styles.button("Clear");
+            clearWatch.setOnAction(e -> {
+                watchpoints.clear();
+                lastHit = null;
+                statusBar.refresh();
+            });
+
+            HBox watchLine = new HBox(12,
+                    new Label("Watch:"), watchAddress,
+                    new Label("Bytes:"), watchLength, watchType,
+                    createSeparator(),
+                    watch, clearWatch
+            );
+            watchLine.setAlignment(Pos.CENTER_LEFT);
+            watchLine.setPadding(new Insets(10));
+            watchLine.setStyle(Styles.cardStyle());
+
             HBox line = new HBox(12,
                     new Label("Section:"), sectionSelector,
                     createSeparator(),
@@ -336,7 +441,7 @@ public class MemoryViewer {
             line.setPadding(new Insets(10));
             line.setStyle(Styles.cardStyle());
 
-            panel.getChildren().addAll(label, line);
+            panel.getChildren().addAll(label, line, watchLine);
         }
 
         public Node get() {
@@ -361,7 +466,7 @@ public class MemoryViewer {
                 StringBuilder bytesRep = new StringBuilder();
                 for (int i = 0; i < ROW_SIZE; i++) {
                     try {
-                        int b = memory.readByte(addr + i) & 0xFF;
+                        int b = memory.peekByte(addr + i) & 0xFF;
                         bytesRep.append(switch (viewMode) {
                             case HEX -> String.format("%02X", b);
                             case BITS -> String.format("%8s", Integer.toBinaryString(b)).replace(' ', '0');
@@ -377,7 +482,7 @@ public class MemoryViewer {
                     if (i < ROW_SIZE - 1) bytesRep.append(" ");
                 }
 
-                byte opcode = (byte) (memory.readWord(addr) & 0xFF);
+                byte opcode = (byte) (memory.peekWord(addr) & 0xFF);
                 String instrName = instructionSet.getName(opcode);
                 if (instrName == null) instrName = "UNKNOWN";
 
@@ -2,11 +2,15 @@ package org.lpc.visualization.vram;
 
 import javafx.animation.AnimationTimer;
 import javafx.scene.image.PixelWriter;
+import org.lpc.memory.DirtyTracker;
 import org.lpc.memory.MemoryBus;
 import org.lpc.memory.MemoryMap;
 
 public class RGBA32Viewer extends VramViewer {
     private static final int BYTES_PER_PIXEL = 4;
+    private static final int LINE_SHIFT = 6; // VRAM changes are tracked in 64-byte lines
+
+    private DirtyTracker dirtyLines;
 
     public RGBA32Viewer() {
         super();
@@ -18,31 +22,45 @@ public class RGBA32Viewer extends VramViewer {
         startRenderTimer();
     }
 
+    @Override
+    public void setMemory(MemoryBus memoryBus, MemoryMap memoryMap) {
+        super.setMemory(memoryBus, memoryMap);
+        if (dirtyLines != null) {
+            dirtyLines.close();
+            dirtyLines = null; // the next frame redraws everything from the new memory
+        }
+    }
+
     @Override
     public void updateImage() {
         if (memoryMap.getVramFormat() != MemoryMap.VramFormat.RGBA32) {
             throw new IllegalStateException("RGBA32 Viewer can only visualise VRAM in RGBA32 format");
         }
 
+        if (dirtyLines == null) {
+            dirtyLines = new DirtyTracker(memoryBus, memoryMap.getVramStart(), memoryMap.getVramSize(), LINE_SHIFT);
+        }
+
+        // only pixels in lines written since the last frame are redrawn
         int width = memoryMap.getVramWidth();
-        int height = memoryMap.getVramHeight();
         int baseAddr = memoryMap.getVramStart();
 
         PixelWriter writer = image.getPixelWriter();
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int addr = baseAddr + (y * width + x) * BYTES_PER_PIXEL;
+        dirtyLines.fetchAndClear((start, length) -> {
+            for (int addr = start; addr < start + length; addr += BYTES_PER_PIXEL) {
+                int pixel = (addr - baseAddr) / BYTES_PER_PIXEL;
+                int word = memoryBus.peekWord(addr);
 
-                int r = Byte.toUnsignedInt(memoryBus.readByte(addr));
-                int g = Byte.toUnsignedInt(memoryBus.readByte(addr + 1));
-                int b = Byte.toUnsignedInt(memoryBus.readByte(addr + 2));
-                int a = Byte.toUnsignedInt(memoryBus.readByte(addr + 3));
+                int r = word & 0xFF;
+                int g = (word >>> 8) & 0xFF;
+                int b = (word >>> 16) & 0xFF;
+                int a = word >>> 24;
 
                 int argb = (a << 24) | (r << 16) | (g << 8) | b;
-                writer.setArgb(x, y, argb);
+                writer.setArgb(pixel % width, pixel / width, argb);
             }
-        }
+        });
     }
 
     private void startRenderTimer() {
@@ -85,4 +85,4 @@ skip_pixel:
     JMP process_buffer
 
 restart:
-    JMP .main
+    JMP main
@@ -0,0 +1,161 @@
+package org.lpc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.lpc.engine.ExecutionEngine;
+import org.lpc.engine.InterpreterEngine;
+import org.lpc.engine.SwitchEngine;
+import org.lpc.engine.jit.JitEngine;
+import org.lpc.external.Assembler;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.ConfigurableMemoryMap;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryBackend;
+import org.lpc.memory.MemoryMap;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that restoring a checkpoint brings back registers and memory on each backend, that a
+ * fork does not share memory with the CPU it came from, and that code changed since the
+ * checkpoint is not run from the decode cache or JIT after a restore.
+ */
+class CheckpointTest {
+    private static final int RAM_DATA = 0x10000;
+    private static final int VRAM_BASE = 0x102000;
+
+    // writes a counter to consecutive RAM and VRAM words, forever
+    private static final List<String> WRITER = List.of(
+            "main:",
+            "    MOVI r2, " + VRAM_BASE,
+            "    MOVI r3, " + RAM_DATA,
+            "    MOVI r4, 0",
+            "loop:",
+            "    STORE r4, r2",
+            "    STORE r4, r3",
+            "    ADDI r2, 4",
+            "    ADDI r3, 4",
+            "    ADDI r4, 1",
+            "    JMP loop");
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "sparse", "direct"})
+    void restoreBringsBackRegistersAndMemory(String backend) {
+        CPU cpu = boot(backend, WRITER);
+        cpu.run(6_000);
+        int[] registers = cpu.getRegisters().clone();
+        byte[] ram = contents(cpu.getMemory().getRam());
+        byte[] vram = contents(cpu.getMemory().getVram());
+        Checkpoint checkpoint = Checkpoint.capture(cpu);
+
+        cpu.run(6_000);
+        assertNotEquals(registers[4], cpu.readRegister(4));
+        checkpoint.restore(cpu);
+
+        assertArrayEquals(registers, cpu.getRegisters());
+        assertArrayEquals(ram, contents(cpu.getMemory().getRam()));
+        assertArrayEquals(vram, contents(cpu.getMemory().getVram()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "sparse", "direct"})
+    void forkKeepsWritesApart(String backend) {
+        CPU cpu = boot(backend, WRITER);
+        cpu.run(6_000);
+        Checkpoint checkpoint = Checkpoint.capture(cpu);
+        byte[] ram = contents(cpu.getMemory().getRam());
+
+        CPU fork = checkpoint.fork();
+        assertArrayEquals(cpu.getRegisters(), fork.getRegisters());
+        assertArrayEquals(ram, contents(fork.getMemory().getRam()));
+
+        fork.getMemory().writeWord(RAM_DATA, 0xCAFE);
+        cpu.getMemory().writeWord(RAM_DATA + 4, 0xBEEF);
+        fork.run(6_000);
+
+        assertEquals(0, cpu.getMemory().readWord(RAM_DATA));
+        assertEquals(0xBEEF, cpu.getMemory().readWord(RAM_DATA + 4));
+        assertEquals(0xCAFE, fork.getMemory().readWord(RAM_DATA));
+        assertEquals(1, fork.getMemory().readWord(RAM_DATA + 4));
+
+        // a second fork starts from the checkpoint, not from the first one
+        assertArrayEquals(ram, contents(checkpoint.fork().getMemory().getRam()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"interpreter", "switch", "jit"})
+    void restoreDropsCodeChangedSinceTheCheckpoint(String engine) {
+        // ADDI r3 runs 1000 times; its immediate is patched between the runs
+        CPU cpu = boot("heap", List.of(
+                "main:",
+                "    MOVI r2, 0",
+                "loop:",
+                "    ADDI r3, 1",
+                "    ADDI r2, 1",
+                "    CMPI r2, 1000",
+                "    JL loop",
+                "    HLT"));
+        cpu.setEngine(engine(engine, cpu));
+        int addi = cpu.getMemoryMap().getProgramStart() + 8;
+        Checkpoint checkpoint = Checkpoint.capture(cpu);
+
+        cpu.getMemory().writeWord(addi + 4, 2);
+        cpu.run(10_000);
+        assertEquals(2000, cpu.readRegister(3));
+
+        checkpoint.restore(cpu);
+        assertFalse(cpu.isHalt());
+        cpu.run(10_000);
+        assertEquals(1000, cpu.readRegister(3));
+    }
+
+    @Test
+    void forkOfFileBackedMemoryIsRefused(@TempDir Path directory) {
+        ConfigurableMemoryMap map = ConfigurableMemoryMap.builder().build()
+                .setBackend(MemoryMap.RAM, MemoryBackend.mapped(directory.resolve("ram.img")));
+        CPU cpu = new CPU(new NeptuneInstructionSet(), map, 32);
+        Checkpoint checkpoint = Checkpoint.capture(cpu);
+
+        checkpoint.restore(cpu);
+        assertThrows(IllegalStateException.class, checkpoint::fork);
+    }
+
+    private static CPU boot(String backend, List<String> program) {
+        MemoryBackend memory = switch (backend) {
+            case "heap" -> MemoryBackend.heap();
+            case "sparse" -> MemoryBackend.sparse();
+            case "direct" -> MemoryBackend.direct();
+            default -> throw new IllegalArgumentException(backend);
+        };
+        ConfigurableMemoryMap map = ConfigurableMemoryMap.builder().build()
+                .setBackend(MemoryMap.RAM, memory)
+                .setBackend(MemoryMap.VRAM, memory);
+        CPU cpu = new CPU(new NeptuneInstructionSet(), map, 32);
+        new Assembler(cpu).assembleAndLoad(program, map.getProgramStart());
+        return cpu;
+    }
+
+    private static ExecutionEngine engine(String name, CPU cpu) {
+        return switch (name) {
+            case "interpreter" -> new InterpreterEngine();
+            case "switch" -> new SwitchEngine(cpu.getInstructionSet());
+            case "jit" -> new JitEngine(cpu);
+            default -> throw new IllegalArgumentException(name);
+        };
+    }
+
+    private static byte[] contents(Memory memory) {
+        byte[] bytes = new byte[memory.getSize()];
+        memory.readBytes(memory.getBaseAddress(), bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,133 @@
+package org.lpc;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lpc.external.Assembler;
+import org.lpc.instructions.DecodedInstruction;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.FaultCause;
+import org.lpc.memory.NeptuneMemoryMap;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that invalid accesses and undecodable instructions are handed to the guest fault handler
+ * with the documented frame, that a fault while pushing the frame is a double fault, and that
+ * strict mode throws the host exception instead.
+ */
+class FaultDeliveryTest {
+    private static final int UNMAPPED = 0x7FFFFFF0;
+
+    private CPU cpu;
+    private int start;
+
+    @BeforeEach
+    void setUp() {
+        cpu = new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32);
+        start = cpu.getMemoryMap().getProgramStart();
+    }
+
+    @Test
+    void invalidReadIsRetriedAfterTheHandler() {
+        load("MOVI r2, " + UNMAPPED,
+             "LOAD r3, r2",
+             "HLT",
+             "fault handler:",
+             "    POP r20",       // faulting address
+             "    MOVI r2, 0x10000",
+             "    RET");          // retries the LOAD with the new address
+        cpu.getMemory().writeWord(0x10000, 42);
+
+        cpu.run(1000);
+
+        assertTrue(cpu.isHalt());
+        assertEquals(UNMAPPED, cpu.readRegister(20));
+        assertEquals(FaultCause.INVALID_READ.code(), cpu.readRegister(CPU.FC));
+        assertEquals(42, cpu.readRegister(3));
+        assertEquals(cpu.getMemoryMap().getStackStart(), cpu.getStackPointer());
+    }
+
+    @Test
+    void writeToRomIsDelivered() {
+        load("MOVI r2, 0x100",
+             "STORE r3, r2",
+             "HLT",
+             "fault handler:",
+             "    POP r20",
+             "    POP r21",
+             "    HLT");
+
+        cpu.run(1000);
+
+        assertTrue(cpu.isHalt());
+        assertEquals(0x100, cpu.readRegister(20));
+        assertEquals(start + 8, cpu.readRegister(21)); // the STORE, after the two-word MOVI
+        assertEquals(FaultCause.READ_ONLY_WRITE.code(), cpu.readRegister(CPU.FC));
+    }
+
+    @Test
+    void undecodableInstructionIsDelivered() {
+        load("HLT",
+             "fault handler:",
+             "    POP r20",
+             "    POP r21",
+             "    HLT");
+        int address = 0x3000;
+        int word = 0x00050600; // opcode 0 is never assigned
+        cpu.getMemory().writeWord(address, word);
+        cpu.setProgramCounter(address);
+
+        // the stand-in encodes to the word it replaces
+        DecodedInstruction standIn = cpu.getDecodeCache().decode(address);
+        assertArrayEquals(new int[] { word }, standIn.getInstruction().encode(new int[] { word }));
+
+        cpu.run(1000);
+
+        assertTrue(cpu.isHalt());
+        assertEquals(address, cpu.readRegister(20));
+        assertEquals(address, cpu.readRegister(21));
+        assertEquals(FaultCause.ILLEGAL_INSTRUCTION.code(), cpu.readRegister(CPU.FC));
+    }
+
+    @Test
+    void faultWhilePushingTheFrameIsADoubleFault() {
+        load("MOVI sp, " + (UNMAPPED - 0x100),
+             "MOVI r2, " + UNMAPPED,
+             "LOAD r3, r2",
+             "HLT",
+             "fault handler:",
+             "    HLT");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> cpu.run(1000));
+
+        assertTrue(e.getMessage().startsWith("Double fault: INVALID_READ"), e.getMessage());
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        assertEquals(String.format("Invalid memory read at 0x%08X", UNMAPPED), e.getCause().getMessage());
+    }
+
+    @Test
+    void strictFaultsThrowTheHostException() {
+        load("MOVI r2, " + UNMAPPED,
+             "LOAD r3, r2",
+             "HLT",
+             "fault handler:",
+             "    MOVI r20, 1",
+             "    HLT");
+        cpu.getMemory().setStrictFaults(true);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> cpu.run(1000));
+
+        assertEquals(String.format("Invalid memory read at 0x%08X", UNMAPPED), e.getMessage());
+        assertEquals(0, cpu.readRegister(20));
+    }
+
+    private void load(String... program) {
+        new Assembler(cpu).assembleAndLoad(List.of(program), start);
+    }
+}
@@ -0,0 +1,94 @@
+package org.lpc.engine;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.lpc.CPU;
+import org.lpc.engine.jit.JitEngine;
+import org.lpc.external.Assembler;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.Flags;
+import org.lpc.memory.Memory;
+import org.lpc.memory.NeptuneMemoryMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs each example program on the switch and JIT engines and checks that they end in the same
+ * state as the interpreter: registers, flags, halt state, RAM and VRAM. The programs loop forever
+ * or wait for input, so every engine runs the same instruction budget.
+ */
+class EngineDifferentialTest {
+    private static final long BUDGET = 3_000_000;
+    private static final int PAGE_SIZE = 4096;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"data.asm", "heap.asm", "pattern.asm", "rect.asm", "keyboard_input.asm"})
+    void switchEngineMatchesInterpreter(String program) {
+        assertSameState(program, run(program, cpu -> new InterpreterEngine()),
+                run(program, cpu -> new SwitchEngine(cpu.getInstructionSet())));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"data.asm", "heap.asm", "pattern.asm", "rect.asm", "keyboard_input.asm"})
+    void jitEngineMatchesInterpreter(String program) {
+        assertSameState(program, run(program, cpu -> new InterpreterEngine()), run(program, JitEngine::new));
+    }
+
+    private static CPU run(String program, Function<CPU, ExecutionEngine> engine) {
+        CPU cpu = new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32);
+        cpu.setEngine(engine.apply(cpu));
+        new Assembler(cpu).assembleAndLoad(readLines("/rom/boot.rom.asm"), cpu.getMemoryMap().getSyscallCodeStart());
+        new Assembler(cpu).assembleAndLoad(readLines("/example_programs/" + program), cpu.getMemoryMap().getRamStart());
+
+        RunResult result = cpu.run(BUDGET);
+        if (!cpu.isHalt()) {
+            assertEquals(BUDGET, result.retired(), program + ": instructions retired");
+        }
+        return cpu;
+    }
+
+    private static void assertSameState(String program, CPU expected, CPU actual) {
+        assertArrayEquals(expected.getRegisters(), actual.getRegisters(), program + ": registers");
+        assertEquals(expected.isHalt(), actual.isHalt(), program + ": halt");
+
+        Flags expectedFlags = expected.getFlags();
+        Flags actualFlags = actual.getFlags();
+        assertEquals(expectedFlags.isZero(), actualFlags.isZero(), program + ": zero flag");
+        assertEquals(expectedFlags.isNegative(), actualFlags.isNegative(), program + ": negative flag");
+        assertEquals(expectedFlags.isCarry(), actualFlags.isCarry(), program + ": carry flag");
+        assertEquals(expectedFlags.isOverflow(), actualFlags.isOverflow(), program + ": overflow flag");
+
+        assertSameMemory(program + ": RAM", expected.getMemory().getRam(), actual.getMemory().getRam());
+        assertSameMemory(program + ": VRAM", expected.getMemory().getVram(), actual.getMemory().getVram());
+    }
+
+    // page by page, so a failure names the first page that differs
+    private static void assertSameMemory(String what, Memory expected, Memory actual) {
+        byte[] expectedPage = new byte[PAGE_SIZE];
+        byte[] actualPage = new byte[PAGE_SIZE];
+        for (int offset = 0; offset < expected.getSize(); offset += PAGE_SIZE) {
+            int addr = expected.getBaseAddress() + offset;
+            int length = Math.min(PAGE_SIZE, expected.getSize() - offset);
+            expected.readBytes(addr, expectedPage, 0, length);
+            actual.readBytes(addr, actualPage, 0, length);
+            assertArrayEquals(expectedPage, actualPage, String.format("%s page at 0x%08X", what, addr));
+        }
+    }
+
+    private static List<String> readLines(String resource) {
+        try (InputStream stream = EngineDifferentialTest.class.getResourceAsStream(resource)) {
+            if (stream == null) throw new IllegalStateException("Resource not found: " + resource);
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
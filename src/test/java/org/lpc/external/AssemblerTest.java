@@ -0,0 +1,111 @@
+package org.lpc.external;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.lpc.CPU;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.NeptuneMemoryMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks that the boot ROM and the example programs assemble to the same bytes as before the
+ * assembler was rewritten, and that errors name the line and column of the offending token.
+ *
+ * The images in {@code /golden} were produced by the original assembler: the ROM or RAM region
+ * after loading the source into a new CPU, up to its last nonzero word.
+ */
+class AssemblerTest {
+    @ParameterizedTest
+    @ValueSource(strings = {"data", "heap", "keyboard_input", "pattern", "rect"})
+    void exampleProgramsMatchTheOriginalAssembler(String program) {
+        CPU cpu = newCpu();
+        MemoryMap map = cpu.getMemoryMap();
+        new Assembler(cpu).assembleAndLoad(readLines("/example_programs/" + program + ".asm"), map.getRamStart());
+        assertImage(program, cpu, map.getRamStart(), map.getRamSize());
+    }
+
+    @Test
+    void bootRomMatchesTheOriginalAssembler() {
+        CPU cpu = newCpu();
+        MemoryMap map = cpu.getMemoryMap();
+        new Assembler(cpu).assembleAndLoad(readLines("/rom/boot.rom.asm"), map.getSyscallCodeStart());
+        assertImage("boot.rom", cpu, map.getBootRomStart(), map.getBootRomSize());
+    }
+
+    @Test
+    void errorsReportLineAndColumn() {
+        assertError(1, 4, "   FOO r0");
+        assertError(3, 9, "main:", "    NOP", "    MOV r99, r1");
+        assertError(2, 9, "main:", "    JMP nowhere");
+        assertError(2, 9, "main:", "    HLT r1");                  // operand on an instruction that takes none
+        assertError(2, 11, "main:", "\tADDI r1, 0x12G");          // a tab counts as one column
+        assertError(4, 1, "main:", "    NOP", "dup:", "dup:");
+    }
+
+    @Test
+    void labelsAreResolvedInBothDirections() {
+        CPU cpu = newCpu();
+        int start = cpu.getMemoryMap().getRamStart();
+        ObjectFile object = new Assembler(cpu).assemble(List.of(
+                "main:",
+                "    JMP end",   // forward
+                "back:",
+                "    HLT",
+                "end:",
+                "    JMP back"), start);
+
+        assertEquals(start, object.getSymbols().get("main"));
+        assertEquals(start + 8, object.getSymbols().get("back"));
+        assertEquals(start + 12, object.getSymbols().get("end"));
+        object.loadInto(cpu);
+        assertEquals(start + 12, cpu.getMemory().readWord(start + 4));
+        assertEquals(start + 8, cpu.getMemory().readWord(start + 16));
+    }
+
+    private static void assertError(int line, int column, String... source) {
+        AssemblyException e = assertThrows(AssemblyException.class,
+                () -> new Assembler(newCpu()).assemble(List.of(source), 0x2000));
+        assertEquals(line, e.getLine(), e.getMessage());
+        assertEquals(column, e.getColumn(), e.getMessage());
+    }
+
+    // compares the region with the golden image and checks that nothing is written after it
+    private static void assertImage(String name, CPU cpu, int start, int size) {
+        byte[] expected = readBytes("/golden/" + name + ".bin");
+        for (int i = 0; i < size; i++) {
+            byte want = i < expected.length ? expected[i] : 0;
+            byte got = cpu.getMemory().peekByte(start + i);
+            if (got != want) {
+                fail(String.format("%s differs at 0x%08X: expected 0x%02X, got 0x%02X", name, start + i, want & 0xFF, got & 0xFF));
+            }
+        }
+    }
+
+    private static CPU newCpu() {
+        return new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32);
+    }
+
+    private static List<String> readLines(String resource) {
+        return new String(readBytes(resource), StandardCharsets.UTF_8).lines().toList();
+    }
+
+    private static byte[] readBytes(String resource) {
+        try (InputStream stream = AssemblerTest.class.getResourceAsStream(resource)) {
+            if (stream == null) throw new IllegalStateException("Resource not found: " + resource);
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
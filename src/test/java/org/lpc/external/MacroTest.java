@@ -0,0 +1,251 @@
+package org.lpc.external;
+
+import org.junit.jupiter.api.Test;
+import org.lpc.CPU;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.NeptuneMemoryMap;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks macro and {@code .rept} expansion by comparing the code with the same program written
+ * out by hand, and the position errors inside expansions are reported at.
+ */
+class MacroTest {
+    private static final int START = 0x2000;
+
+    @Test
+    void argumentsAreSubstitutedOnce() {
+        // the first argument is the name of the second parameter, which must not be replaced again
+        assertSameCode("""
+                .const b 3
+                .macro M a b
+                    MOVI r1, a
+                    MOVI r2, b
+                .endmacro
+                main:
+                    M b, 7
+                    HLT""", """
+                .const b 3
+                main:
+                    MOVI r1, b
+                    MOVI r2, 7
+                    HLT""");
+    }
+
+    @Test
+    void macrosInvokeMacros() {
+        assertSameCode("""
+                .macro INC r
+                    ADDI r, 1
+                .endmacro
+                .macro INC2 r
+                    INC r
+                    INC r
+                .endmacro
+                main:
+                    INC2 r3
+                    HLT""", """
+                main:
+                    ADDI r3, 1
+                    ADDI r3, 1
+                    HLT""");
+    }
+
+    @Test
+    void reptInsideMacroTakesItsCountFromAParameter() {
+        assertSameCode("""
+                .macro PUSHN n r
+                .rept n
+                    PUSH r
+                .endr
+                .endmacro
+                main:
+                    PUSHN 3, r5
+                    PUSHN 0, r6
+                    HLT""", """
+                main:
+                    PUSH r5
+                    PUSH r5
+                    PUSH r5
+                    HLT""");
+    }
+
+    @Test
+    void nestedReptRepeatsItsBodyEachTime() {
+        assertSameCode("""
+                main:
+                .rept 2
+                .rept 2
+                    NOP
+                .endr
+                    INC r1
+                .endr
+                    HLT""", """
+                main:
+                    NOP
+                    NOP
+                    INC r1
+                    NOP
+                    NOP
+                    INC r1
+                    HLT""");
+    }
+
+    @Test
+    void localLabelsAreUniquePerExpansion() {
+        assertSameCode("""
+                .macro WAIT r
+                %%loop:
+                    SUBI r, 1
+                    JNZ %%loop
+                .endmacro
+                main:
+                    WAIT r1
+                    WAIT r2
+                    HLT""", """
+                main:
+                first:
+                    SUBI r1, 1
+                    JNZ first
+                second:
+                    SUBI r2, 1
+                    JNZ second
+                    HLT""");
+    }
+
+    @Test
+    void localLabelsResolveToTheInnermostBlockDefiningThem() {
+        // %%step is defined in each .rept iteration, %%done only in the macro; %%top in both,
+        // so inside the .rept it names the iteration's label and outside it the macro's
+        assertSameCode("""
+                .macro STEPS
+                %%top:
+                    NOP
+                .rept 2
+                %%step:
+                    INC r1
+                %%top:
+                    JMP %%step
+                    JMP %%top
+                    JMP %%done
+                .endr
+                    JMP %%top
+                %%done:
+                    NOP
+                .endmacro
+                main:
+                    STEPS
+                    STEPS
+                    HLT""", """
+                main:
+                top1:
+                    NOP
+                step1:
+                    INC r1
+                inner1:
+                    JMP step1
+                    JMP inner1
+                    JMP done1
+                step2:
+                    INC r1
+                inner2:
+                    JMP step2
+                    JMP inner2
+                    JMP done1
+                    JMP top1
+                done1:
+                    NOP
+                top2:
+                    NOP
+                step3:
+                    INC r1
+                inner3:
+                    JMP step3
+                    JMP inner3
+                    JMP done2
+                step4:
+                    INC r1
+                inner4:
+                    JMP step4
+                    JMP inner4
+                    JMP done2
+                    JMP top2
+                done2:
+                    NOP
+                    HLT""");
+    }
+
+    @Test
+    void recursionStopsAtTheDepthLimit() {
+        AssemblyException e = assertError(4, 3, """
+                .macro R
+                    R
+                .endmacro
+                  R""");
+        assertTrue(e.getMessage().contains("nested more than 64 deep at R"), e.getMessage());
+    }
+
+    @Test
+    void argumentCountErrorsAreReportedAtTheInvocation() {
+        assertError(5, 7, """
+                .macro PAIR a b
+                    MOV a, b
+                .endmacro
+                main:
+                      PAIR r1""");
+    }
+
+    @Test
+    void errorsInAMacroBodyAreReportedAtTheInvocation() {
+        // the outermost invocation, also for a macro invoked from another one
+        assertError(9, 5, """
+                .macro BAD
+                    NOP
+                    FOO r1
+                .endmacro
+                .macro OUTER
+                      BAD
+                .endmacro
+                main:
+                    OUTER""");
+    }
+
+    @Test
+    void errorsInATopLevelReptKeepTheirOwnPosition() {
+        assertError(4, 9, """
+                main:
+                .rept 2
+                    NOP
+                        FOO
+                .endr""");
+    }
+
+    private static void assertSameCode(String source, String expected) {
+        assertEquals(code(expected), code(source));
+    }
+
+    private static AssemblyException assertError(int line, int column, String source) {
+        AssemblyException e = assertThrows(AssemblyException.class, () -> assemble(source));
+        assertEquals(line, e.getLine(), e.getMessage());
+        assertEquals(column, e.getColumn(), e.getMessage());
+        return e;
+    }
+
+    // the segments as address:bytes, so labels only matter through the addresses they resolve to
+    private static List<String> code(String source) {
+        return assemble(source).getSegments().stream()
+                .map(segment -> String.format("%08X:%s", segment.address(), HexFormat.of().formatHex(segment.bytes())))
+                .toList();
+    }
+
+    private static ObjectFile assemble(String source) {
+        CPU cpu = new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32);
+        return new Assembler(cpu).assemble(source.lines().toList(), START);
+    }
+}
@@ -0,0 +1,161 @@
+package org.lpc.hle;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.lpc.CPU;
+import org.lpc.external.Assembler;
+import org.lpc.instructions.NeptuneInstructionSet;
+import org.lpc.memory.FaultCause;
+import org.lpc.memory.Flags;
+import org.lpc.memory.Memory;
+import org.lpc.memory.NeptuneMemoryMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the example programs with every syscall in Java and with every syscall in the boot ROM, and
+ * checks that both end in the same state: registers, flags, RAM and VRAM. A Java syscall retires as
+ * one instruction, so the CPUs are stepped in lockstep over the instructions outside the ROM.
+ *
+ * Also checks that a malloc or free that faults part way is rolled back and left to the ROM, so the
+ * fault handler sees the same frame as without HLE.
+ */
+class HleSyscallsTest {
+    private static final long USER_STEPS = 300_000;
+    private static final int PAGE_SIZE = 4096;
+    private static final int UNMAPPED = 0x7FFFFFF0;
+    // boot.rom.asm heap variables; malloc walks the free list from FREE_LIST_HEAD
+    private static final int FREE_LIST_HEAD = 0x82001;
+    private static final int CURRENT_BUMP_PTR = 0x82005;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"data.asm", "heap.asm", "pattern.asm", "rect.asm", "keyboard_input.asm"})
+    void javaSyscallsMatchTheRom(String program) {
+        List<String> source = readLines("/example_programs/" + program);
+        CPU rom = boot(source, false);
+        CPU hle = boot(source, true);
+        int romEnd = rom.getMemory().getRom().getBaseAddress() + rom.getMemory().getRom().getSize();
+
+        for (long step = 0; step < USER_STEPS && !rom.isHalt(); step++) {
+            stepOutOfRom(hle, romEnd);
+            stepOutOfRom(rom, romEnd);
+            assertArrayEquals(rom.getRegisters(), hle.getRegisters(), program + ": registers after user step " + step);
+        }
+        assertSameState(program, rom, hle);
+    }
+
+    @Test
+    void faultingMallocIsLeftToTheRom() {
+        // a zero-sized first block sends malloc on to the next one, which is unmapped
+        List<String> program = List.of(
+                "main:",
+                "    MOVI r0, 5",
+                "    MOVI r1, 4",
+                "    SYSCALL",
+                "    HLT",
+                "fault handler:",
+                "    POP r20",
+                "    POP r21",
+                "    HLT");
+        CPU rom = boot(program, false);
+        CPU hle = boot(program, true);
+        for (CPU cpu : new CPU[] {rom, hle}) {
+            cpu.getMemory().writeWord(FREE_LIST_HEAD, UNMAPPED);
+            cpu.getMemory().writeWord(CURRENT_BUMP_PTR, 0);
+        }
+
+        assertSameRun("malloc", rom, hle, FaultCause.INVALID_READ, UNMAPPED + 4);
+    }
+
+    @Test
+    void faultingFreeIsLeftToTheRom() {
+        List<String> program = List.of(
+                "main:",
+                "    MOVI r0, 6",
+                "    MOVI r1, 0x100",
+                "    MOVI r2, 16",
+                "    SYSCALL",
+                "    HLT",
+                "fault handler:",
+                "    POP r20",
+                "    POP r21",
+                "    HLT");
+
+        assertSameRun("free", boot(program, false), boot(program, true), FaultCause.READ_ONLY_WRITE, 0x100);
+    }
+
+    // runs both CPUs into the fault handler and checks that it was entered from the ROM routine
+    private static void assertSameRun(String what, CPU rom, CPU hle, FaultCause cause, int address) {
+        rom.run(10_000);
+        hle.run(10_000);
+
+        assertTrue(hle.isHalt(), what + ": halted");
+        assertEquals(cause.code(), hle.readRegister(CPU.FC), what + ": fault cause");
+        assertEquals(address, hle.readRegister(20), what + ": faulting address");
+        int romStart = hle.getMemory().getRom().getBaseAddress();
+        int faultPc = hle.readRegister(21);
+        assertTrue(faultPc - romStart >= 0 && faultPc - romStart < hle.getMemory().getRom().getSize(),
+                String.format("%s: fault at 0x%08X, not in the ROM", what, faultPc));
+        assertSameState(what, rom, hle);
+    }
+
+    private static void stepOutOfRom(CPU cpu, int romEnd) {
+        do {
+            cpu.step();
+        } while (Integer.compareUnsigned(cpu.getProgramCounter(), romEnd) < 0 && !cpu.isHalt());
+    }
+
+    private static CPU boot(List<String> program, boolean hle) {
+        CPU cpu = new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32);
+        cpu.getHleSyscalls().setAllEnabled(hle);
+        new Assembler(cpu).assembleAndLoad(readLines("/rom/boot.rom.asm"), cpu.getMemoryMap().getSyscallCodeStart());
+        new Assembler(cpu).assembleAndLoad(program, cpu.getMemoryMap().getRamStart());
+        return cpu;
+    }
+
+    private static void assertSameState(String what, CPU expected, CPU actual) {
+        assertArrayEquals(expected.getRegisters(), actual.getRegisters(), what + ": registers");
+        assertEquals(expected.isHalt(), actual.isHalt(), what + ": halt");
+
+        Flags expectedFlags = expected.getFlags();
+        Flags actualFlags = actual.getFlags();
+        assertEquals(expectedFlags.isZero(), actualFlags.isZero(), what + ": zero flag");
+        assertEquals(expectedFlags.isNegative(), actualFlags.isNegative(), what + ": negative flag");
+        assertEquals(expectedFlags.isCarry(), actualFlags.isCarry(), what + ": carry flag");
+        assertEquals(expectedFlags.isOverflow(), actualFlags.isOverflow(), what + ": overflow flag");
+
+        assertSameMemory(what + ": RAM", expected.getMemory().getRam(), actual.getMemory().getRam());
+        assertSameMemory(what + ": VRAM", expected.getMemory().getVram(), actual.getMemory().getVram());
+    }
+
+    // page by page, so a failure names the first page that differs
+    private static void assertSameMemory(String what, Memory expected, Memory actual) {
+        byte[] expectedPage = new byte[PAGE_SIZE];
+        byte[] actualPage = new byte[PAGE_SIZE];
+        for (int offset = 0; offset < expected.getSize(); offset += PAGE_SIZE) {
+            int addr = expected.getBaseAddress() + offset;
+            int length = Math.min(PAGE_SIZE, expected.getSize() - offset);
+            expected.readBytes(addr, expectedPage, 0, length);
+            actual.readBytes(addr, actualPage, 0, length);
+            assertArrayEquals(expectedPage, actualPage, String.format("%s page at 0x%08X", what, addr));
+        }
+    }
+
+    private static List<String> readLines(String resource) {
+        try (InputStream stream = HleSyscallsTest.class.getResourceAsStream(resource)) {
+            if (stream == null) throw new IllegalStateException("Resource not found: " + resource);
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.lpc.memory;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lpc.CPU;
+import org.lpc.external.Assembler;
+import org.lpc.instructions.NeptuneInstructionSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that accesses reaching a watched page are reported, whether they are single words and
+ * bytes or MSET/MCPY ranges that start on an unwatched page, and that removing the watchpoints
+ * hands the pages back to their region.
+ */
+class WatchpointsTest {
+    private static final int PAGE = 0x10000; // a RAM page, away from the program
+
+    private record Hit(Watchpoint watchpoint, int addr, int oldValue, int newValue) {}
+
+    private CPU cpu;
+    private MemoryBus memory;
+    private Watchpoints watchpoints;
+    private final List<Hit> hits = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        cpu = new CPU(new NeptuneInstructionSet(), new NeptuneMemoryMap(), 32);
+        memory = cpu.getMemory();
+        watchpoints = cpu.getWatchpoints();
+        watchpoints.addListener((watchpoint, addr, oldValue, newValue, pc) -> hits.add(new Hit(watchpoint, addr, oldValue, newValue)));
+    }
+
+    @Test
+    void wordAndByteWritesAreReported() {
+        Watchpoint watchpoint = watchpoints.add(PAGE + 0x100, 4, Watchpoint.Type.WRITE);
+
+        memory.writeWord(PAGE + 0x100, 0x11223344);
+        memory.writeByte(PAGE + 0x102, (byte) 0xAB);
+        memory.writeWord(PAGE + 0x200, 1); // same page, outside the range
+        memory.readWord(PAGE + 0x100);     // reads do not trigger a write watchpoint
+
+        assertEquals(List.of(new Hit(watchpoint, PAGE + 0x100, 0, 0x11223344), new Hit(watchpoint, PAGE + 0x102, 0x22, 0xAB)), hits);
+        assertEquals(0x11AB3344, memory.readWord(PAGE + 0x100));
+        assertEquals(2, watchpoints.getHitCount());
+    }
+
+    @Test
+    void msetRunningIntoWatchedPageIsReported() {
+        Watchpoint watchpoint = watchpoints.add(PAGE + 0x40, 4, Watchpoint.Type.WRITE);
+
+        run("MOVI r2, " + (PAGE - 0x100),
+            "MOVI r3, 0x12345678",
+            "MOVI r1, 0x80",
+            "MSET r2, r3");
+
+        assertEquals(List.of(new Hit(watchpoint, PAGE + 0x40, 0, 0x12345678)), hits);
+        assertEquals(0x12345678, memory.peekWord(PAGE - 0x100));
+        assertEquals(0x12345678, memory.peekWord(PAGE + 0xFC));
+        assertEquals(0, memory.peekWord(PAGE + 0x100));
+    }
+
+    @Test
+    void mcpyRunningIntoWatchedPagesIsReported() {
+        for (int i = 0; i < 0x80; i++) {
+            memory.writeWord(PAGE - 0x100 + i * 4, i + 1);
+        }
+        Watchpoint read = watchpoints.add(PAGE + 0x20, 4, Watchpoint.Type.READ);
+        Watchpoint write = watchpoints.add(PAGE + 0x3020, 4, Watchpoint.Type.WRITE);
+
+        // both ranges start on an unwatched page and run into a watched one
+        run("MOVI r2, " + (PAGE + 0x2F00),
+            "MOVI r3, " + (PAGE - 0x100),
+            "MOVI r1, 0x80",
+            "MCPY r2, r3");
+
+        assertEquals(List.of(new Hit(read, PAGE + 0x20, 0x49, 0x49), new Hit(write, PAGE + 0x3020, 0, 0x49)), hits);
+        for (int i = 0; i < 0x80; i++) {
+            assertEquals(i + 1, memory.peekWord(PAGE + 0x2F00 + i * 4));
+        }
+    }
+
+    @Test
+    void removingWatchpointsRestoresThePages() {
+        Watchpoint first = watchpoints.add(PAGE + 0x40, 4, Watchpoint.Type.WRITE);
+        Watchpoint second = watchpoints.add(PAGE + 0x1000, 0x1000, Watchpoint.Type.ACCESS);
+        assertTrue(memory.isTrapped(PAGE));
+        assertTrue(memory.isTrapped(PAGE + 0x1000));
+        assertEquals(2, memory.getTrappedPageCount());
+
+        assertTrue(watchpoints.remove(first));
+        assertTrue(watchpoints.remove(second));
+        assertFalse(memory.isTrapped(PAGE));
+        assertFalse(memory.isTrapped(PAGE + 0x1000));
+        assertEquals(0, memory.getTrappedPageCount());
+        assertSame(memory.getRam(), memory.findRegion(PAGE).handler());
+
+        run("MOVI r2, " + (PAGE - 0x100),
+            "MOVI r3, 7",
+            "MOVI r1, 0x800",
+            "MSET r2, r3");
+        memory.writeWord(PAGE + 0x40, 1);
+        assertEquals(List.of(), hits);
+        assertEquals(0, watchpoints.getHitCount());
+    }
+
+    private void run(String... program) {
+        List<String> lines = new ArrayList<>(List.of(program));
+        lines.add("HLT");
+        new Assembler(cpu).assembleAndLoad(lines, cpu.getMemoryMap().getProgramStart());
+        cpu.run(1000);
+        assertTrue(cpu.isHalt(), "program halted");
+    }
+}
@@ -0,0 +1,155 @@
+package org.lpc.memory.io;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that devices are dispatched by address, that overlapping or out-of-window registrations
+ * are rejected, and that unregistering frees a device's addresses and moves {@code currentOffset}
+ * back when the highest device goes.
+ */
+class IODeviceManagerTest {
+    private static final int BASE = 0x112000;
+    private static final int SIZE = 0x100;
+
+    private IODeviceManager io;
+
+    @BeforeEach
+    void setUp() {
+        io = new IODeviceManager(BASE, SIZE);
+    }
+
+    @Test
+    void accessesGoToTheDeviceAtTheAddress() {
+        Registers first = new Registers(BASE, 8);
+        Registers second = new Registers(BASE + 8, 8);
+        io.register(first);
+        io.register(second);
+
+        io.writeWord(BASE + 4, 11);
+        io.writeWord(BASE + 8, 22);
+        io.writeByte(BASE + 12, (byte) 33);
+
+        assertEquals(11, first.words[1]);
+        assertEquals(22, second.words[0]);
+        assertEquals(33, second.words[1]);
+        assertEquals(22, io.readWord(BASE + 8));
+        assertEquals(33, io.readByte(BASE + 12));
+        assertEquals(0, io.readWord(BASE + 16)); // no device
+        assertEquals(16, io.getCurrentOffset());
+    }
+
+    @Test
+    void overlappingRegistrationIsRejected() {
+        Registers device = new Registers(BASE, 8);
+        io.register(device);
+
+        assertThrows(IllegalArgumentException.class, () -> io.register(new Registers(BASE + 4, 8)));
+        assertThrows(IllegalArgumentException.class, () -> io.register(device));
+        assertThrows(IllegalArgumentException.class, () -> io.register(new Registers(BASE + SIZE - 4, 8)));
+        assertThrows(IllegalArgumentException.class, () -> io.register(new Registers(BASE - 4, 8)));
+
+        // a rejected device leaves no trace
+        assertEquals(1, io.getRegisteredDevices().size());
+        assertEquals(8, io.getCurrentOffset());
+        io.writeWord(BASE + 4, 7);
+        assertEquals(7, device.words[1]);
+    }
+
+    @Test
+    void unregisteringFreesTheSlots() {
+        Registers device = new Registers(BASE, 8);
+        io.register(device);
+        io.writeWord(BASE, 5);
+
+        assertTrue(io.unregister(device));
+        assertFalse(io.unregister(device));
+        assertEquals(0, io.readWord(BASE));
+        io.writeWord(BASE, 6);
+        assertEquals(5, device.words[0]);
+
+        // the addresses can be taken by another device
+        Registers replacement = new Registers(BASE + 4, 8);
+        io.register(replacement);
+        io.writeWord(BASE + 4, 9);
+        assertEquals(9, replacement.words[0]);
+    }
+
+    @Test
+    void unregisteringTheHighestDeviceMovesTheOffsetBack() {
+        Registers low = new Registers(BASE, 8);
+        Registers middle = new Registers(BASE + 8, 4);
+        Registers high = new Registers(BASE + 12, 16);
+        io.register(low);
+        io.register(middle);
+        io.register(high);
+        assertEquals(28, io.getCurrentOffset());
+
+        io.unregister(middle);
+        assertEquals(28, io.getCurrentOffset());
+        io.unregister(high);
+        assertEquals(8, io.getCurrentOffset());
+
+        // the next device goes straight after the remaining one
+        Registers next = new Registers(io.getBaseAddress() + io.getCurrentOffset(), 4);
+        io.register(next);
+        io.writeWord(BASE + 8, 3);
+        assertEquals(3, next.words[0]);
+        assertEquals(12, io.getCurrentOffset());
+
+        io.unregister(low);
+        io.unregister(next);
+        assertEquals(0, io.getCurrentOffset());
+    }
+
+    // a device of plain word registers
+    private static final class Registers implements IODevice {
+        private final int baseAddress;
+        private final int[] words;
+
+        Registers(int baseAddress, int size) {
+            this.baseAddress = baseAddress;
+            this.words = new int[size / 4];
+        }
+
+        @Override
+        public boolean handles(int address) {
+            return address - baseAddress >= 0 && address - baseAddress < getSize();
+        }
+
+        @Override
+        public int readWord(int addr) {
+            return words[(addr - baseAddress) / 4];
+        }
+
+        @Override
+        public void writeWord(int addr, int val) {
+            words[(addr - baseAddress) / 4] = val;
+        }
+
+        @Override
+        public byte readByte(int addr) {
+            return (byte) words[(addr - baseAddress) / 4];
+        }
+
+        @Override
+        public void writeByte(int addr, byte val) {
+            words[(addr - baseAddress) / 4] = val;
+        }
+
+        @Override
+        public int getBaseAddress() {
+            return baseAddress;
+        }
+
+        @Override
+        public int getSize() {
+            return words.length * 4;
+        }
+    }
+}